@@ -12,4 +12,8 @@
                                         [org.apache.hadoop/hadoop-core "0.20.2-dev"]
                                         [cascading/cascading-hadoop "2.0.0"
                                          :exclusions [org.codehaus.janino/janino
-                                                      org.apache.hadoop/hadoop-core]]]}})
+                                                      org.apache.hadoop/hadoop-core]]]}
+             :dev {:dependencies [[com.h2database/h2 "1.4.200"]
+                                  [org.apache.hbase/hbase "0.94.5" :classifier "tests"
+                                   :exclusions [org.apache.hadoop/hadoop-core asm]]
+                                  [org.apache.hadoop/hadoop-test "1.0.4"]]}})
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package com.twitter.maple.hbase;
+
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * The CellCodec class converts between the bytes of a cell and the value of a tuple field, so a
+ * {@link HBaseScheme} sources and sinks typed fields instead of {@link ImmutableBytesWritable}
+ * values. Values are decoded straight from the buffer of the row read. The built in codecs use
+ * the {@link Bytes} encodings, custom encodings are plugged in by subclassing.
+ *
+ * @see HBaseScheme#setCodec(cascading.tuple.Fields, CellCodec)
+ */
+public abstract class CellCodec implements Serializable {
+  /** Field BYTES, the raw cell bytes as an ImmutableBytesWritable, the default */
+  public static final CellCodec BYTES = new CellCodec() {
+    public Object decode(byte[] bytes, int offset, int length) {
+      return new ImmutableBytesWritable(Arrays.copyOfRange(bytes, offset, offset + length));
+    }
+
+    public byte[] encode(Object value) {
+      return ((ImmutableBytesWritable) value).copyBytes();
+    }
+
+    @Override
+    public String toString() {
+      return "bytes";
+    }
+  };
+
+  /** Field STRING, UTF-8 encoded strings */
+  public static final CellCodec STRING = new CellCodec() {
+    public Object decode(byte[] bytes, int offset, int length) {
+      return Bytes.toString(bytes, offset, length);
+    }
+
+    public byte[] encode(Object value) {
+      return Bytes.toBytes(value.toString());
+    }
+
+    @Override
+    public String toString() {
+      return "string";
+    }
+  };
+
+  /** Field LONG, 8 byte big endian longs */
+  public static final CellCodec LONG = new CellCodec() {
+    public Object decode(byte[] bytes, int offset, int length) {
+      return Bytes.toLong(bytes, offset, length);
+    }
+
+    public byte[] encode(Object value) {
+      return Bytes.toBytes(value instanceof Number ? ((Number) value).longValue()
+          : Long.parseLong(value.toString()));
+    }
+
+    @Override
+    public String toString() {
+      return "long";
+    }
+  };
+
+  /** Field INT, 4 byte big endian ints */
+  public static final CellCodec INT = new CellCodec() {
+    public Object decode(byte[] bytes, int offset, int length) {
+      return Bytes.toInt(bytes, offset, length);
+    }
+
+    public byte[] encode(Object value) {
+      return Bytes.toBytes(value instanceof Number ? ((Number) value).intValue()
+          : Integer.parseInt(value.toString()));
+    }
+
+    @Override
+    public String toString() {
+      return "int";
+    }
+  };
+
+  /** Field DOUBLE, 8 byte IEEE 754 doubles */
+  public static final CellCodec DOUBLE = new CellCodec() {
+    public Object decode(byte[] bytes, int offset, int length) {
+      checkLength(length, Bytes.SIZEOF_DOUBLE);
+
+      return Bytes.toDouble(bytes, offset);
+    }
+
+    public byte[] encode(Object value) {
+      return Bytes.toBytes(value instanceof Number ? ((Number) value).doubleValue()
+          : Double.parseDouble(value.toString()));
+    }
+
+    @Override
+    public String toString() {
+      return "double";
+    }
+  };
+
+  /** Field BOOLEAN, a single byte, 0 for false */
+  public static final CellCodec BOOLEAN = new CellCodec() {
+    public Object decode(byte[] bytes, int offset, int length) {
+      checkLength(length, Bytes.SIZEOF_BOOLEAN);
+
+      return bytes[offset] != 0;
+    }
+
+    public byte[] encode(Object value) {
+      return Bytes.toBytes(value instanceof Boolean ? (Boolean) value
+          : Boolean.parseBoolean(value.toString()));
+    }
+
+    @Override
+    public String toString() {
+      return "boolean";
+    }
+  };
+
+  /**
+   * Method decode converts the bytes of a cell to the value of a field.
+   *
+   * @param bytes  the buffer holding the cell, which must not be modified or retained
+   * @param offset the offset of the value in the buffer
+   * @param length the length of the value
+   * @return Object
+   */
+  public abstract Object decode(byte[] bytes, int offset, int length);
+
+  /**
+   * Method encode converts the value of a field to the bytes of a cell, never given null.
+   *
+   * @param value of type Object
+   * @return byte[]
+   */
+  public abstract byte[] encode(Object value);
+
+  /** Two codecs are equal if they describe the same encoding. */
+  @Override
+  public boolean equals(Object object) {
+    return object instanceof CellCodec && toString().equals(object.toString());
+  }
+
+  @Override
+  public int hashCode() {
+    return toString().hashCode();
+  }
+
+  private static void checkLength(int length, int expected) {
+    if (length != expected) {
+      throw new IllegalArgumentException(
+          "expected a value of " + expected + " bytes, found: " + length);
+    }
+  }
+}
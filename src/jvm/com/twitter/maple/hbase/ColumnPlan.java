@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+
+package com.twitter.maple.hbase;
+
+import cascading.tuple.Fields;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+
+/**
+ * The ColumnPlan class holds the family and qualifier bytes of every value column of a {@link
+ * HBaseScheme}, and the positions of the key and value fields in its tuples, encoded once per task
+ * instead of once per cell.
+ */
+class ColumnPlan {
+  /** Field keyPosition */
+  final int keyPosition;
+  /** Field families */
+  final byte[][] families;
+  /** Field qualifiers */
+  final byte[][] qualifiers;
+  /** Field valuePositions */
+  final int[] valuePositions;
+  /** Field keyCodec, null if the key is sourced and sunk as raw bytes */
+  final CellCodec keyCodec;
+  /** Field codecs, null for the value columns sourced and sunk as raw bytes */
+  final CellCodec[] codecs;
+  /** Field timestampPosition, -1 if the tuples have no timestamp field */
+  final int timestampPosition;
+  /** Field sortedColumns, the value columns in the family and qualifier order of a Result */
+  final int[] sortedColumns;
+
+  /**
+   * Constructor ColumnPlan creates a new ColumnPlan instance.
+   *
+   * @param familyNames the family of each of the valueFields, or null if the value field names
+   *                    are fully qualified as family:qualifier
+   * @param keyField    of type Fields
+   * @param valueFields of type Fields[]
+   * @param timestampField the field holding the timestamp of the row, or null
+   * @param codecs      the codec of the key and value fields, by field name
+   * @param tupleFields the fields of the tuples read or written, positions are resolved against
+   */
+  ColumnPlan(String[] familyNames, Fields keyField, Fields[] valueFields, Fields timestampField,
+      Map<String, CellCodec> codecs, Fields tupleFields) {
+    int size = 0;
+
+    for (Fields fields : valueFields) { size += fields.size(); }
+
+    keyPosition = tupleFields.getPos(keyField.get(0));
+    keyCodec = codec(codecs, (String) keyField.get(0));
+    timestampPosition = timestampField == null ? -1 : tupleFields.getPos(timestampField.get(0));
+    families = new byte[size][];
+    qualifiers = new byte[size][];
+    valuePositions = new int[size];
+    this.codecs = new CellCodec[size];
+
+    int count = 0;
+
+    for (int i = 0; i < valueFields.length; i++) {
+      Fields fields = valueFields[i];
+
+      for (int j = 0; j < fields.size(); j++) {
+        String fieldName = (String) fields.get(j);
+
+        if (familyNames == null) {
+          int pos = fieldName.indexOf(":");
+
+          families[count] = Bytes.toBytes(pos < 0 ? fieldName : fieldName.substring(0, pos));
+          qualifiers[count] = pos < 0 ? new byte[0] : Bytes.toBytes(fieldName.substring(pos + 1));
+        } else {
+          families[count] = Bytes.toBytes(familyNames[i]);
+          qualifiers[count] = Bytes.toBytes(fieldName);
+        }
+
+        this.codecs[count] = codec(codecs, fieldName);
+        valuePositions[count++] = tupleFields.getPos(fieldName);
+      }
+    }
+
+    Integer[] order = new Integer[size];
+
+    for (int i = 0; i < size; i++) { order[i] = i; }
+
+    Arrays.sort(order, new Comparator<Integer>() {
+      public int compare(Integer left, Integer right) {
+        int result = Bytes.compareTo(families[left], families[right]);
+
+        return result != 0 ? result : Bytes.compareTo(qualifiers[left], qualifiers[right]);
+      }
+    });
+
+    sortedColumns = new int[size];
+
+    for (int i = 0; i < size; i++) { sortedColumns[i] = order[i]; }
+  }
+
+  /** Raw bytes are read as views or copies by the scheme itself, not through a codec. */
+  private static CellCodec codec(Map<String, CellCodec> codecs, String fieldName) {
+    CellCodec codec = codecs.get(fieldName);
+
+    return CellCodec.BYTES.equals(codec) ? null : codec;
+  }
+
+  /**
+   * Method compare orders the column of the given KeyValue against the given value column, without
+   * copying either out of the KeyValue buffer.
+   *
+   * @param keyValue of type KeyValue
+   * @param column   the index of the value column
+   * @return negative, zero or positive as the KeyValue column sorts before, equal to, or after
+   */
+  int compare(KeyValue keyValue, int column) {
+    byte[] buffer = keyValue.getBuffer();
+    int familyOffset = keyValue.getFamilyOffset();
+    int familyLength = keyValue.getFamilyLength(familyOffset);
+    int result = Bytes.compareTo(buffer, familyOffset, familyLength, families[column], 0,
+        families[column].length);
+
+    if (result != 0) { return result; }
+
+    return Bytes.compareTo(buffer, keyValue.getQualifierOffset(familyOffset),
+        keyValue.getQualifierLength(keyValue.getRowLength(), familyLength), qualifiers[column], 0,
+        qualifiers[column].length);
+  }
+
+  /** @return the number of value columns */
+  int size() {
+    return families.length;
+  }
+}
@@ -19,15 +19,16 @@ import cascading.scheme.Scheme;
 import cascading.scheme.SinkCall;
 import cascading.scheme.SourceCall;
 import cascading.tap.Tap;
+import cascading.tap.TapException;
 import cascading.tuple.Fields;
 import cascading.tuple.Tuple;
-import cascading.tuple.TupleEntry;
 import cascading.util.Util;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.hbase.mapred.TableOutputFormat;
-import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.RecordReader;
@@ -37,7 +38,9 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 
 /**
  * The HBaseScheme class is a {@link Scheme} subclass. It is used in conjunction with the {@HBaseTap} to
@@ -50,12 +53,25 @@ public class HBaseScheme
   /** Field LOG */
   private static final Logger LOG = LoggerFactory.getLogger(HBaseScheme.class);
 
+  /** Field EMPTY_BYTES, the value of missing cells */
+  private static final byte[] EMPTY_BYTES = new byte[0];
+  /** Field EMPTY, the value of missing cells in zero copy mode, shared by all tuples */
+  private static final ImmutableBytesWritable EMPTY = new ImmutableBytesWritable(EMPTY_BYTES);
+
   /** Field keyFields */
   private Fields keyField;
   /** String familyNames */
   private String[] familyNames;
   /** Field valueFields */
   private Fields[] valueFields;
+  /** Field zeroCopy */
+  private boolean zeroCopy = false;
+  /** Field scanFilter */
+  private ScanFilter scanFilter;
+  /** Field timestampField */
+  private Fields timestampField;
+  /** Field codecs, by field name, raw bytes if missing */
+  private Map<String, CellCodec> codecs = new HashMap<String, CellCodec>();
 
   /** String columns */
   private transient String[] columns;
@@ -129,10 +145,122 @@ public class HBaseScheme
       allFields = Fields.join(keyFields, Fields.join(columnFields)); // prepend
     }
 
+    if (timestampField != null) {
+      allFields = Fields.join(allFields, timestampField); // append
+    }
+
     setSourceFields(allFields);
     setSinkFields(allFields);
   }
 
+  /**
+   * Method setZeroCopy sets whether cell values are sourced without being copied.
+   * <p/>
+   * When true, the cells of each row are matched in a single pass over {@link Result#raw()}, and
+   * values are sourced as offset and length views over the buffer of the row read, instead of as
+   * copies. Missing cells all share one empty instance. The views keep the whole row buffer alive
+   * for as long as they are held, and must not be modified.
+   *
+   * @param zeroCopy of type boolean
+   */
+  public void setZeroCopy(boolean zeroCopy) {
+    this.zeroCopy = zeroCopy;
+  }
+
+  /**
+   * Method isZeroCopy returns the zeroCopy of this HBaseScheme object.
+   *
+   * @return the zeroCopy (type boolean) of this HBaseScheme object.
+   */
+  public boolean isZeroCopy() {
+    return zeroCopy;
+  }
+
+  /**
+   * Method setScanFilter sets the predicate pushed down to the region servers, so that only the
+   * rows and cells it matches are read.
+   *
+   * @param scanFilter of type ScanFilter
+   */
+  public void setScanFilter(ScanFilter scanFilter) {
+    this.scanFilter = scanFilter;
+  }
+
+  /**
+   * Method getScanFilter returns the scanFilter of this HBaseScheme object.
+   *
+   * @return the scanFilter (type ScanFilter) of this HBaseScheme object.
+   */
+  public ScanFilter getScanFilter() {
+    return scanFilter;
+  }
+
+  /**
+   * Method setTimestampField appends a field holding the timestamp of each row to the tuples. When
+   * sourcing, it is the latest timestamp of the cells read, as a long. When sinking, it is the
+   * timestamp of the cells written, the region server time if null.
+   *
+   * @param timestampField of type Fields
+   */
+  public void setTimestampField(Fields timestampField) {
+    if (timestampField != null && timestampField.size() != 1) {
+      throw new IllegalArgumentException(
+          "may only have one timestamp field, found: " + timestampField.print());
+    }
+
+    this.timestampField = timestampField;
+
+    setSourceSink(this.keyField, this.valueFields);
+  }
+
+  /**
+   * Method getTimestampField returns the timestampField of this HBaseScheme object.
+   *
+   * @return the timestampField (type Fields) of this HBaseScheme object.
+   */
+  public Fields getTimestampField() {
+    return timestampField;
+  }
+
+  /**
+   * Method setCodec sources and sinks the given key or value fields as typed values converted by
+   * the given codec, for example {@link CellCodec#LONG}, instead of as raw bytes. Values are
+   * decoded straight from the row read, missing cells are sourced as null, and null values are not
+   * sunk.
+   *
+   * @param fields of type Fields
+   * @param codec  of type CellCodec
+   */
+  public void setCodec(Fields fields, CellCodec codec) {
+    Fields columnFields = Fields.join(keyField, Fields.join(valueFields));
+
+    for (int i = 0; i < fields.size(); i++) {
+      String fieldName = (String) fields.get(i);
+
+      if (!columnFields.contains(new Fields(fieldName))) {
+        throw new IllegalArgumentException("not a key or value field: " + fieldName);
+      }
+
+      if (codec == null) {
+        codecs.remove(fieldName);
+      } else {
+        codecs.put(fieldName, codec);
+      }
+    }
+  }
+
+  /**
+   * Method getCodec returns the codec of the given field, raw bytes if none was set.
+   *
+   * @param fieldName of type String
+   * @return CellCodec
+   */
+  public CellCodec getCodec(String fieldName) {
+    CellCodec codec = codecs.get(fieldName);
+
+    return codec == null ? CellCodec.BYTES : codec;
+  }
+
   /**
    * Method getFamilyNames returns the set of familyNames of this HBaseScheme object.
    *
@@ -157,10 +285,13 @@ public class HBaseScheme
   @Override
   public void sourcePrepare(FlowProcess<JobConf> flowProcess,
       SourceCall<Object[], RecordReader> sourceCall) {
-    Object[] pair =
-        new Object[]{sourceCall.getInput().createKey(), sourceCall.getInput().createValue()};
+    ColumnPlan plan =
+        new ColumnPlan(familyNames, keyField, valueFields, timestampField, codecs,
+            getSourceFields());
+    Object[] context = new Object[]{sourceCall.getInput().createKey(),
+        sourceCall.getInput().createValue(), plan};
 
-    sourceCall.setContext(pair);
+    sourceCall.setContext(context);
   }
 
   @Override
@@ -172,10 +303,10 @@ public class HBaseScheme
   @Override
   public boolean source(FlowProcess<JobConf> flowProcess,
       SourceCall<Object[], RecordReader> sourceCall) throws IOException {
-    Tuple result = new Tuple();
-
-    Object key = sourceCall.getContext()[0];
-    Object value = sourceCall.getContext()[1];
+    Object[] context = sourceCall.getContext();
+    Object key = context[0];
+    Object value = context[1];
+    ColumnPlan plan = (ColumnPlan) context[2];
     boolean hasNext = sourceCall.getInput().next(key, value);
     if (!hasNext) { return false; }
 
@@ -184,20 +315,34 @@ public class HBaseScheme
 
     ImmutableBytesWritable keyWritable = (ImmutableBytesWritable) key;
     Result row = (Result) value;
-    result.add(keyWritable);
-
-    for (int i = 0; i < this.familyNames.length; i++) {
-      String familyName = this.familyNames[i];
-      byte[] familyNameBytes = Bytes.toBytes(familyName);
-      Fields fields = this.valueFields[i];
-      for (int k = 0; k < fields.size(); k++) {
-        String fieldName = (String) fields.get(k);
-        byte[] fieldNameBytes = Bytes.toBytes(fieldName);
-        byte[] cellValue = row.getValue(familyNameBytes, fieldNameBytes);
+    Tuple result = Tuple.size(plan.size() + (plan.timestampPosition < 0 ? 1 : 2));
+
+    if (plan.keyCodec == null) {
+      result.set(plan.keyPosition, keyWritable);
+    } else {
+      result.set(plan.keyPosition, plan.keyCodec.decode(keyWritable.get(), keyWritable.getOffset(),
+          keyWritable.getLength()));
+    }
+
+    if (plan.timestampPosition >= 0) {
+      result.set(plan.timestampPosition, latestTimestamp(row));
+    }
+
+    if (zeroCopy) {
+      sourceViews(plan, row, result);
+    } else {
+      for (int i = 0; i < plan.size(); i++) {
+        if (plan.codecs[i] != null) {
+          result.set(plan.valuePositions[i], decode(plan.codecs[i],
+              row.getColumnLatest(plan.families[i], plan.qualifiers[i])));
+          continue;
+        }
+
+        byte[] cellValue = row.getValue(plan.families[i], plan.qualifiers[i]);
         if (cellValue == null) {
-            cellValue = new byte[0];
+            cellValue = EMPTY_BYTES;
         }
-        result.add(new ImmutableBytesWritable(cellValue));
+        result.set(plan.valuePositions[i], new ImmutableBytesWritable(cellValue));
       }
     }
 
@@ -206,31 +351,109 @@ public class HBaseScheme
     return true;
   }
 
+  /** Decodes the value of the given cell in place, null if the cell is missing. */
+  private static Object decode(CellCodec codec, KeyValue keyValue) {
+    if (keyValue == null) { return null; }
+
+    return codec.decode(keyValue.getBuffer(), keyValue.getValueOffset(),
+        keyValue.getValueLength());
+  }
+
+  /** Returns the latest timestamp of the cells of the row. */
+  private static long latestTimestamp(Result row) {
+    long timestamp = HConstants.OLDEST_TIMESTAMP;
+
+    for (KeyValue keyValue : row.raw()) {
+      timestamp = Math.max(timestamp, keyValue.getTimestamp());
+    }
+
+    return timestamp;
+  }
+
+  /**
+   * Merges the sorted KeyValues of the row with the sorted value columns, taking the first, and
+   * so latest, version of each column.
+   */
+  private void sourceViews(ColumnPlan plan, Result row, Tuple result) {
+    KeyValue[] keyValues = row.raw();
+    int current = 0;
+
+    for (int i = 0; i < plan.size(); i++) {
+      int column = plan.sortedColumns[i];
+      Object cellValue = plan.codecs[column] == null ? EMPTY : null;
+
+      while (keyValues != null && current < keyValues.length) {
+        KeyValue keyValue = keyValues[current];
+        int compare = plan.compare(keyValue, column);
+
+        if (compare < 0) {
+          current++;
+          continue;
+        }
+
+        // left in place, the same column may be selected twice
+        if (compare == 0) {
+          cellValue = plan.codecs[column] != null ? decode(plan.codecs[column], keyValue)
+              : new ImmutableBytesWritable(keyValue.getBuffer(), keyValue.getValueOffset(),
+                  keyValue.getValueLength());
+        }
+
+        break;
+      }
+
+      result.set(plan.valuePositions[column], cellValue);
+    }
+  }
+
+  @Override
+  public void sinkPrepare(FlowProcess<JobConf> flowProcess,
+      SinkCall<Object[], OutputCollector> sinkCall) {
+    sinkCall.setContext(
+        new Object[]{new ColumnPlan(familyNames, keyField, valueFields, timestampField, codecs,
+            getSinkFields())});
+  }
+
+  @Override
+  public void sinkCleanup(FlowProcess<JobConf> flowProcess,
+      SinkCall<Object[], OutputCollector> sinkCall) {
+    sinkCall.setContext(null);
+  }
+
   @Override
   public void sink(FlowProcess<JobConf> flowProcess, SinkCall<Object[], OutputCollector> sinkCall)
       throws IOException {
-    TupleEntry tupleEntry = sinkCall.getOutgoingEntry();
+    ColumnPlan plan = (ColumnPlan) sinkCall.getContext()[0];
+    Tuple tuple = sinkCall.getOutgoingEntry().getTuple();
     OutputCollector outputCollector = sinkCall.getOutput();
-    Tuple key = tupleEntry.selectTuple(keyField);
-    ImmutableBytesWritable keyBytes = (ImmutableBytesWritable) key.getObject(0);
-    Put put = new Put(keyBytes.get());
-
-    for (int i = 0; i < valueFields.length; i++) {
-      Fields fieldSelector = valueFields[i];
-      TupleEntry values = tupleEntry.selectEntry(fieldSelector);
-
-      for (int j = 0; j < values.getFields().size(); j++) {
-        Fields fields = values.getFields();
-        Tuple tuple = values.getTuple();
-
-        ImmutableBytesWritable valueBytes = (ImmutableBytesWritable) tuple.getObject(j);
-        put.add(Bytes.toBytes(familyNames[i]), Bytes.toBytes((String) fields.get(j)), valueBytes.get());
+    Object key = tuple.getObject(plan.keyPosition);
+    byte[] keyBytes = plan.keyCodec == null ? bytes((ImmutableBytesWritable) key)
+        : plan.keyCodec.encode(key);
+    Object timestamp = plan.timestampPosition < 0 ? null : tuple.getObject(plan.timestampPosition);
+    Put put = timestamp == null ? new Put(keyBytes)
+        : new Put(keyBytes, tuple.getLong(plan.timestampPosition));
+
+    for (int i = 0; i < plan.size(); i++) {
+      Object value = tuple.getObject(plan.valuePositions[i]);
+
+      if (plan.codecs[i] == null) {
+        put.add(plan.families[i], plan.qualifiers[i], bytes((ImmutableBytesWritable) value));
+      } else if (value != null) {
+        put.add(plan.families[i], plan.qualifiers[i], plan.codecs[i].encode(value));
       }
     }
 
     outputCollector.collect(null, put);
   }
 
+  /** Returns the bytes of the given writable, copied only if it is a view over a larger buffer. */
+  private static byte[] bytes(ImmutableBytesWritable writable) {
+    byte[] bytes = writable.get();
+
+    if (writable.getOffset() == 0 && writable.getLength() == bytes.length) { return bytes; }
+
+    return writable.copyBytes();
+  }
+
   @Override
   public void sinkConfInit(FlowProcess<JobConf> process,
       Tap<JobConf, RecordReader, OutputCollector> tap, JobConf conf) {
@@ -248,6 +471,16 @@ public class HBaseScheme
     String columns = getColumns();
     LOG.debug("sourcing from columns: {}", columns);
     conf.set(TableInputFormat.COLUMN_LIST, columns);
+
+    if (scanFilter != null) {
+      LOG.debug("filtering with: {}", scanFilter);
+
+      try {
+        TableInputFormat.setFilter(conf, scanFilter.toFilter());
+      } catch (IOException exception) {
+        throw new TapException("unable to serialize filter: " + scanFilter, exception);
+      }
+    }
   }
 
   private String getColumns() {
@@ -297,6 +530,15 @@ public class HBaseScheme
       return false;
     }
     if (!Arrays.equals(valueFields, that.valueFields)) { return false; }
+    if (scanFilter != null ? !scanFilter.equals(that.scanFilter) : that.scanFilter != null) {
+      return false;
+    }
+    if (timestampField != null ? !timestampField.equals(that.timestampField)
+        : that.timestampField != null) {
+      return false;
+    }
+    if (!codecs.equals(that.codecs)) { return false; }
+    if (zeroCopy != that.zeroCopy) { return false; }
 
     return true;
   }
@@ -307,6 +549,10 @@ public class HBaseScheme
     result = 31 * result + (keyField != null ? keyField.hashCode() : 0);
     result = 31 * result + (familyNames != null ? Arrays.hashCode(familyNames) : 0);
     result = 31 * result + (valueFields != null ? Arrays.hashCode(valueFields) : 0);
+    result = 31 * result + (scanFilter != null ? scanFilter.hashCode() : 0);
+    result = 31 * result + (timestampField != null ? timestampField.hashCode() : 0);
+    result = 31 * result + codecs.hashCode();
+    result = 31 * result + (zeroCopy ? 1 : 0);
     return result;
   }
 }
@@ -13,7 +13,10 @@
 package com.twitter.maple.hbase;
 
 import com.twitter.maple.hbase.mapred.TableInputFormat;
+import com.twitter.maple.tap.TapUtil;
 
+import cascading.flow.Flow;
+import cascading.flow.FlowListener;
 import cascading.flow.FlowProcess;
 import cascading.tap.SinkMode;
 import cascading.tap.Tap;
@@ -23,10 +26,12 @@ import cascading.tuple.TupleEntryCollector;
 import cascading.tuple.TupleEntryIterator;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.*;
 import org.apache.hadoop.hbase.client.HBaseAdmin;
 import org.apache.hadoop.hbase.mapreduce.TableOutputFormat;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.mapred.FileInputFormat;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.OutputCollector;
@@ -35,7 +40,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
 import java.util.Map.Entry;
 import java.util.UUID;
 
@@ -60,6 +70,24 @@ public class HBaseTap extends Tap<JobConf, RecordReader, OutputCollector> {
   private String quorumNames;
   /** Field tableName */
   private String tableName;
+  /** Field scanConfig */
+  private ScanConfig scanConfig;
+  /** Field startRow */
+  private byte[] startRow;
+  /** Field stopRow */
+  private byte[] stopRow;
+  /** Field splitsPerRegion */
+  private int splitsPerRegion = -1;
+  /** Field combineSplitSize */
+  private long combineSplitSize = -1;
+  /** Field readHFiles */
+  private boolean readHFiles = false;
+  /** Field incrementalState */
+  private String incrementalState;
+  /** Field incrementalStart, the start of the time range read by the last flow planned */
+  private long incrementalStart = -1;
+  /** Field incrementalEnd, the end of the time range read by the last flow planned */
+  private long incrementalEnd = -1;
 
   /**
    * Constructor HBaseTap creates a new HBaseTap instance.
@@ -128,6 +156,132 @@ public class HBaseTap extends Tap<JobConf, RecordReader, OutputCollector> {
     return tableName;
   }
 
+  /**
+   * Method setScanConfig sets the settings of the scans this HBaseTap reads its table with.
+   *
+   * @param scanConfig of type ScanConfig
+   */
+  public void setScanConfig(ScanConfig scanConfig) {
+    this.scanConfig = scanConfig;
+  }
+
+  /**
+   * Method getScanConfig returns the scanConfig of this HBaseTap object.
+   *
+   * @return the scanConfig (type ScanConfig) of this HBaseTap object.
+   */
+  public ScanConfig getScanConfig() {
+    return scanConfig;
+  }
+
+  /**
+   * Method setRowRange restricts reading to the rows in [startRow, stopRow). The range bounds the
+   * scans, and regions outside of it are not read at all.
+   *
+   * @param startRow the first row read, null for the start of the table
+   * @param stopRow  the row reading stops before, null for the end of the table
+   */
+  public void setRowRange(byte[] startRow, byte[] stopRow) {
+    if (startRow != null && stopRow != null && stopRow.length != 0
+        && Bytes.compareTo(startRow, stopRow) > 0) {
+      throw new IllegalArgumentException("start row sorts after stop row");
+    }
+
+    this.startRow = startRow;
+    this.stopRow = stopRow;
+  }
+
+  /**
+   * Method setRowPrefix restricts reading to the rows starting with the given prefix.
+   *
+   * @param prefix of type byte[]
+   */
+  public void setRowPrefix(byte[] prefix) {
+    setRowRange(prefix, TableInputFormat.getPrefixStopRow(prefix));
+  }
+
+  public byte[] getStartRow() {
+    return startRow;
+  }
+
+  public byte[] getStopRow() {
+    return stopRow;
+  }
+
+  /**
+   * Method setSplitsPerRegion divides the rows of each region read into the given number of
+   * splits, interpolated between the region's first and last rows, for more map parallelism than
+   * there are regions. All splits of a region are located on its region server. If 0, regions are
+   * divided into as many splits as needed to honor the number of map tasks of the job.
+   *
+   * @param splitsPerRegion of type int
+   */
+  public void setSplitsPerRegion(int splitsPerRegion) {
+    this.splitsPerRegion = splitsPerRegion;
+  }
+
+  public int getSplitsPerRegion() {
+    return splitsPerRegion;
+  }
+
+  /**
+   * Method setCombineSplitSize combines small regions hosted by the same region server into
+   * splits of up to the given estimated bytes, based on the store file sizes the servers report,
+   * with every region counted as at least a megabyte. The regions of a combined split are read
+   * one after the other by a single map task. Can not be used along with {@link
+   * #setSplitsPerRegion(int)}.
+   *
+   * @param combineSplitSize of type long
+   */
+  public void setCombineSplitSize(long combineSplitSize) {
+    this.combineSplitSize = combineSplitSize;
+  }
+
+  public long getCombineSplitSize() {
+    return combineSplitSize;
+  }
+
+  /**
+   * Method setReadHFiles reads the store files of the table straight from the filesystem in the
+   * map tasks, instead of scanning through the region servers, so large scans neither load the
+   * region servers nor evict their block caches. The table is flushed when the flow is planned,
+   * writes made after that are not read. Scan filters can not be used when reading store files,
+   * sourcing from a tap with both fails when the flow is planned.
+   *
+   * @param readHFiles of type boolean
+   */
+  public void setReadHFiles(boolean readHFiles) {
+    this.readHFiles = readHFiles;
+  }
+
+  public boolean isReadHFiles() {
+    return readHFiles;
+  }
+
+  /**
+   * Method setIncremental only reads the cells written since the last successful run, by scanning
+   * the time range from the timestamp kept in the given state file up to the time the flow is
+   * planned. Region servers skip the store files holding no cells of that range. Without a state
+   * file the whole table is read. The range is fixed when the tap is first planned, and only moves
+   * on once it was committed, so every flow planned in between reads the same cells.
+   * <p/>
+   * Cascading does not commit source taps, so the state file is only advanced by {@link
+   * #commitIncremental(JobConf)}, to be called once the flow completed, or by the listener of
+   * {@link #getIncrementalListener()} added to the flow. A failed run is read again by the next
+   * one. Cells are matched by their timestamps, so rows written with explicit older timestamps,
+   * and deleted rows, are not seen.
+   *
+   * @param incrementalState the path of the state file, on the default filesystem if unqualified
+   * @see HBaseScheme#setTimestampField(cascading.tuple.Fields)
+   */
+  public void setIncremental(String incrementalState) {
+    this.incrementalState = incrementalState;
+  }
+
+  public String getIncremental() {
+    return incrementalState;
+  }
+
   public Path getPath() {
     return new Path(SCHEME + ":/" + tableName.replaceAll(":", "_"));
   }
@@ -149,7 +303,7 @@ public class HBaseTap extends Tap<JobConf, RecordReader, OutputCollector> {
 
     LOG.debug("sinking to table: {}", tableName);
 
-    if (isReplace() && conf.get("mapred.task.partition") == null) {
+    if (isReplace() && TapUtil.isClient(conf)) {
       try {
         deleteResource(conf);
 
@@ -239,9 +393,174 @@ public class HBaseTap extends Tap<JobConf, RecordReader, OutputCollector> {
 
     LOG.debug("sourcing from table: {}", tableName);
     TableInputFormat.setTableName(conf, tableName);
+
+    if (scanConfig != null) {
+      LOG.debug("scanning with: {}", scanConfig);
+      scanConfig.configure(conf);
+    }
+
+    TableInputFormat.setRowRange(conf, startRow, stopRow);
+
+    if (splitsPerRegion >= 0) {
+      conf.setInt(TableInputFormat.SPLITS_PER_REGION, splitsPerRegion);
+    }
+
+    if (combineSplitSize >= 0) {
+      conf.setLong(TableInputFormat.COMBINE_SPLIT_SIZE, combineSplitSize);
+    }
+
+    if (incrementalState != null && TapUtil.isClient(conf)) {
+      if (scanConfig != null && scanConfig.getMinTimestamp() >= 0) {
+        throw new IllegalArgumentException("incremental scans can not have a time range");
+      }
+
+      // planning initializes the tap several times, every step must read the same time range
+      if (incrementalEnd < 0) {
+        incrementalStart = readIncrementalState(conf);
+        incrementalEnd = System.currentTimeMillis();
+
+        LOG.info("scanning table: {} for cells written since: {}", tableName, incrementalStart);
+      }
+
+      conf.setLong(TableInputFormat.SCAN_TIME_RANGE_START, incrementalStart);
+      conf.setLong(TableInputFormat.SCAN_TIME_RANGE_END, incrementalEnd);
+    }
+
+    if (readHFiles) {
+      if (((HBaseScheme) getScheme()).getScanFilter() != null) {
+        throw new IllegalArgumentException("scan filters can not be applied when reading store files");
+      }
+
+      if (TapUtil.isClient(conf)) {
+        flushResource(conf);
+      }
+
+      conf.setBoolean(TableInputFormat.READ_HFILES, true);
+    }
+
     super.sourceConfInit(process, conf);
   }
 
+  /**
+   * Method commitIncremental advances the state file of this incremental tap to the end of the
+   * time range read by the last flow planned with it, so the next flow only reads the cells
+   * written since. Call it once that flow completed successfully, for example right after {@code
+   * flow.complete()}.
+   *
+   * @param conf the configuration the state file system is looked up with
+   * @return false if no flow was planned with this tap since the state was last advanced
+   */
+  public boolean commitIncremental(JobConf conf) throws IOException {
+    if (incrementalState == null) {
+      throw new IllegalStateException("tap is not incremental: " + tableName);
+    }
+
+    if (incrementalEnd < 0) {
+      return false;
+    }
+
+    writeIncrementalState(conf, incrementalEnd);
+    incrementalStart = -1;
+    incrementalEnd = -1;
+
+    return true;
+  }
+
+  /**
+   * Method getIncrementalListener returns a {@link FlowListener} calling {@link
+   * #commitIncremental(JobConf)} once the flow it is added to completed successfully.
+   *
+   * @return FlowListener
+   */
+  public FlowListener getIncrementalListener() {
+    return new FlowListener() {
+      public void onStarting(Flow flow) {
+      }
+
+      public void onStopping(Flow flow) {
+      }
+
+      public void onCompleted(Flow flow) {
+        if (!flow.getFlowStats().isSuccessful()) {
+          return;
+        }
+
+        try {
+          commitIncremental((JobConf) flow.getConfig());
+        } catch (IOException e) {
+          throw new RuntimeException("could not advance incremental state: " + incrementalState, e);
+        }
+      }
+
+      public boolean onThrowable(Flow flow, Throwable throwable) {
+        return false;
+      }
+    };
+  }
+
+  private long readIncrementalState(JobConf conf) {
+    Path path = new Path(incrementalState);
+
+    try {
+      FileSystem fs = path.getFileSystem(conf);
+
+      if (!fs.exists(path)) {
+        return 0;
+      }
+
+      BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(path), "UTF-8"));
+
+      try {
+        return Long.parseLong(reader.readLine().trim());
+      } finally {
+        reader.close();
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("could not read incremental state: " + path, e);
+    } catch (RuntimeException e) {
+      throw new RuntimeException("invalid incremental state: " + path, e);
+    }
+  }
+
+  /**
+   * Replaces the state file through a rename, so that a failure leaves the previous state intact.
+   */
+  private void writeIncrementalState(JobConf conf, long timestamp) throws IOException {
+    Path path = new Path(incrementalState);
+    Path temp = new Path(path.getParent(), "." + path.getName() + "." + id);
+    FileSystem fs = path.getFileSystem(conf);
+    Writer writer = new OutputStreamWriter(fs.create(temp, true), "UTF-8");
+
+    try {
+      writer.write(Long.toString(timestamp));
+      writer.write('\n');
+    } finally {
+      writer.close();
+    }
+
+    fs.delete(path, false);
+
+    if (!fs.rename(temp, path)) {
+      throw new IOException("could not rename " + temp + " to " + path);
+    }
+
+    LOG.info("advanced incremental state: {} to: {}", path, timestamp);
+  }
+
+  /**
+   * Flushes the memstores of the table, so that its store files hold all writes made so far.
+   */
+  private void flushResource(JobConf conf) {
+    try {
+      LOG.info("flushing table: {}", tableName);
+      getHBaseAdmin(conf).flush(tableName);
+    } catch (IOException e) {
+      throw new RuntimeException("could not flush table: " + tableName, e);
+    } catch (InterruptedException e) {
+      throw new RuntimeException("interrupted flushing table: " + tableName, e);
+    }
+  }
+
   @Override
   public boolean equals(Object object) {
     if (this == object) {
@@ -259,6 +578,24 @@ public class HBaseTap extends Tap<JobConf, RecordReader, OutputCollector> {
     if (tableName != null ? !tableName.equals(hBaseTap.tableName) : hBaseTap.tableName != null) {
       return false;
     }
+    if (scanConfig != null ? !scanConfig.equals(hBaseTap.scanConfig) : hBaseTap.scanConfig != null) {
+      return false;
+    }
+    if (!Arrays.equals(startRow, hBaseTap.startRow) || !Arrays.equals(stopRow, hBaseTap.stopRow)) {
+      return false;
+    }
+    if (splitsPerRegion != hBaseTap.splitsPerRegion) {
+      return false;
+    }
+    if (combineSplitSize != hBaseTap.combineSplitSize) {
+      return false;
+    }
+    if (readHFiles != hBaseTap.readHFiles) {
+      return false;
+    }
+    if (incrementalState != null ? !incrementalState.equals(hBaseTap.incrementalState) : hBaseTap.incrementalState != null) {
+      return false;
+    }
 
     return true;
   }
@@ -267,6 +604,13 @@ public class HBaseTap extends Tap<JobConf, RecordReader, OutputCollector> {
   public int hashCode() {
     int result = super.hashCode();
     result = 31 * result + (tableName != null ? tableName.hashCode() : 0);
+    result = 31 * result + (scanConfig != null ? scanConfig.hashCode() : 0);
+    result = 31 * result + Arrays.hashCode(startRow);
+    result = 31 * result + Arrays.hashCode(stopRow);
+    result = 31 * result + splitsPerRegion;
+    result = 31 * result + (int) (combineSplitSize ^ (combineSplitSize >>> 32));
+    result = 31 * result + (readHFiles ? 1 : 0);
+    result = 31 * result + (incrementalState != null ? incrementalState.hashCode() : 0);
     return result;
   }
 }
@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+
+package com.twitter.maple.hbase;
+
+import com.twitter.maple.hbase.mapred.TableInputFormat;
+
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.mapred.JobConf;
+
+import java.io.Serializable;
+
+/**
+ * The ScanConfig class holds the settings of the scans a {@link HBaseTap} reads its table with.
+ * Settings left unset keep the HBase client defaults, notably a scanner caching of a single row
+ * per RPC, which is far too low for a full table scan.
+ *
+ * @see HBaseTap#setScanConfig(ScanConfig)
+ */
+public class ScanConfig implements Serializable {
+  /** Field caching */
+  private int caching = -1;
+  /** Field batch */
+  private int batch = -1;
+  /** Field cacheBlocks */
+  private Boolean cacheBlocks;
+  /** Field maxVersions */
+  private int maxVersions = -1;
+  /** Field minTimestamp */
+  private long minTimestamp = -1;
+  /** Field maxTimestamp */
+  private long maxTimestamp = -1;
+  /** Field maxResultSize */
+  private long maxResultSize = -1;
+
+  /**
+   * Method setCaching sets the number of rows fetched per RPC.
+   *
+   * @param caching of type int
+   */
+  public void setCaching(int caching) {
+    this.caching = caching;
+  }
+
+  public int getCaching() {
+    return caching;
+  }
+
+  /**
+   * Method setBatch sets the maximum number of cells returned per Result, splitting wide rows
+   * across several Results. The reader merges them back, so every row is still sourced as one
+   * tuple, batching only bounds the size of each response of the region servers.
+   *
+   * @param batch of type int
+   */
+  public void setBatch(int batch) {
+    this.batch = batch;
+  }
+
+  public int getBatch() {
+    return batch;
+  }
+
+  /**
+   * Method setCacheBlocks sets whether the blocks read are added to the region server block
+   * cache, a full scan should usually not evict the blocks of other readers.
+   *
+   * @param cacheBlocks of type boolean
+   */
+  public void setCacheBlocks(boolean cacheBlocks) {
+    this.cacheBlocks = cacheBlocks;
+  }
+
+  public Boolean getCacheBlocks() {
+    return cacheBlocks;
+  }
+
+  /**
+   * Method setMaxVersions sets the number of versions of each cell returned.
+   *
+   * @param maxVersions of type int
+   */
+  public void setMaxVersions(int maxVersions) {
+    this.maxVersions = maxVersions;
+  }
+
+  public int getMaxVersions() {
+    return maxVersions;
+  }
+
+  /**
+   * Method setTimeRange only returns cells with a timestamp in [minTimestamp, maxTimestamp).
+   *
+   * @param minTimestamp of type long
+   * @param maxTimestamp of type long
+   */
+  public void setTimeRange(long minTimestamp, long maxTimestamp) {
+    if (minTimestamp < 0 || maxTimestamp < minTimestamp) {
+      throw new IllegalArgumentException(
+          "invalid time range, min: " + minTimestamp + " max: " + maxTimestamp);
+    }
+
+    this.minTimestamp = minTimestamp;
+    this.maxTimestamp = maxTimestamp;
+  }
+
+  public long getMinTimestamp() {
+    return minTimestamp;
+  }
+
+  public long getMaxTimestamp() {
+    return maxTimestamp;
+  }
+
+  /**
+   * Method setMaxResultSize caps the bytes returned per RPC, whatever the caching. HBase 0.94
+   * scans have no such setting of their own, so this sets the client wide {@link
+   * HConstants#HBASE_CLIENT_SCANNER_MAX_RESULT_SIZE_KEY} of the job.
+   *
+   * @param maxResultSize of type long
+   */
+  public void setMaxResultSize(long maxResultSize) {
+    this.maxResultSize = maxResultSize;
+  }
+
+  public long getMaxResultSize() {
+    return maxResultSize;
+  }
+
+  /**
+   * Method configure writes the settings set on this ScanConfig to the given JobConf, where {@link
+   * TableInputFormat} picks them up.
+   *
+   * @param conf of type JobConf
+   */
+  public void configure(JobConf conf) {
+    if (caching > 0) {
+      conf.setInt(TableInputFormat.SCAN_CACHING, caching);
+    }
+
+    if (batch > 0) {
+      conf.setInt(TableInputFormat.SCAN_BATCH, batch);
+    }
+
+    if (cacheBlocks != null) {
+      conf.setBoolean(TableInputFormat.SCAN_CACHE_BLOCKS, cacheBlocks);
+    }
+
+    if (maxVersions > 0) {
+      conf.setInt(TableInputFormat.SCAN_MAX_VERSIONS, maxVersions);
+    }
+
+    if (minTimestamp >= 0) {
+      conf.setLong(TableInputFormat.SCAN_TIME_RANGE_START, minTimestamp);
+      conf.setLong(TableInputFormat.SCAN_TIME_RANGE_END, maxTimestamp);
+    }
+
+    if (maxResultSize > 0) {
+      conf.setLong(HConstants.HBASE_CLIENT_SCANNER_MAX_RESULT_SIZE_KEY, maxResultSize);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "ScanConfig{caching=" + caching + ", batch=" + batch + ", cacheBlocks=" + cacheBlocks
+        + ", maxVersions=" + maxVersions + ", timeRange=[" + minTimestamp + ", " + maxTimestamp
+        + "), maxResultSize=" + maxResultSize + '}';
+  }
+
+  @Override
+  public boolean equals(Object object) {
+    if (this == object) { return true; }
+    if (object == null || getClass() != object.getClass()) { return false; }
+
+    ScanConfig that = (ScanConfig) object;
+
+    if (caching != that.caching) { return false; }
+    if (batch != that.batch) { return false; }
+    if (maxVersions != that.maxVersions) { return false; }
+    if (minTimestamp != that.minTimestamp) { return false; }
+    if (maxTimestamp != that.maxTimestamp) { return false; }
+    if (maxResultSize != that.maxResultSize) { return false; }
+    if (cacheBlocks != null ? !cacheBlocks.equals(that.cacheBlocks) : that.cacheBlocks != null) {
+      return false;
+    }
+
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    int result = caching;
+    result = 31 * result + batch;
+    result = 31 * result + (cacheBlocks != null ? cacheBlocks.hashCode() : 0);
+    result = 31 * result + maxVersions;
+    result = 31 * result + (int) (minTimestamp ^ (minTimestamp >>> 32));
+    result = 31 * result + (int) (maxTimestamp ^ (maxTimestamp >>> 32));
+    result = 31 * result + (int) (maxResultSize ^ (maxResultSize >>> 32));
+    return result;
+  }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+
+package com.twitter.maple.hbase;
+
+import org.apache.hadoop.hbase.filter.BinaryComparator;
+import org.apache.hadoop.hbase.filter.ColumnPrefixFilter;
+import org.apache.hadoop.hbase.filter.CompareFilter.CompareOp;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.KeyOnlyFilter;
+import org.apache.hadoop.hbase.filter.PrefixFilter;
+import org.apache.hadoop.hbase.filter.RowFilter;
+import org.apache.hadoop.hbase.filter.SingleColumnValueFilter;
+import org.apache.hadoop.hbase.filter.TimestampsFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The ScanFilter class is a declarative predicate a {@link HBaseScheme} pushes down to the region
+ * servers, so only matching rows and cells are returned. HBase filters are not {@link
+ * Serializable}, so the predicate is kept in this form while the flow is planned, and compiled to
+ * a {@link Filter} when the job is configured.
+ *
+ * @see HBaseScheme#setScanFilter(ScanFilter)
+ */
+public abstract class ScanFilter implements Serializable {
+  /**
+   * Method toFilter compiles this predicate to a HBase filter.
+   *
+   * @return Filter
+   */
+  public abstract Filter toFilter();
+
+  /** Two filters are equal if they describe the same predicate. */
+  @Override
+  public boolean equals(Object object) {
+    return object instanceof ScanFilter && toString().equals(object.toString());
+  }
+
+  @Override
+  public int hashCode() {
+    return toString().hashCode();
+  }
+
+  /**
+   * Method rowPrefix matches rows whose key starts with the given prefix.
+   *
+   * @param prefix of type byte[]
+   * @return ScanFilter
+   */
+  public static ScanFilter rowPrefix(final byte[] prefix) {
+    return new ScanFilter() {
+      public Filter toFilter() {
+        return new PrefixFilter(prefix);
+      }
+
+      @Override
+      public String toString() {
+        return "rowPrefix(" + Bytes.toStringBinary(prefix) + ")";
+      }
+    };
+  }
+
+  /**
+   * Method row matches rows whose key compares to the given key as given.
+   *
+   * @param op  of type CompareOp
+   * @param key of type byte[]
+   * @return ScanFilter
+   */
+  public static ScanFilter row(final CompareOp op, final byte[] key) {
+    return new ScanFilter() {
+      public Filter toFilter() {
+        return new RowFilter(op, new BinaryComparator(key));
+      }
+
+      @Override
+      public String toString() {
+        return "row(" + op + ", " + Bytes.toStringBinary(key) + ")";
+      }
+    };
+  }
+
+  /**
+   * Method columnValue matches rows where the latest value of the given column compares to the
+   * given value as given. Rows missing the column do not match. The column must be one of the
+   * columns read, otherwise the region server never sees it and no row matches.
+   *
+   * @param family    of type String
+   * @param qualifier of type String
+   * @param op        of type CompareOp
+   * @param value     of type byte[]
+   * @return ScanFilter
+   */
+  public static ScanFilter columnValue(final String family, final String qualifier,
+      final CompareOp op, final byte[] value) {
+    return new ScanFilter() {
+      public Filter toFilter() {
+        SingleColumnValueFilter filter = new SingleColumnValueFilter(Bytes.toBytes(family),
+            Bytes.toBytes(qualifier), op, value);
+
+        filter.setFilterIfMissing(true);
+        filter.setLatestVersionOnly(true);
+
+        return filter;
+      }
+
+      @Override
+      public String toString() {
+        return "columnValue(" + family + ":" + qualifier + ", " + op + ", "
+            + Bytes.toStringBinary(value) + ")";
+      }
+    };
+  }
+
+  /**
+   * Method qualifierPrefix only returns the cells whose qualifier starts with the given prefix.
+   *
+   * @param prefix of type String
+   * @return ScanFilter
+   */
+  public static ScanFilter qualifierPrefix(final String prefix) {
+    return new ScanFilter() {
+      public Filter toFilter() {
+        return new ColumnPrefixFilter(Bytes.toBytes(prefix));
+      }
+
+      @Override
+      public String toString() {
+        return "qualifierPrefix(" + prefix + ")";
+      }
+    };
+  }
+
+  /**
+   * Method keyOnly strips the values of all cells returned, for flows only needing to know which
+   * rows and cells exist. Values are sourced empty.
+   *
+   * @return ScanFilter
+   */
+  public static ScanFilter keyOnly() {
+    return new ScanFilter() {
+      public Filter toFilter() {
+        return new KeyOnlyFilter();
+      }
+
+      @Override
+      public String toString() {
+        return "keyOnly()";
+      }
+    };
+  }
+
+  /**
+   * Method timestamps only returns the cells written at one of the given timestamps.
+   *
+   * @param timestamps of type long...
+   * @return ScanFilter
+   */
+  public static ScanFilter timestamps(final long... timestamps) {
+    return new ScanFilter() {
+      public Filter toFilter() {
+        List<Long> list = new ArrayList<Long>();
+
+        for (long timestamp : timestamps) { list.add(timestamp); }
+
+        return new TimestampsFilter(list);
+      }
+
+      @Override
+      public String toString() {
+        return "timestamps(" + Arrays.toString(timestamps) + ")";
+      }
+    };
+  }
+
+  /**
+   * Method and matches what all given filters match.
+   *
+   * @param filters of type ScanFilter...
+   * @return ScanFilter
+   */
+  public static ScanFilter and(ScanFilter... filters) {
+    return list(FilterList.Operator.MUST_PASS_ALL, filters);
+  }
+
+  /**
+   * Method or matches what any of the given filters match.
+   *
+   * @param filters of type ScanFilter...
+   * @return ScanFilter
+   */
+  public static ScanFilter or(ScanFilter... filters) {
+    return list(FilterList.Operator.MUST_PASS_ONE, filters);
+  }
+
+  private static ScanFilter list(final FilterList.Operator operator, final ScanFilter[] filters) {
+    return new ScanFilter() {
+      public Filter toFilter() {
+        FilterList list = new FilterList(operator);
+
+        for (ScanFilter filter : filters) { list.addFilter(filter.toFilter()); }
+
+        return list;
+      }
+
+      @Override
+      public String toString() {
+        return operator + Arrays.toString(filters);
+      }
+    };
+  }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright 2010 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.maple.hbase.mapred;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.hbase.mapred.TableSplit;
+import org.apache.hadoop.mapred.InputSplit;
+
+/**
+ * A split of several regions hosted by the same region server, read one after the other by a
+ * single map task.
+ */
+public class CombinedTableSplit implements InputSplit {
+  private TableSplit[] splits;
+  private long length;
+
+  /** Default constructor, for deserialization. */
+  public CombinedTableSplit() {
+  }
+
+  /**
+   * @param splits the region splits, all located on the same region server
+   * @param length the estimated bytes of all regions
+   */
+  public CombinedTableSplit(List<TableSplit> splits, long length) {
+    this.splits = splits.toArray(new TableSplit[splits.size()]);
+    this.length = length;
+  }
+
+  public TableSplit[] getSplits() {
+    return splits;
+  }
+
+  public long getLength() {
+    return length;
+  }
+
+  public String[] getLocations() {
+    return new String[]{splits[0].getRegionLocation()};
+  }
+
+  public void write(DataOutput out) throws IOException {
+    out.writeLong(length);
+    out.writeInt(splits.length);
+    for (TableSplit split : splits) {
+      split.write(out);
+    }
+  }
+
+  public void readFields(DataInput in) throws IOException {
+    length = in.readLong();
+    splits = new TableSplit[in.readInt()];
+    for (int i = 0; i < splits.length; i++) {
+      splits[i] = new TableSplit();
+      splits[i].readFields(in);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return Arrays.toString(splits) + " " + length + " bytes";
+  }
+}
@@ -0,0 +1,325 @@
+/**
+ * Copyright 2010 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.maple.hbase.mapred;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.io.TimeRange;
+import org.apache.hadoop.hbase.io.hfile.CacheConfig;
+import org.apache.hadoop.hbase.io.hfile.HFileDataBlockEncoder;
+import org.apache.hadoop.hbase.io.hfile.HFileDataBlockEncoderImpl;
+import org.apache.hadoop.hbase.regionserver.KeyValueHeap;
+import org.apache.hadoop.hbase.regionserver.StoreFile;
+import org.apache.hadoop.hbase.regionserver.StoreFileScanner;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.FSUtils;
+import org.apache.hadoop.mapred.RecordReader;
+
+/**
+ * Iterate over the rows of a table split by reading the store files of its regions straight from
+ * the filesystem, instead of scanning through the region servers. Only what was flushed to the
+ * store files is read, see {@link TableInputFormat#READ_HFILES}.
+ * <p/>
+ * Deletes are resolved and the columns, time range and max versions of the scan are honored, but
+ * filters and column family TTLs are not.
+ */
+public class HFileRecordReader implements RecordReader<ImmutableBytesWritable, Result> {
+  private static final Log LOG = LogFactory.getLog(HFileRecordReader.class);
+
+  private final Configuration conf;
+  private final FileSystem fs;
+  private final Path tableDir;
+  private final HTableDescriptor tableDescriptor;
+  private final CacheConfig cacheConf;
+  private final List<Scan> scans = new ArrayList<Scan>();
+  private final List<HRegionInfo> regions = new ArrayList<HRegionInfo>();
+  private int current = -1;
+  private Scan scan;
+  private List<StoreFile> storeFiles;
+  private KeyValueHeap heap;
+  private long rowCount = 0;
+
+  /**
+   * @param htable the table to read
+   * @param scans  the scans to read with, one after the other
+   */
+  public HFileRecordReader(HTable htable, List<Scan> scans) throws IOException {
+    // the store files are read once, caching their blocks would only waste the task's heap
+    this.conf = new Configuration(htable.getConfiguration());
+    this.conf.setFloat(HConstants.HFILE_BLOCK_CACHE_SIZE_KEY, 0);
+    this.cacheConf = new CacheConfig(conf);
+
+    Path rootDir = FSUtils.getRootDir(conf);
+
+    this.fs = rootDir.getFileSystem(conf);
+    this.tableDir = FSUtils.getTablePath(rootDir, htable.getTableName());
+    this.tableDescriptor = htable.getTableDescriptor();
+
+    for (Scan scan : scans) {
+      for (HRegionLocation location : htable.getRegionsInRange(scan.getStartRow(),
+          scan.getStopRow())) {
+        this.scans.add(scan);
+        this.regions.add(location.getRegionInfo());
+      }
+    }
+
+    nextRegion();
+  }
+
+  /**
+   * Open the store files of the next region, if any, positioned at the first row scanned.
+   *
+   * @return false if all regions were read
+   */
+  private boolean nextRegion() throws IOException {
+    closeRegion();
+
+    if (current + 1 >= regions.size()) { return false; }
+
+    scan = scans.get(++current);
+
+    Path regionDir = new Path(tableDir, regions.get(current).getEncodedName());
+
+    storeFiles = new ArrayList<StoreFile>();
+
+    for (Path familyDir : getFamilyDirs(regionDir)) {
+      HColumnDescriptor family = tableDescriptor.getFamily(Bytes.toBytes(familyDir.getName()));
+
+      if (family == null || !fs.exists(familyDir)) { continue; }
+
+      // the files are written with the encoding and bloom filter of their family
+      HFileDataBlockEncoder encoder = new HFileDataBlockEncoderImpl(
+          family.getDataBlockEncodingOnDisk(), family.getDataBlockEncoding());
+
+      for (FileStatus file : fs.listStatus(familyDir)) {
+        if (file.isDir() || file.getPath().getName().startsWith(".")) { continue; }
+
+        // references to the halves of a split parent's files are resolved by the store file
+        storeFiles.add(new StoreFile(fs, file.getPath(), conf, cacheConf,
+            family.getBloomFilterType(), encoder));
+      }
+    }
+
+    LOG.info("reading " + storeFiles.size() + " store files of region: " + regionDir);
+
+    KeyValue first = KeyValue.createFirstOnRow(scan.getStartRow());
+    List<StoreFileScanner> scanners = StoreFileScanner.getScannersForStoreFiles(storeFiles,
+        false, false);
+
+    // the heap drops scanners not positioned on a key yet
+    for (StoreFileScanner scanner : scanners) {
+      scanner.seek(first);
+    }
+
+    heap = new KeyValueHeap(scanners, KeyValue.COMPARATOR);
+
+    return true;
+  }
+
+  private List<Path> getFamilyDirs(Path regionDir) throws IOException {
+    List<Path> familyDirs = new ArrayList<Path>();
+
+    if (scan.hasFamilies()) {
+      for (byte[] family : scan.getFamilies()) {
+        familyDirs.add(new Path(regionDir, Bytes.toString(family)));
+      }
+
+      return familyDirs;
+    }
+
+    if (!fs.exists(regionDir)) { return familyDirs; }
+
+    for (FileStatus file : fs.listStatus(regionDir)) {
+      if (file.isDir() && !file.getPath().getName().startsWith(".")) {
+        familyDirs.add(file.getPath());
+      }
+    }
+
+    return familyDirs;
+  }
+
+  private void closeRegion() throws IOException {
+    if (heap != null) {
+      heap.close();
+      heap = null;
+    }
+
+    if (storeFiles != null) {
+      for (StoreFile storeFile : storeFiles) {
+        storeFile.closeReader(false);
+      }
+
+      storeFiles = null;
+    }
+  }
+
+  public void close() throws IOException {
+    closeRegion();
+  }
+
+  public ImmutableBytesWritable createKey() {
+    return new ImmutableBytesWritable();
+  }
+
+  public Result createValue() {
+    return new Result();
+  }
+
+  public long getPos() {
+    return rowCount;
+  }
+
+  public float getProgress() {
+    return regions.isEmpty() ? 1 : (float) Math.max(current, 0) / regions.size();
+  }
+
+  public boolean next(ImmutableBytesWritable key, Result value) throws IOException {
+    while (heap != null) {
+      KeyValue first = heap.peek();
+
+      if (first == null || isPastStop(first)) {
+        nextRegion();
+        continue;
+      }
+
+      byte[] row = first.getRow();
+      List<KeyValue> cells = readRow(row);
+
+      if (cells.isEmpty()) { continue; }
+
+      key.set(row);
+      value.copyFrom(new Result(cells));
+
+      rowCount++;
+
+      return true;
+    }
+
+    return false;
+  }
+
+  private boolean isPastStop(KeyValue kv) {
+    byte[] stopRow = scan.getStopRow();
+
+    return stopRow.length != 0 && Bytes.compareTo(kv.getBuffer(), kv.getRowOffset(),
+        kv.getRowLength(), stopRow, 0, stopRow.length) >= 0;
+  }
+
+  /**
+   * Reads all cells of the row, in the order of the store files, and keeps those the region
+   * server would have returned: the newest versions within the time range, not masked by a
+   * delete and of a column scanned.
+   */
+  private List<KeyValue> readRow(byte[] row) throws IOException {
+    List<KeyValue> cells = new ArrayList<KeyValue>();
+    TimeRange timeRange = scan.getTimeRange();
+    int maxVersions = scan.getMaxVersions();
+
+    KeyValue column = null;
+    long familyDeleted = -1;
+    long columnDeleted = -1;
+    Set<Long> versionsDeleted = new HashSet<Long>();
+    long lastTimestamp = -1;
+    int versions = 0;
+
+    while (heap.peek() != null && heap.peek().matchingRow(row)) {
+      KeyValue kv = heap.next();
+
+      if (column == null || !kv.matchingFamily(column.getFamily())) {
+        familyDeleted = -1;
+        column = null;
+      }
+
+      if (column == null || !kv.matchingColumn(column.getFamily(), column.getQualifier())) {
+        column = kv;
+        columnDeleted = -1;
+        versionsDeleted.clear();
+        lastTimestamp = -1;
+        versions = 0;
+      }
+
+      long timestamp = kv.getTimestamp();
+
+      // within a column, deletes sort before the puts of the same timestamp
+      switch (KeyValue.Type.codeToType(kv.getType())) {
+        case DeleteFamily:
+          familyDeleted = Math.max(familyDeleted, timestamp);
+          continue;
+        case DeleteColumn:
+          columnDeleted = Math.max(columnDeleted, timestamp);
+          continue;
+        case Delete:
+          versionsDeleted.add(timestamp);
+          continue;
+        case Put:
+          break;
+        default:
+          continue;
+      }
+
+      // the same version in several store files, the newest file sorts first
+      if (timestamp == lastTimestamp) { continue; }
+
+      lastTimestamp = timestamp;
+
+      if (timestamp <= familyDeleted || timestamp <= columnDeleted
+          || versionsDeleted.contains(timestamp)) {
+        continue;
+      }
+
+      if (!isScanned(kv) || !timeRange.withinTimeRange(timestamp)) { continue; }
+
+      if (++versions > maxVersions) { continue; }
+
+      cells.add(kv);
+    }
+
+    return cells;
+  }
+
+  private boolean isScanned(KeyValue kv) {
+    if (!scan.hasFamilies()) { return true; }
+
+    NavigableSet<byte[]> qualifiers = scan.getFamilyMap().get(kv.getFamily());
+
+    return qualifiers == null || qualifiers.contains(kv.getQualifier());
+  }
+}
@@ -20,17 +20,42 @@
 package com.twitter.maple.hbase.mapred;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.ClusterStatus;
 import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HServerLoad;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
 import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.hbase.mapred.TableInputFormatBase;
+import org.apache.hadoop.hbase.mapred.TableSplit;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.hbase.util.Base64;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
 import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.InputSplit;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.JobConfigurable;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
 import org.apache.hadoop.util.StringUtils;
 
 /**
@@ -50,6 +75,60 @@ public class TableInputFormat extends TableInputFormatBase implements
    */
   public static final String INPUT_TABLE = "hbase.mapred.inputtable";
 
+  /** The number of rows fetched per scanner RPC */
+  public static final String SCAN_CACHING = "hbase.mapred.scan.caching";
+
+  /** The maximum number of cells per Result */
+  public static final String SCAN_BATCH = "hbase.mapred.scan.batch";
+
+  /** Whether the blocks scanned are added to the block cache */
+  public static final String SCAN_CACHE_BLOCKS = "hbase.mapred.scan.cacheblocks";
+
+  /** The number of versions of each cell scanned */
+  public static final String SCAN_MAX_VERSIONS = "hbase.mapred.scan.maxversions";
+
+  /** The inclusive start of the time range scanned */
+  public static final String SCAN_TIME_RANGE_START = "hbase.mapred.scan.timerange.start";
+
+  /** The exclusive end of the time range scanned */
+  public static final String SCAN_TIME_RANGE_END = "hbase.mapred.scan.timerange.end";
+
+  /** The first row scanned, in {@link Bytes#toStringBinary(byte[])} form */
+  public static final String SCAN_START_ROW = "hbase.mapred.scan.startrow";
+
+  /** The row the scan stops before, in {@link Bytes#toStringBinary(byte[])} form */
+  public static final String SCAN_STOP_ROW = "hbase.mapred.scan.stoprow";
+
+  /** The filter evaluated by the region servers, a Base64 encoded {@link FilterList} */
+  public static final String SCAN_FILTER = "hbase.mapred.scan.filter";
+
+  /**
+   * The number of splits each region is divided into, 0 to divide regions so that there are at
+   * least as many splits as requested, unset to create one split per region
+   */
+  public static final String SPLITS_PER_REGION = "hbase.mapred.splits.per.region";
+
+  /**
+   * The estimated bytes up to which small regions of the same region server are combined into
+   * one split, unset to not combine regions
+   */
+  public static final String COMBINE_SPLIT_SIZE = "hbase.mapred.combine.split.size";
+
+  /**
+   * Whether the splits are read from the store files of their regions instead of through the
+   * region servers, in which case only what was flushed is read, see {@link HFileRecordReader}
+   */
+  public static final String READ_HFILES = "hbase.mapred.read.hfiles";
+
+  /**
+   * The size a region is counted with when combining, at least, as region servers report store
+   * file sizes in whole megabytes, and regions smaller than that as empty
+   */
+  private static final long MIN_REGION_SIZE = 1024L * 1024L;
+
+  /** The scan every split is read with, bounded by the split's rows */
+  private Scan scan;
+
   public void configure(JobConf job) {
     String tableName = TableInputFormat.getTableName(job);
     String colArg = job.get(COLUMN_LIST);
@@ -59,6 +138,11 @@ public class TableInputFormat extends TableInputFormatBase implements
       m_cols[i] = Bytes.toBytes(colNames[i]);
     }
     setInputColumns(m_cols);
+    try {
+      scan = createScan(job, colNames);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("invalid scan configuration", e);
+    }
     try {
       setHTable(new HTable(HBaseConfiguration.create(job), tableName));
     } catch (Exception e) {
@@ -66,6 +150,362 @@ public class TableInputFormat extends TableInputFormatBase implements
     }
   }
 
+  /**
+   * Builds the scan from the columns and the scan settings of the job.
+   */
+  protected Scan createScan(JobConf job, String[] colNames) throws IOException {
+    Scan scan = new Scan();
+
+    for (String colName : colNames) {
+      int pos = colName.indexOf(':');
+      byte[] family = Bytes.toBytes(pos < 0 ? colName : colName.substring(0, pos));
+
+      if (pos < 0 || pos == colName.length() - 1) {
+        scan.addFamily(family);
+      } else {
+        scan.addColumn(family, Bytes.toBytes(colName.substring(pos + 1)));
+      }
+    }
+
+    if (job.get(SCAN_START_ROW) != null) {
+      scan.setStartRow(Bytes.toBytesBinary(job.get(SCAN_START_ROW)));
+    }
+
+    if (job.get(SCAN_STOP_ROW) != null) {
+      scan.setStopRow(Bytes.toBytesBinary(job.get(SCAN_STOP_ROW)));
+    }
+
+    Filter filter = getFilter(job);
+    if (filter != null) {
+      scan.setFilter(filter);
+    }
+
+    int caching = job.getInt(SCAN_CACHING, -1);
+    if (caching > 0) {
+      scan.setCaching(caching);
+    }
+
+    int batch = job.getInt(SCAN_BATCH, -1);
+    if (batch > 0) {
+      scan.setBatch(batch);
+    }
+
+    if (job.get(SCAN_CACHE_BLOCKS) != null) {
+      scan.setCacheBlocks(job.getBoolean(SCAN_CACHE_BLOCKS, true));
+    }
+
+    int maxVersions = job.getInt(SCAN_MAX_VERSIONS, -1);
+    if (maxVersions > 0) {
+      scan.setMaxVersions(maxVersions);
+    }
+
+    if (job.get(SCAN_TIME_RANGE_START) != null) {
+      scan.setTimeRange(job.getLong(SCAN_TIME_RANGE_START, 0),
+          job.getLong(SCAN_TIME_RANGE_END, Long.MAX_VALUE));
+    }
+
+    LOG.info("scanning with caching: " + scan.getCaching() + ", batch: " + scan.getBatch()
+        + ", cache blocks: " + scan.getCacheBlocks() + ", max versions: " + scan.getMaxVersions()
+        + ", time range: " + scan.getTimeRange());
+
+    return scan;
+  }
+
+  /**
+   * Creates one split per region overlapping the scanned row range, clipped to that range, so
+   * regions holding none of the rows scanned get no mapper. As with the HBase mapred splits, if
+   * fewer splits are requested than there are regions, adjacent regions are grouped evenly.
+   * <p/>
+   * If {@link #SPLITS_PER_REGION} is set, each region is instead divided into that many splits,
+   * or into enough splits to honor the number requested if 0. If {@link #COMBINE_SPLIT_SIZE} is
+   * set, small regions are instead combined into larger splits.
+   * <p/>
+   * Fails if both are set, or if {@link #READ_HFILES} is set along with a filter, which only
+   * region servers apply.
+   */
+  @Override
+  public InputSplit[] getSplits(JobConf job, int numSplits) throws IOException {
+    HTable table = getHTable();
+
+    if (table == null) {
+      throw new IOException("could not connect to table '" + getTableName(job) + "'");
+    }
+
+    if (job.get(COMBINE_SPLIT_SIZE) != null && job.get(SPLITS_PER_REGION) != null) {
+      throw new IOException("regions can not be both combined and divided, set either "
+          + COMBINE_SPLIT_SIZE + " or " + SPLITS_PER_REGION);
+    }
+
+    if (job.getBoolean(READ_HFILES, false) && scan.hasFilter()) {
+      throw new IOException("filters are evaluated by the region servers, "
+          + "they can not be applied when reading store files");
+    }
+
+    List<TableSplit> regions = getRegionSplits(table);
+
+    if (regions.isEmpty()) {
+      LOG.info("no regions in scanned row range of table: " + Bytes.toString(table.getTableName()));
+      return new InputSplit[0];
+    }
+
+    if (job.get(COMBINE_SPLIT_SIZE) != null) {
+      List<InputSplit> splits = combineRegions(table, regions, job.getLong(COMBINE_SPLIT_SIZE, 0));
+
+      LOG.info("created " + splits.size() + " splits over " + regions.size() + " regions");
+
+      return splits.toArray(new InputSplit[splits.size()]);
+    }
+
+    if (job.get(SPLITS_PER_REGION) != null) {
+      int perRegion = job.getInt(SPLITS_PER_REGION, 0);
+
+      if (perRegion <= 0) {
+        perRegion = (Math.max(numSplits, 1) + regions.size() - 1) / regions.size();
+      }
+
+      List<TableSplit> splits = divideRegions(regions, perRegion);
+
+      LOG.info("created " + splits.size() + " splits over " + regions.size() + " regions");
+
+      return splits.toArray(new InputSplit[splits.size()]);
+    }
+
+    int realNumSplits = numSplits > 0 && numSplits < regions.size() ? numSplits : regions.size();
+    InputSplit[] splits = new InputSplit[realNumSplits];
+    int middle = regions.size() / realNumSplits;
+    int startPos = 0;
+
+    for (int i = 0; i < realNumSplits; i++) {
+      int lastPos = startPos + middle;
+      lastPos = regions.size() % realNumSplits > i ? lastPos + 1 : lastPos;
+
+      TableSplit first = regions.get(startPos);
+      TableSplit last = regions.get(lastPos - 1);
+
+      splits[i] = new TableSplit(table.getTableName(), first.getStartRow(), last.getEndRow(),
+          first.getRegionLocation());
+      startPos = lastPos;
+    }
+
+    LOG.info("created " + splits.length + " splits over " + regions.size() + " regions");
+
+    return splits;
+  }
+
+  /**
+   * Combines the regions of each region server, in row order, into splits of up to the given
+   * estimated size, taken from the store file sizes the servers report. A region at least as
+   * large as the target keeps a split of its own. Every region counts as at least a megabyte, so
+   * groups of regions too small to be reported, or not reported yet, are still bounded.
+   */
+  protected List<InputSplit> combineRegions(HTable table, List<TableSplit> regions,
+      long targetSize) throws IOException {
+    Map<byte[], Long> regionSizes = getRegionSizes(table);
+    Map<String, List<TableSplit>> groups = new LinkedHashMap<String, List<TableSplit>>();
+    Map<String, Long> groupSizes = new HashMap<String, Long>();
+    List<InputSplit> splits = new ArrayList<InputSplit>();
+
+    for (TableSplit region : regions) {
+      byte[] regionName = table.getRegionLocation(region.getStartRow()).getRegionInfo()
+          .getRegionName();
+      Long regionSize = regionSizes.get(regionName);
+      long size = regionSize != null ? regionSize : MIN_REGION_SIZE;
+      String location = region.getRegionLocation();
+      List<TableSplit> group = groups.get(location);
+      long groupSize = group != null ? groupSizes.get(location) : 0;
+
+      if (group != null && groupSize + size > targetSize) {
+        splits.add(combine(group, groupSize));
+        group = null;
+        groupSize = 0;
+      }
+
+      if (group == null) {
+        group = new ArrayList<TableSplit>();
+        groups.put(location, group);
+      }
+
+      group.add(region);
+      groupSizes.put(location, groupSize + size);
+    }
+
+    for (Map.Entry<String, List<TableSplit>> entry : groups.entrySet()) {
+      splits.add(combine(entry.getValue(), groupSizes.get(entry.getKey())));
+    }
+
+    return splits;
+  }
+
+  private static InputSplit combine(List<TableSplit> group, long size) {
+    return group.size() == 1 ? group.get(0) : new CombinedTableSplit(group, size);
+  }
+
+  /**
+   * Returns the store file bytes of every region of the cluster, by region name, as last reported
+   * by the region servers, so at a megabyte granularity and of at least {@link #MIN_REGION_SIZE}.
+   */
+  private static Map<byte[], Long> getRegionSizes(HTable table) throws IOException {
+    Map<byte[], Long> sizes = new TreeMap<byte[], Long>(Bytes.BYTES_COMPARATOR);
+    HBaseAdmin admin = new HBaseAdmin(table.getConfiguration());
+
+    try {
+      ClusterStatus status = admin.getClusterStatus();
+
+      for (ServerName server : status.getServers()) {
+        for (HServerLoad.RegionLoad load : status.getLoad(server).getRegionsLoad().values()) {
+          sizes.put(load.getName(), Math.max(1, load.getStorefileSizeMB()) * MIN_REGION_SIZE);
+        }
+      }
+    } finally {
+      admin.close();
+    }
+
+    return sizes;
+  }
+
+  /**
+   * Divides the row range of every region into the given number of splits, by interpolating
+   * between the first and last row of the range, all located on the region's server. Ranges
+   * too narrow to divide are kept whole.
+   */
+  protected List<TableSplit> divideRegions(List<TableSplit> regions, int perRegion) {
+    List<TableSplit> splits = new ArrayList<TableSplit>();
+
+    for (TableSplit region : regions) {
+      byte[][] rows = perRegion > 1 ? interpolate(region.getStartRow(), region.getEndRow(),
+          perRegion) : null;
+
+      if (rows == null) {
+        splits.add(region);
+        continue;
+      }
+
+      byte[] splitStart = region.getStartRow();
+
+      for (int i = 1; i < rows.length - 1; i++) {
+        // narrow ranges interpolate to repeated rows, which would make empty splits
+        if (Bytes.compareTo(rows[i], splitStart) <= 0) {
+          continue;
+        }
+
+        splits.add(new TableSplit(region.getTableName(), splitStart, rows[i],
+            region.getRegionLocation()));
+        splitStart = rows[i];
+      }
+
+      splits.add(new TableSplit(region.getTableName(), splitStart, region.getEndRow(),
+          region.getRegionLocation()));
+    }
+
+    return splits;
+  }
+
+  /**
+   * Returns the given number of splits worth of rows between the given start and end rows, both
+   * included, or null if they cannot be divided. Rows are interpolated over at least 8 bytes, so
+   * ranges of short rows divide too. An empty start or end row, the start or end of the table, is
+   * interpolated as all 0x00 or 0xff bytes.
+   */
+  private static byte[][] interpolate(byte[] startRow, byte[] endRow, int count) {
+    int length = Math.max(Math.max(startRow.length, endRow.length), 8);
+    // rows padded with 0x00 bytes to the same length sort, and interpolate, as the rows
+    byte[] lower = Bytes.padTail(startRow, length - startRow.length);
+    byte[] upper = Bytes.padTail(endRow, length - endRow.length);
+
+    if (endRow.length == 0) {
+      Arrays.fill(upper, (byte) 0xff);
+    }
+
+    if (Bytes.compareTo(lower, upper) >= 0) {
+      return null;
+    }
+
+    try {
+      byte[][] rows = Bytes.split(lower, upper, count - 1);
+
+      if (rows == null) {
+        return null;
+      }
+
+      // keep the real bounds, the table start and end are not the interpolated ones
+      rows[0] = startRow;
+      rows[rows.length - 1] = endRow;
+
+      return rows;
+    } catch (IllegalArgumentException exception) {
+      return null;
+    }
+  }
+
+  /**
+   * Returns a split for every region overlapping the scanned row range, in row order, with its
+   * rows clipped to that range.
+   */
+  protected List<TableSplit> getRegionSplits(HTable table) throws IOException {
+    Pair<byte[][], byte[][]> keys = table.getStartEndKeys();
+
+    if (keys == null || keys.getFirst() == null || keys.getFirst().length == 0) {
+      throw new IOException("expecting at least one region");
+    }
+
+    byte[] startRow = scan.getStartRow();
+    byte[] stopRow = scan.getStopRow();
+    List<TableSplit> regions = new ArrayList<TableSplit>();
+
+    for (int i = 0; i < keys.getFirst().length; i++) {
+      byte[] regionStart = keys.getFirst()[i];
+      byte[] regionEnd = keys.getSecond()[i];
+
+      // an empty row is the start, or end, of the table
+      boolean beforeStop = stopRow.length == 0 || Bytes.compareTo(regionStart, stopRow) < 0;
+      boolean afterStart = startRow.length == 0 || regionEnd.length == 0
+          || Bytes.compareTo(regionEnd, startRow) > 0;
+
+      if (!beforeStop || !afterStart) { continue; }
+
+      byte[] splitStart = startRow.length == 0 || Bytes.compareTo(regionStart, startRow) >= 0
+          ? regionStart : startRow;
+      byte[] splitStop = stopRow.length == 0
+          || (regionEnd.length != 0 && Bytes.compareTo(regionEnd, stopRow) <= 0)
+          ? regionEnd : stopRow;
+      String location = table.getRegionLocation(regionStart).getHostname();
+
+      regions.add(new TableSplit(table.getTableName(), splitStart, splitStop, location));
+    }
+
+    return regions;
+  }
+
+  /**
+   * Reads the split with the configured scan, instead of the columns only scan of the HBase
+   * mapred reader. If {@link #READ_HFILES} is set, the store files of the regions are read
+   * instead.
+   */
+  @Override
+  public RecordReader<ImmutableBytesWritable, Result> getRecordReader(InputSplit split,
+      JobConf job, Reporter reporter) throws IOException {
+    if (getHTable() == null) {
+      throw new IOException("could not connect to table '" + getTableName(job) + "'");
+    }
+
+    TableSplit[] tableSplits = split instanceof CombinedTableSplit
+        ? ((CombinedTableSplit) split).getSplits() : new TableSplit[]{(TableSplit) split};
+    List<Scan> scans = new ArrayList<Scan>();
+
+    for (TableSplit tableSplit : tableSplits) {
+      Scan splitScan = new Scan(scan);
+      splitScan.setStartRow(tableSplit.getStartRow());
+      splitScan.setStopRow(tableSplit.getEndRow());
+      scans.add(splitScan);
+    }
+
+    if (job.getBoolean(READ_HFILES, false)) {
+      return new HFileRecordReader(getHTable(), scans);
+    }
+
+    return new TableRecordReader(getHTable(), scans);
+  }
+
   public void validateInput(JobConf job) throws IOException {
     // expecting exactly one path
     String tableName = TableInputFormat.getTableName(job);
@@ -96,6 +536,65 @@ public class TableInputFormat extends TableInputFormatBase implements
     job.set(INPUT_TABLE, tableName);
   }
 
+  /**
+   * Restricts the scan to the rows in [startRow, stopRow), null or empty for the start or end of
+   * the table.
+   */
+  public static void setRowRange(JobConf job, byte[] startRow, byte[] stopRow) {
+    if (startRow != null && startRow.length != 0) {
+      job.set(SCAN_START_ROW, Bytes.toStringBinary(startRow));
+    }
+    if (stopRow != null && stopRow.length != 0) {
+      job.set(SCAN_STOP_ROW, Bytes.toStringBinary(stopRow));
+    }
+  }
+
+  /**
+   * Returns the row following all rows starting with the given prefix, or an empty row, the end
+   * of the table, if there is none.
+   */
+  public static byte[] getPrefixStopRow(byte[] prefix) {
+    for (int i = prefix.length - 1; i >= 0; i--) {
+      if (prefix[i] != (byte) 0xff) {
+        byte[] stopRow = new byte[i + 1];
+        System.arraycopy(prefix, 0, stopRow, 0, i + 1);
+        stopRow[i]++;
+        return stopRow;
+      }
+    }
+    return HConstants.EMPTY_END_ROW;
+  }
+
+  /**
+   * Sets the filter the region servers evaluate while scanning. The filter is wrapped in a {@link
+   * FilterList}, which writes the class of each of its filters, and stored in the job.
+   */
+  public static void setFilter(JobConf job, Filter filter) throws IOException {
+    FilterList list = filter instanceof FilterList ? (FilterList) filter : new FilterList(filter);
+    DataOutputBuffer out = new DataOutputBuffer();
+
+    list.write(out);
+
+    job.set(SCAN_FILTER, Base64.encodeBytes(out.getData(), 0, out.getLength()));
+  }
+
+  public static Filter getFilter(JobConf job) throws IOException {
+    String encoded = job.get(SCAN_FILTER);
+
+    if (encoded == null) {
+      return null;
+    }
+
+    byte[] bytes = Base64.decode(encoded);
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(bytes, bytes.length);
+
+    FilterList list = new FilterList();
+    list.readFields(in);
+
+    return list;
+  }
+
   public static String getTableName(JobConf job) {
     return job.get(INPUT_TABLE);
   }
@@ -0,0 +1,190 @@
+/**
+ * Copyright 2010 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.maple.hbase.mapred;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.mapred.RecordReader;
+
+/**
+ * Iterate over the rows of a table split with a fully configured {@link Scan}, unlike the HBase
+ * mapred reader which only takes input columns and a row filter. The rows of a {@link
+ * CombinedTableSplit} are read with one scan per region, one after the other. A batched scan
+ * splits wide rows across several Results, they are merged back so that every row is returned
+ * whole.
+ */
+public class TableRecordReader implements RecordReader<ImmutableBytesWritable, Result> {
+  private static final Log LOG = LogFactory.getLog(TableRecordReader.class);
+
+  private final HTable htable;
+  private final List<Scan> scans;
+  private int current = 0;
+  private Scan scan;
+  private ResultScanner scanner;
+  private Result pending;
+  private byte[] lastSuccessfulRow;
+  private long rowCount = 0;
+
+  /**
+   * @param htable the table to read
+   * @param scan   the scan to read with, bounded by the split's start and stop rows
+   */
+  public TableRecordReader(HTable htable, Scan scan) throws IOException {
+    this(htable, Collections.singletonList(scan));
+  }
+
+  /**
+   * @param htable the table to read
+   * @param scans  the scans to read with, one after the other
+   */
+  public TableRecordReader(HTable htable, List<Scan> scans) throws IOException {
+    this.htable = htable;
+    this.scans = scans;
+    this.scan = scans.get(0);
+
+    restart(scan.getStartRow());
+  }
+
+  /**
+   * Move on to the next scan, if any.
+   *
+   * @return false if all scans were read
+   */
+  private boolean nextScan() throws IOException {
+    if (current + 1 >= scans.size()) { return false; }
+
+    scan = scans.get(++current);
+    lastSuccessfulRow = null;
+
+    restart(scan.getStartRow());
+
+    return true;
+  }
+
+  /**
+   * Restart from the given row, after a scanner timed out or its region moved.
+   *
+   * @param firstRow the row to start the new scanner at
+   */
+  public void restart(byte[] firstRow) throws IOException {
+    if (scanner != null) { scanner.close(); }
+
+    Scan restarted = new Scan(scan);
+
+    restarted.setStartRow(firstRow);
+
+    scanner = htable.getScanner(restarted);
+    pending = null;
+  }
+
+  public void close() {
+    scanner.close();
+  }
+
+  public ImmutableBytesWritable createKey() {
+    return new ImmutableBytesWritable();
+  }
+
+  public Result createValue() {
+    return new Result();
+  }
+
+  public long getPos() {
+    return rowCount;
+  }
+
+  public float getProgress() {
+    // the number of rows in a region is unknown, only the number of regions read
+    return (float) current / scans.size();
+  }
+
+  public boolean next(ImmutableBytesWritable key, Result value) throws IOException {
+    Result result;
+
+    try {
+      result = nextRow();
+    } catch (IOException exception) {
+      if (lastSuccessfulRow == null) { throw exception; }
+
+      LOG.debug("recovering from scanner failure after row: "
+          + Bytes.toStringBinary(lastSuccessfulRow) + ", " + exception.getMessage());
+
+      restart(lastSuccessfulRow);
+
+      // skip the row already returned, split across several Results by a batched scan
+      do {
+        pending = scanner.next();
+      } while (pending != null && Bytes.equals(pending.getRow(), lastSuccessfulRow));
+
+      result = nextRow();
+    }
+
+    if (result == null || result.size() == 0) {
+      return nextScan() && next(key, value);
+    }
+
+    key.set(result.getRow());
+    lastSuccessfulRow = key.get();
+
+    // shares the KeyValues instead of serializing them, like Writables.copyWritable would
+    value.copyFrom(result);
+
+    rowCount++;
+
+    return true;
+  }
+
+  /**
+   * Returns the next row of the scanner, merging the Results a batched scan splits it into. The
+   * first Result of the following row is kept until the next call.
+   */
+  private Result nextRow() throws IOException {
+    Result first = pending != null ? pending : scanner.next();
+
+    pending = null;
+
+    if (first == null || first.isEmpty() || scan.getBatch() <= 0) { return first; }
+
+    List<KeyValue> cells = null;
+    Result next;
+
+    while ((next = scanner.next()) != null && Bytes.equals(next.getRow(), first.getRow())) {
+      if (cells == null) { cells = new ArrayList<KeyValue>(first.list()); }
+
+      cells.addAll(next.list());
+    }
+
+    pending = next;
+
+    return cells == null ? first : new Result(cells);
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package com.twitter.maple.jdbc;
+
+import cascading.util.Util;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Class IndexDesc describes a secondary index of a SQL based table, this description is used by the
+ * {@link JDBCTap} when creating a missing table, or when rebuilding the index after a bulk load.
+ *
+ * @see TableDesc
+ * @see JDBCTap#setDeferIndexes(boolean)
+ */
+public class IndexDesc implements Serializable {
+    /** Field indexName */
+    String indexName;
+    /** Field columnNames */
+    String[] columnNames;
+    /** Field unique */
+    boolean unique;
+
+    /**
+     * Constructor IndexDesc creates a new IndexDesc instance.
+     *
+     * @param indexName   of type String
+     * @param columnNames of type String[]
+     */
+    public IndexDesc( String indexName, String... columnNames ) {
+        this( indexName, false, columnNames );
+    }
+
+    /**
+     * Constructor IndexDesc creates a new IndexDesc instance.
+     *
+     * @param indexName   of type String
+     * @param unique      of type boolean
+     * @param columnNames of type String[]
+     */
+    public IndexDesc( String indexName, boolean unique, String... columnNames ) {
+        if( columnNames == null || columnNames.length == 0 )
+            throw new IllegalArgumentException( "index " + indexName + " requires column names" );
+
+        this.indexName = indexName;
+        this.unique = unique;
+        this.columnNames = columnNames;
+    }
+
+    public String getIndexName() {
+        return indexName;
+    }
+
+    public String[] getColumnNames() {
+        return columnNames;
+    }
+
+    public boolean isUnique() {
+        return unique;
+    }
+
+    /**
+     * Method getCreateIndexStatement returns the statement creating this index on the given table.
+     *
+     * @param tableName of type String
+     * @return String
+     */
+    public String getCreateIndexStatement( String tableName ) {
+        return String.format( getCreateIndexFormat(), indexName, tableName, Util.join( columnNames, ", " ) );
+    }
+
+    protected String getCreateIndexFormat() {
+        return unique ? "CREATE UNIQUE INDEX %s ON %s ( %s )" : "CREATE INDEX %s ON %s ( %s )";
+    }
+
+    /**
+     * Method getDropIndexStatement returns the statement dropping this index from the given table.
+     *
+     * @param tableName of type String
+     * @return String
+     */
+    public String getDropIndexStatement( String tableName ) {
+        return String.format( getDropIndexFormat(), indexName, tableName );
+    }
+
+    /** MySQL requires the table, use "DROP INDEX %1$s ON %2$s" there. */
+    protected String getDropIndexFormat() {
+        return "DROP INDEX %1$s";
+    }
+
+    @Override
+    public String toString() {
+        return "IndexDesc{" + "indexName='" + indexName + '\'' + ", columnNames=" + Arrays.asList( columnNames ) + ", unique=" + unique + '}';
+    }
+
+    @Override
+    public boolean equals( Object object ) {
+        if( this == object )
+            return true;
+        if( !( object instanceof IndexDesc ) )
+            return false;
+
+        IndexDesc indexDesc = (IndexDesc) object;
+
+        if( unique != indexDesc.unique )
+            return false;
+        if( !Arrays.equals( columnNames, indexDesc.columnNames ) )
+            return false;
+        if( indexName != null ? !indexName.equals( indexDesc.indexName ) : indexDesc.indexName != null )
+            return false;
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = indexName != null ? indexName.hashCode() : 0;
+        result = 31 * result + Arrays.hashCode( columnNames );
+        result = 31 * result + ( unique ? 1 : 0 );
+        return result;
+    }
+}
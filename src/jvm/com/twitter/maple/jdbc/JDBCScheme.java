@@ -24,12 +24,20 @@ import cascading.tuple.TupleEntry;
 import cascading.util.Util;
 import com.twitter.maple.jdbc.db.DBInputFormat;
 import com.twitter.maple.jdbc.db.DBOutputFormat;
+import com.twitter.maple.jdbc.db.UpsertDialect;
+import com.twitter.maple.jdbc.db.WriteOperation;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.RecordReader;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * Class JDBCScheme defines what its parent Tap will select and insert/update into the sql database.
@@ -65,6 +73,29 @@ public class JDBCScheme extends Scheme<JobConf, RecordReader, OutputCollector, O
      * with the new data. See http://dev.mysql.com/doc/refman/5.0/en/insert-on-duplicate.html.
      */
     private boolean replaceOnInsert = false;
+    /**
+     * If not null, every Tuple is written with a single INSERT-or-UPDATE statement in the given vendor
+     * syntax, keyed on the updateBy columns, instead of being split into INSERT and UPDATE batches.
+     */
+    private UpsertDialect upsertDialect;
+    /**
+     * If true, Tuples with the same updateBy values within a batch are collapsed and only the last one is
+     * written, saving statements and row lock churn on hot keys.
+     */
+    private boolean deduplicateByKey = false;
+    /**
+     * If not null, the column written with a hash of every row, existing rows are only updated when it changed.
+     */
+    private String hashColumn;
+    /** Field digest */
+    private transient MessageDigest digest;
+    /**
+     * If not null, the incoming field marking a Tuple as a tombstone, deleting the row with its updateBy values
+     * instead of inserting or updating it.
+     */
+    private String tombstoneField;
+    /** Field keyPositions */
+    private transient int[] keyPositions;
 
     /**
      * Constructor JDBCScheme creates a new JDBCScheme instance.
@@ -584,6 +615,129 @@ public class JDBCScheme extends Scheme<JobConf, RecordReader, OutputCollector, O
         return orderBy;
     }
 
+    /**
+     * Method getUpsertDialect returns the upsertDialect of this JDBCScheme object.
+     *
+     * @return the upsertDialect (type UpsertDialect) of this JDBCScheme object.
+     */
+    public UpsertDialect getUpsertDialect() {
+        return upsertDialect;
+    }
+
+    /**
+     * Method setUpsertDialect sets the upsertDialect of this JDBCScheme object.
+     * <p/>
+     * Every dialect but {@link UpsertDialect#MYSQL} matches existing rows on the updateBy columns, so
+     * they must be given.
+     *
+     * @param upsertDialect the upsertDialect of this JDBCScheme object.
+     */
+    public void setUpsertDialect( UpsertDialect upsertDialect ) {
+        if( upsertDialect != null && upsertDialect != UpsertDialect.MYSQL && updateBy == null )
+            throw new IllegalArgumentException( "upsert dialect " + upsertDialect + " requires updateBy column names" );
+
+        this.upsertDialect = upsertDialect;
+    }
+
+    /**
+     * Method isDeduplicateByKey returns the deduplicateByKey of this JDBCScheme object.
+     *
+     * @return the deduplicateByKey (type boolean) of this JDBCScheme object.
+     */
+    public boolean isDeduplicateByKey() {
+        return deduplicateByKey;
+    }
+
+    /**
+     * Method setDeduplicateByKey sets the deduplicateByKey of this JDBCScheme object.
+     * <p/>
+     * When true, only the last Tuple written for each updateBy key within a batch reaches the database,
+     * the ones it overwrites are counted under {@link com.twitter.maple.jdbc.db.DBCounters#DEDUPLICATED_ROWS}.
+     * The last write wins whatever its operation, e.g. a tombstone replaces an earlier update of its key. Inserts are
+     * only collapsed when an upsert dialect is set.
+     *
+     * @param deduplicateByKey the deduplicateByKey of this JDBCScheme object.
+     */
+    public void setDeduplicateByKey( boolean deduplicateByKey ) {
+        if( deduplicateByKey && updateBy == null )
+            throw new IllegalArgumentException( "deduplicating by key requires updateBy column names" );
+
+        this.deduplicateByKey = deduplicateByKey;
+    }
+
+    /**
+     * Method getHashColumn returns the hashColumn of this JDBCScheme object.
+     *
+     * @return the hashColumn (type String) of this JDBCScheme object.
+     */
+    public String getHashColumn() {
+        return hashColumn;
+    }
+
+    /**
+     * Method setHashColumn sets the hashColumn of this JDBCScheme object.
+     * <p/>
+     * The given column, which must exist in the table but not in the columns of this scheme, is written with an
+     * MD5 hex digest of the values of every Tuple sunk. Updates and upserts then leave rows alone when their stored
+     * hash matches, so a full refresh only writes the rows that changed. Skipped rows are counted under
+     * {@link com.twitter.maple.jdbc.db.DBCounters#UNCHANGED_ROWS}. The H2 upsert dialect cannot skip rows.
+     *
+     * @param hashColumn the hashColumn of this JDBCScheme object.
+     */
+    public void setHashColumn( String hashColumn ) {
+        if( hashColumn != null && Arrays.asList( columns ).contains( hashColumn ) )
+            throw new IllegalArgumentException( "hash column may not be one of the scheme columns: " + hashColumn );
+
+        this.hashColumn = hashColumn;
+    }
+
+    /**
+     * Method getTombstoneField returns the tombstoneField of this JDBCScheme object.
+     *
+     * @return the tombstoneField (type String) of this JDBCScheme object.
+     */
+    public String getTombstoneField() {
+        return tombstoneField;
+    }
+
+    /**
+     * Method setTombstoneField sets the tombstoneField of this JDBCScheme object.
+     * <p/>
+     * The given field is added to the sink fields of this scheme, but not written. Tuples where it is true, see
+     * {@link #isTombstone(Object)}, delete the row with their updateBy values, in batches alongside the inserts and
+     * updates, so one flow can apply a whole change set. Writes take effect in the order they are collected, a batch
+     * is executed early whenever a write would otherwise overtake an earlier one, see
+     * {@link com.twitter.maple.jdbc.db.DBOutputFormat#setDeleteOutput(org.apache.hadoop.mapred.JobConf)}; setting
+     * {@link #setDeduplicateByKey(boolean)} limits that to writes of the same key.
+     *
+     * @param tombstoneField the tombstoneField of this JDBCScheme object.
+     */
+    public void setTombstoneField( String tombstoneField ) {
+        if( tombstoneField != null && updateBy == null )
+            throw new IllegalArgumentException( "tombstones require updateBy column names" );
+
+        this.tombstoneField = tombstoneField;
+
+        setSinkFields( tombstoneField != null ? columnFields.append( new Fields( tombstoneField ) ) : columnFields );
+    }
+
+    /**
+     * Method isTombstone returns true if the given value of the tombstone field marks a deleted row: Boolean true,
+     * the String "true" in any case, or a non zero Number.
+     *
+     * @param value of type Object
+     * @return boolean
+     */
+    protected boolean isTombstone( Object value ) {
+        if( value instanceof Boolean )
+            return (Boolean) value;
+
+        if( value instanceof Number )
+            return ( (Number) value ).longValue() != 0;
+
+        return value != null && Boolean.parseBoolean( value.toString() );
+    }
+
     @Override
     public void sourceConfInit( FlowProcess<JobConf> process, Tap<JobConf, RecordReader, OutputCollector> tap,
         JobConf conf ) {
@@ -607,14 +761,129 @@ public class JDBCScheme extends Scheme<JobConf, RecordReader, OutputCollector, O
         if( selectQuery != null )
             throw new TapException( "cannot sink to this Scheme" );
 
-        String tableName = ( (JDBCTap) tap ).getTableName();
-        int batchSize = ( (JDBCTap) tap ).getBatchSize();
-        DBOutputFormat.setOutput( conf, DBOutputFormat.class, tableName, columns, updateBy, batchSize, replaceOnInsert );
+        JDBCTap jdbcTap = (JDBCTap) tap;
+        String tableName = jdbcTap.getSinkTableName( conf );
+        int batchSize = jdbcTap.getBatchSize();
+        boolean mapSpeculation = conf.getMapSpeculativeExecution();
+        boolean reduceSpeculation = conf.getReduceSpeculativeExecution();
+
+        DBOutputFormat.setOutput( conf, DBOutputFormat.class, tableName, getSinkColumns(), updateBy, batchSize, replaceOnInsert, upsertDialect );
+
+        if( tombstoneField != null )
+            DBOutputFormat.setDeleteOutput( conf );
+
+        if( hashColumn != null ) {
+            if( upsertDialect == UpsertDialect.H2 )
+                throw new TapException( "the H2 upsert dialect cannot skip unchanged rows" );
+
+            DBOutputFormat.setHashColumn( conf, hashColumn );
+        }
+
+        // every attempt writes its own staging table, duplicate attempts are harmless
+        if( jdbcTap.isStagedWrites() ) {
+            if( updateBy != null || upsertDialect != null )
+                throw new TapException( "staged writes only support inserts, not updateBy columns or upserts" );
+
+            conf.setMapSpeculativeExecution( mapSpeculation );
+            conf.setReduceSpeculativeExecution( reduceSpeculation );
+
+            DBOutputFormat.setStagedOutput( conf, jdbcTap.getAttemptsTableName() );
+        }
+
+        if( jdbcTap.getBatchBytes() > 0 )
+            DBOutputFormat.setBatchMaxBytes( conf, jdbcTap.getBatchBytes() );
+
+        if( jdbcTap.getMaxRetries() > 0 )
+            DBOutputFormat.setRetryPolicy( conf, jdbcTap.getMaxRetries(), jdbcTap.retryBackoffMillis, jdbcTap.retrySqlStates );
+
+        if( jdbcTap.getRejectPath() != null )
+            DBOutputFormat.setRejectPath( conf, jdbcTap.getRejectPath(), jdbcTap.maxRejects );
+
+        if( jdbcTap.isSortedWrites() )
+        {
+            conf.set( TupleRecordComparator.KEY_POSITIONS, Util.join( getSinkKeyPositions( jdbcTap.tableDesc ), "," ) );
+            DBOutputFormat.setSortedOutput( conf, TupleRecordComparator.class, jdbcTap.sortBufferRecords, jdbcTap.sortBufferBytes );
+        }
+
+        if( deduplicateByKey )
+        {
+            conf.set( TupleRecordComparator.KEY_POSITIONS, Util.join( getSinkKeyPositions( jdbcTap.tableDesc ), "," ) );
+            DBOutputFormat.setDeduplicatedOutput( conf, TupleRecordComparator.class );
+        }
+
+        if( jdbcTap.isAdaptiveBatchSize() )
+            DBOutputFormat.setAdaptiveBatchSize( conf, jdbcTap.minBatchSize, jdbcTap.maxBatchSize, jdbcTap.batchTargetMillis );
+
+        if( jdbcTap.isWriteRateLimited() )
+            DBOutputFormat.setOutputRate( conf, jdbcTap.rowsPerSecond, jdbcTap.bytesPerSecond, jdbcTap.rateTasks );
 
         if( outputFormatClass != null )
             conf.setOutputFormat( outputFormatClass );
     }
 
+    /**
+     * Returns the columns written, in the order of the values of the Tuples this Scheme sinks.
+     */
+    private String[] getSinkColumns() {
+        if( hashColumn == null )
+            return columns;
+
+        List<String> sinkColumns = new ArrayList<String>();
+
+        // keyed tuples are laid out as updateValueFields, the hash goes before the key columns
+        if( updateBy != null && upsertDialect == null ) {
+            List<String> keyColumns = Arrays.asList( updateBy );
+
+            for( String column : columns ) {
+                if( !keyColumns.contains( column ) )
+                    sinkColumns.add( column );
+            }
+
+            sinkColumns.add( hashColumn );
+            sinkColumns.addAll( keyColumns );
+        } else {
+            sinkColumns.addAll( Arrays.asList( columns ) );
+            sinkColumns.add( hashColumn );
+        }
+
+        return sinkColumns.toArray( new String[ sinkColumns.size() ] );
+    }
+
+    /**
+     * Returns the positions of the key columns, the updateBy columns or else the table primary keys, in the
+     * Tuples this Scheme sinks.
+     */
+    private int[] getSinkKeyPositions( TableDesc tableDesc ) {
+        // without an upsert, keyed tuples are laid out as updateValueFields, the key columns last
+        if( updateBy != null && upsertDialect == null ) {
+            int[] positions = new int[ updateBy.length ];
+
+            int offset = hashColumn != null ? 1 : 0;
+
+            for( int i = 0; i < positions.length; i++ )
+                positions[ i ] = columns.length - updateBy.length + offset + i;
+
+            return positions;
+        }
+
+        String[] keyColumns = updateBy != null ? updateBy : tableDesc.getPrimaryKeys();
+
+        if( keyColumns == null || keyColumns.length == 0 )
+            throw new TapException( "keyed writes require updateBy columns or TableDesc primary keys" );
+
+        List<String> columnList = Arrays.asList( columns );
+        int[] positions = new int[ keyColumns.length ];
+
+        for( int i = 0; i < positions.length; i++ ) {
+            positions[ i ] = columnList.indexOf( keyColumns[ i ] );
+
+            if( positions[ i ] == -1 )
+                throw new TapException( "key column not sunk by this scheme: " + keyColumns[ i ] );
+        }
+
+        return positions;
+    }
+
     @Override
     public void sourcePrepare( FlowProcess<JobConf> flowProcess, SourceCall<Object[], RecordReader> sourceCall )
     {
@@ -649,16 +918,26 @@ public class JDBCScheme extends Scheme<JobConf, RecordReader, OutputCollector, O
         // it's ok to use NULL here so the collector does not write anything
         TupleEntry tupleEntry = sinkCall.getOutgoingEntry();
         OutputCollector outputCollector = sinkCall.getOutput();
-        if( updateBy != null )
+        boolean delete = tombstoneField != null && isTombstone( tupleEntry.getObject( tombstoneField ) );
+
+        if( updateBy != null && upsertDialect == null )
         {
             Tuple allValues = tupleEntry.selectTuple( updateValueFields );
             Tuple updateValues = tupleEntry.selectTuple( updateByFields );
 
             allValues = cleanTuple( allValues );
 
+            // deletes keep the insert layout, so their keys sit where the comparators expect them
+            boolean insert = delete || updateValues.equals( updateIfTuple );
+
+            if( hashColumn != null )
+                allValues = insertHash( allValues, updateBy.length, insert );
+
             TupleRecord key = new TupleRecord( allValues );
 
-            if( updateValues.equals( updateIfTuple ) )
+            if( delete )
+                outputCollector.collect( new TupleRecord( allValues, getKeyPositions() ), WriteOperation.DELETE );
+            else if( insert )
                 outputCollector.collect( key, null );
             else
                 outputCollector.collect( key, key );
@@ -666,11 +945,95 @@ public class JDBCScheme extends Scheme<JobConf, RecordReader, OutputCollector, O
             return;
         }
 
-        Tuple result = tupleEntry.selectTuple( getSinkFields() );
+        Tuple result = tupleEntry.selectTuple( columnFields );
 
         result = cleanTuple( result );
 
-        outputCollector.collect( new TupleRecord( result ), null );
+        if( hashColumn != null ) {
+            result = new Tuple( result );
+            result.add( hash( result ) );
+        }
+
+        if( delete )
+            outputCollector.collect( new TupleRecord( result, getKeyPositions() ), WriteOperation.DELETE );
+        else
+            outputCollector.collect( new TupleRecord( result ), null );
+    }
+
+    private int[] getKeyPositions() {
+        // tombstones require updateBy, so the TableDesc primary keys are never consulted
+        if( keyPositions == null )
+            keyPositions = getSinkKeyPositions( null );
+
+        return keyPositions;
+    }
+
+    /**
+     * Inserts the hash of the given keyed values before its keys, and for updates once more after them, as the
+     * update only applies if the stored hash differs.
+     */
+    private Tuple insertHash( Tuple values, int keys, boolean insert ) {
+        String hash = hash( values );
+        Tuple result = new Tuple();
+
+        for( int i = 0; i < values.size(); i++ ) {
+            if( i == values.size() - keys )
+                result.add( hash );
+
+            result.add( values.getObject( i ) );
+        }
+
+        if( !insert )
+            result.add( hash );
+
+        return result;
+    }
+
+    /**
+     * Method hash returns the hex encoded MD5 digest of the string forms of the given values, or of the contents of
+     * byte arrays.
+     *
+     * @param values of type Tuple
+     * @return String
+     */
+    protected String hash( Tuple values ) {
+        if( digest == null ) {
+            try {
+                digest = MessageDigest.getInstance( "MD5" );
+            } catch( NoSuchAlgorithmException exception ) {
+                throw new TapException( "unable to create digest", exception );
+            }
+        }
+
+        Charset charset = Charset.forName( "UTF-8" );
+
+        for( int i = 0; i < values.size(); i++ ) {
+            Object value = values.getObject( i );
+
+            // tell a null apart from the string "null", and values apart from their neighbours
+            if( value == null ) {
+                digest.update( (byte) 0 );
+            } else if( value instanceof byte[] ) {
+                // the contents, as the string form of an array is its identity
+                byte[] bytes = (byte[]) value;
+
+                digest.update( (byte) 2 );
+                digest.update( ByteBuffer.allocate( 4 ).putInt( bytes.length ).array() );
+                digest.update( bytes );
+            } else {
+                digest.update( (byte) 1 );
+                digest.update( value.toString().getBytes( charset ) );
+            }
+
+            digest.update( (byte) 0 );
+        }
+
+        StringBuilder hex = new StringBuilder();
+
+        for( byte b : digest.digest() )
+            hex.append( String.format( "%02x", b ) );
+
+        return hex.toString();
     }
 
     /**
@@ -720,6 +1083,14 @@ public class JDBCScheme extends Scheme<JobConf, RecordReader, OutputCollector, O
             return false;
         if( updateValueFields != null ? !updateValueFields.equals( that.updateValueFields ) : that.updateValueFields != null )
             return false;
+        if( upsertDialect != that.upsertDialect )
+            return false;
+        if( deduplicateByKey != that.deduplicateByKey )
+            return false;
+        if( hashColumn != null ? !hashColumn.equals( that.hashColumn ) : that.hashColumn != null )
+            return false;
+        if( tombstoneField != null ? !tombstoneField.equals( that.tombstoneField ) : that.tombstoneField != null )
+            return false;
 
         return true;
     }
@@ -740,6 +1111,10 @@ public class JDBCScheme extends Scheme<JobConf, RecordReader, OutputCollector, O
         result = 31 * result + ( selectQuery != null ? selectQuery.hashCode() : 0 );
         result = 31 * result + ( countQuery != null ? countQuery.hashCode() : 0 );
         result = 31 * result + (int) ( limit ^ ( limit >>> 32 ) );
+        result = 31 * result + ( upsertDialect != null ? upsertDialect.hashCode() : 0 );
+        result = 31 * result + ( deduplicateByKey ? 1 : 0 );
+        result = 31 * result + ( hashColumn != null ? hashColumn.hashCode() : 0 );
+        result = 31 * result + ( tombstoneField != null ? tombstoneField.hashCode() : 0 );
         return result;
     }
 }
@@ -21,6 +21,7 @@ import cascading.tap.hadoop.io.HadoopTupleEntrySchemeIterator;
 import cascading.tuple.TupleEntryCollector;
 import cascading.tuple.TupleEntryIterator;
 import com.twitter.maple.jdbc.db.DBConfiguration;
+import com.twitter.maple.tap.TapUtil;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.mapred.FileInputFormat;
 import org.apache.hadoop.mapred.JobConf;
@@ -49,6 +50,14 @@ import java.util.*;
  * <p/>
  * Use {@link #setBatchSize(int)} to set the number of INSERT/UPDATES should be grouped together before being
  * executed. The default vaue is 1,000.
+ * Use {@link #setAdaptiveBatchSize(int, int, long)} to let that size adapt to the measured batch execution time.
+ * Use {@link #setWriteRate(long, long, int)} to cap the rate all sink tasks together write at.
+ * <p/>
+ * Use {@link #setDeferIndexes(boolean)} to drop the secondary indexes of the {@link TableDesc} before a bulk load,
+ * and build them once after all sink tasks have committed.
+ * <p/>
+ * Use {@link #setStagedWrites(boolean)} to let every task attempt write into a staging table of its own, so
+ * speculative execution may stay enabled.
  * <p/>
  * Use {@link #executeQuery(String, int)} or {@link #executeUpdate(String)} to invoke SQL statements against
  * the underlying Table.
@@ -81,6 +90,42 @@ public class JDBCTap extends Tap<JobConf, RecordReader, OutputCollector> {
     int batchSize = 1000;
     /** Field concurrentReads */
     int concurrentReads = 0;
+    /** Field batchBytes */
+    long batchBytes = 0;
+    /** Field maxRetries */
+    int maxRetries = 0;
+    /** Field retryBackoffMillis */
+    long retryBackoffMillis = 100;
+    /** Field retrySqlStates */
+    String[] retrySqlStates;
+    /** Field rejectPath */
+    String rejectPath;
+    /** Field maxRejects */
+    long maxRejects = -1;
+    /** Field sortBufferRecords */
+    int sortBufferRecords = 0;
+    /** Field sortBufferBytes */
+    long sortBufferBytes = 0;
+    /** Field adaptiveBatchSize */
+    boolean adaptiveBatchSize = false;
+    /** Field minBatchSize */
+    int minBatchSize;
+    /** Field maxBatchSize */
+    int maxBatchSize;
+    /** Field batchTargetMillis */
+    long batchTargetMillis;
+    /** Field deferIndexes */
+    boolean deferIndexes = false;
+    /** Field partitionPerTask */
+    boolean partitionPerTask = false;
+    /** Field stagedWrites */
+    boolean stagedWrites = false;
+    /** Field rowsPerSecond */
+    long rowsPerSecond = 0;
+    /** Field bytesPerSecond */
+    long bytesPerSecond = 0;
+    /** Field rateTasks */
+    int rateTasks = 0;
 
     /**
      * Constructor JDBCTap creates a new JDBCTap instance.
@@ -225,6 +270,279 @@ public class JDBCTap extends Tap<JobConf, RecordReader, OutputCollector> {
         return batchSize;
     }
 
+    /**
+     * Method setBatchBytes sets the batchBytes of this JDBCTap object.
+     * <p/>
+     * A batch is executed early once the estimated size of its bound values reaches this many bytes, keeping
+     * batches of wide rows under the server packet size and driver buffer limits. A value of 0, the default,
+     * disables the limit.
+     *
+     * @param batchBytes the batchBytes of this JDBCTap object.
+     */
+    public void setBatchBytes( long batchBytes ) {
+        this.batchBytes = batchBytes;
+    }
+
+    /**
+     * Method getBatchBytes returns the batchBytes of this JDBCTap object.
+     *
+     * @return the batchBytes (type long) of this JDBCTap object.
+     */
+    public long getBatchBytes() {
+        return batchBytes;
+    }
+
+    /**
+     * Method setRetryPolicy lets this JDBCTap object replay a batch that failed with a transient error, like a
+     * deadlock, lock wait timeout or serialization failure, instead of failing the task.
+     * <p/>
+     * Errors are matched by SQLState class or code, by default "40", "41" and "55P03". Note that once retries are
+     * enabled every batch is committed on its own, so a task that ultimately fails leaves its earlier batches
+     * in the table.
+     *
+     * @param maxRetries         the number of times a batch is replayed, 0 disables retries
+     * @param retryBackoffMillis the back off before the first replay, doubled with every attempt and jittered
+     * @param retrySqlStates     the SQLState classes or codes considered transient, the defaults if none are given
+     */
+    public void setRetryPolicy( int maxRetries, long retryBackoffMillis, String... retrySqlStates ) {
+        this.maxRetries = maxRetries;
+        this.retryBackoffMillis = retryBackoffMillis;
+        this.retrySqlStates = retrySqlStates;
+    }
+
+    /**
+     * Method getMaxRetries returns the maxRetries of this JDBCTap object.
+     *
+     * @return the maxRetries (type int) of this JDBCTap object.
+     */
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Method setRejectPath lets this JDBCTap object isolate the rows a batch fails on, instead of failing the task.
+     * <p/>
+     * A batch failing on bad data, a SQLState of class 22 or 23, is bisected until the failing rows are found. Those
+     * are written, tab delimited and followed by the SQLState and error message, to a file per task attempt under
+     * the given directory on any Hadoop FileSystem. All other rows are written to the table. Any other failure, such
+     * as a missing table or column, and a batch of which every row is rejected, still fail the task. As with {@link #setRetryPolicy(int, long, String...)},
+     * every batch is committed on its own once enabled.
+     *
+     * @param rejectPath the directory to write rejected rows to
+     * @param maxRejects the number of rows a task may reject before it fails, -1 for no limit
+     */
+    public void setRejectPath( String rejectPath, long maxRejects ) {
+        this.rejectPath = rejectPath;
+        this.maxRejects = maxRejects;
+    }
+
+    /**
+     * Method getRejectPath returns the rejectPath of this JDBCTap object.
+     *
+     * @return the rejectPath (type String) of this JDBCTap object.
+     */
+    public String getRejectPath() {
+        return rejectPath;
+    }
+
+    /**
+     * Method setSortedWrites lets this JDBCTap object write in key order instead of arrival order.
+     * <p/>
+     * Rows are sorted by the updateBy columns of the {@link JDBCScheme}, or else by the primary keys of the
+     * {@link TableDesc}, so that inserts and updates walk the table index in order, improving buffer pool locality
+     * and reducing lock conflicts between concurrent writers. Once sortBufferRecords rows or sortBufferBytes
+     * estimated bytes are buffered they are spilled to local disk, and all rows are written when the task closes.
+     *
+     * @param sortBufferRecords the number of rows buffered in memory
+     * @param sortBufferBytes   the estimated bytes buffered in memory, 0 for no limit
+     */
+    public void setSortedWrites( int sortBufferRecords, long sortBufferBytes ) {
+        if( sortBufferRecords <= 0 )
+            throw new IllegalArgumentException( "sortBufferRecords must be positive" );
+
+        this.sortBufferRecords = sortBufferRecords;
+        this.sortBufferBytes = sortBufferBytes;
+    }
+
+    /**
+     * Method isSortedWrites returns true if this JDBCTap object writes in key order.
+     *
+     * @return the sortedWrites (type boolean) of this JDBCTap object.
+     */
+    public boolean isSortedWrites() {
+        return sortBufferRecords > 0;
+    }
+
+    /**
+     * Method setAdaptiveBatchSize lets the batchSize of this JDBCTap object grow and shrink while writing.
+     * <p/>
+     * Starting from {@link #getBatchSize()}, the batch size grows while full batches execute within
+     * batchTargetMillis, and is halved when a batch is slower or fails, staying between minBatchSize and
+     * maxBatchSize.
+     *
+     * @param minBatchSize      the smallest batch size
+     * @param maxBatchSize      the largest batch size
+     * @param batchTargetMillis the batch execution time in milliseconds above which the batch size shrinks
+     */
+    public void setAdaptiveBatchSize( int minBatchSize, int maxBatchSize, long batchTargetMillis ) {
+        this.adaptiveBatchSize = true;
+        this.minBatchSize = minBatchSize;
+        this.maxBatchSize = maxBatchSize;
+        this.batchTargetMillis = batchTargetMillis;
+    }
+
+    /**
+     * Method isAdaptiveBatchSize returns true if the batch size of this JDBCTap object adapts while writing.
+     *
+     * @return the adaptiveBatchSize (type boolean) of this JDBCTap object.
+     */
+    public boolean isAdaptiveBatchSize() {
+        return adaptiveBatchSize;
+    }
+
+    /**
+     * Method setWriteRate caps the rate at which all sink tasks of this JDBCTap object together write.
+     * <p/>
+     * Each task is given an equal share of the rates and waits before executing a batch that would exceed it, so
+     * the database sees a steady load however many tasks run. The share is the rate divided by rateTasks, or if
+     * 0, by the number of reduce tasks, or map tasks when the flow writes from maps.
+     *
+     * @param rowsPerSecond  the rows per second written across all tasks, 0 for no limit
+     * @param bytesPerSecond the estimated bytes per second written across all tasks, 0 for no limit
+     * @param rateTasks      the number of tasks writing at once, 0 for the number of tasks of the job
+     */
+    public void setWriteRate( long rowsPerSecond, long bytesPerSecond, int rateTasks ) {
+        this.rowsPerSecond = rowsPerSecond;
+        this.bytesPerSecond = bytesPerSecond;
+        this.rateTasks = rateTasks;
+    }
+
+    /**
+     * Method isWriteRateLimited returns true if the sink tasks of this JDBCTap object write at a capped rate.
+     *
+     * @return the writeRateLimited (type boolean) of this JDBCTap object.
+     */
+    public boolean isWriteRateLimited() {
+        return rowsPerSecond > 0 || bytesPerSecond > 0;
+    }
+
+    /**
+     * Method setDeferIndexes sets the deferIndexes of this JDBCTap object.
+     * <p/>
+     * When true, the secondary indexes of the {@link TableDesc} are dropped before the sink tasks start, so rows are
+     * loaded into an unindexed table, and are built once when the flow commits this resource. They are also rebuilt
+     * if the flow fails, leaving the table with the indexes it started with. Primary keys and unique indexes are never
+     * dropped, as the load relies on the constraints they enforce.
+     *
+     * @param deferIndexes the deferIndexes of this JDBCTap object.
+     */
+    public void setDeferIndexes( boolean deferIndexes ) {
+        this.deferIndexes = deferIndexes;
+    }
+
+    /**
+     * Method isDeferIndexes returns the deferIndexes of this JDBCTap object.
+     *
+     * @return the deferIndexes (type boolean) of this JDBCTap object.
+     */
+    public boolean isDeferIndexes() {
+        return deferIndexes;
+    }
+
+    /**
+     * Method setPartitionPerTask sets the partitionPerTask of this JDBCTap object.
+     * <p/>
+     * When true, the sink task with partition number i writes directly into partition i of the partitioned
+     * {@link TableDesc}, so tasks do not contend on the same heap and index pages. The flow must route the rows
+     * accordingly, typically with as many reducers as partitions and a partitioner matching the partition bounds,
+     * since the database rejects rows outside the bounds of the partition written to.
+     *
+     * @param partitionPerTask the partitionPerTask of this JDBCTap object.
+     */
+    public void setPartitionPerTask( boolean partitionPerTask ) {
+        if( partitionPerTask && ( tableDesc == null || !tableDesc.isPartitioned() ) )
+            throw new IllegalArgumentException( "writing a partition per task requires a partitioned TableDesc" );
+
+        this.partitionPerTask = partitionPerTask;
+    }
+
+    /**
+     * Method isPartitionPerTask returns the partitionPerTask of this JDBCTap object.
+     *
+     * @return the partitionPerTask (type boolean) of this JDBCTap object.
+     */
+    public boolean isPartitionPerTask() {
+        return partitionPerTask;
+    }
+
+    /**
+     * Method getSinkTableName returns the table written to by the task configured by the given JobConf, the
+     * partition of the task if {@link #isPartitionPerTask()}, otherwise the table of this JDBCTap object.
+     *
+     * @param conf of type JobConf
+     * @return String
+     */
+    String getSinkTableName( JobConf conf ) {
+        String attempt = conf.get( "mapred.task.id" );
+
+        if( stagedWrites && attempt != null )
+            return getStagingTableName( attempt );
+
+        return getTargetTableName( conf );
+    }
+
+    private String getTargetTableName( JobConf conf ) {
+        String partition = conf.get( "mapred.task.partition" );
+
+        if( !partitionPerTask || partition == null )
+            return getTableName();
+
+        return tableDesc.getPartitionTableName( Integer.parseInt( partition ) );
+    }
+
+    /**
+     * Method setStagedWrites sets the stagedWrites of this JDBCTap object.
+     * <p/>
+     * When true, every task attempt writes into a staging table of its own, registered in the table
+     * "&lt;table&gt;_attempts". An attempt is marked completed there by the {@link com.twitter.maple.jdbc.db.DBOutputCommitter}
+     * once Hadoop lets it commit, which only one attempt per task may. When the flow commits this resource, the staging
+     * table of each committed attempt is merged into the target table in one transaction, and all staging tables are
+     * dropped. Speculative execution is left enabled, as duplicate attempts no longer write the same rows twice.
+     * <p/>
+     * Rows are merged with a plain INSERT, so staged writes cannot be combined with updateBy columns. Only one flow
+     * at a time may stage writes into a table.
+     *
+     * @param stagedWrites the stagedWrites of this JDBCTap object.
+     */
+    public void setStagedWrites( boolean stagedWrites ) {
+        this.stagedWrites = stagedWrites;
+    }
+
+    /**
+     * Method isStagedWrites returns the stagedWrites of this JDBCTap object.
+     *
+     * @return the stagedWrites (type boolean) of this JDBCTap object.
+     */
+    public boolean isStagedWrites() {
+        return stagedWrites;
+    }
+
+    private String getStagingTableName( String attempt ) {
+        // attempt_<jobtracker>_<job>_<m|r>_<task>_<attempt>
+        String[] parts = attempt.split( "_" );
+
+        if( parts.length < 3 )
+            return getTableName() + "_s_" + attempt.replaceAll( "\\W", "_" );
+
+        int length = parts.length;
+
+        return getTableName() + "_s_" + parts[ length - 3 ] + parts[ length - 2 ] + "_" + parts[ length - 1 ];
+    }
+
+    String getAttemptsTableName() {
+        return getTableName() + "_attempts";
+    }
+
     /**
      * Method getConcurrentReads returns the concurrentReads of this JDBCTap object.
      * <p/>
@@ -326,11 +644,19 @@ public class JDBCTap extends Tap<JobConf, RecordReader, OutputCollector> {
 
         // do not delete if initialized from within a task
         try {
-            if( isReplace() && conf.get( "mapred.task.partition" ) == null && !deleteResource( conf ) )
+            if( isReplace() && TapUtil.isClient( conf ) && !deleteResource( conf ) )
                 throw new TapException( "unable to drop table: " + tableDesc.getTableName() );
 
             if( !createResource( conf ) )
                 throw new TapException( "unable to create table: " + tableDesc.getTableName() );
+
+            if( deferIndexes && TapUtil.isClient( conf ) )
+                dropIndexes();
+
+            if( stagedWrites && conf.get( "mapred.task.id" ) == null )
+                createAttempts();
+            else if( stagedWrites )
+                createStagingTable( conf );
         } catch(IOException e) {
             throw new TapException( "error while trying to modify table: " + tableDesc.getTableName() );
         }
@@ -421,6 +747,67 @@ public class JDBCTap extends Tap<JobConf, RecordReader, OutputCollector> {
         return result;
     }
 
+    /**
+     * Method executeUpdates sends the given update statements to the remote RDBMS in a single transaction, either
+     * all of them are applied or none.
+     *
+     * @param updateStrings of type List<String>
+     */
+    public void executeUpdates( List<String> updateStrings )
+    {
+        Connection connection = null;
+
+        try
+        {
+            connection = createConnection();
+
+            String updateString = null;
+
+            try
+            {
+                Statement statement = connection.createStatement();
+
+                for( String string : updateStrings )
+                {
+                    updateString = string;
+
+                    LOG.info( "executing update: {}", updateString );
+
+                    statement.executeUpdate( updateString );
+                }
+
+                connection.commit();
+                statement.close();
+            }
+            catch( SQLException exception )
+            {
+                try
+                {
+                    connection.rollback();
+                }
+                catch( SQLException rollbackException )
+                {
+                    LOG.warn( "ignoring rollback exception", rollbackException );
+                }
+
+                throw new TapException( "unable to execute update statement: " + updateString, exception );
+            }
+        }
+        finally
+        {
+            try
+            {
+                if( connection != null )
+                    connection.close();
+            }
+            catch( SQLException exception )
+            {
+                // ignore
+                LOG.warn( "ignoring connection close exception", exception );
+            }
+        }
+    }
+
     /**
      * Method executeQuery allows for ad-hoc queries to be sent to the remove RDBMS. A value
      * of -1 for returnResults will return a List of all results from the query, a value of 0 will return an empty List.
@@ -476,7 +863,7 @@ public class JDBCTap extends Tap<JobConf, RecordReader, OutputCollector> {
 
     private List<Object[]> copyResultSet( ResultSet resultSet, int length ) throws SQLException
     {
-        List<Object[]> results = new ArrayList<Object[]>( length );
+        List<Object[]> results = new ArrayList<Object[]>();
         int size = resultSet.getMetaData().getColumnCount();
 
         int count = 0;
@@ -507,6 +894,9 @@ public class JDBCTap extends Tap<JobConf, RecordReader, OutputCollector> {
             LOG.info( "creating table: {}", tableDesc.tableName );
 
             executeUpdate( tableDesc.getCreateTableStatement() );
+
+            for( String statement : tableDesc.getCreatePartitionStatements() )
+                executeUpdate( statement );
         }
         catch( TapException exception )
         {
@@ -516,9 +906,187 @@ public class JDBCTap extends Tap<JobConf, RecordReader, OutputCollector> {
             return false;
         }
 
+        // deferred indexes are built when the resource is committed
+        createIndexes( false );
+
         return resourceExists( conf );
     }
 
+    @Override
+    public boolean commitResource( JobConf conf ) throws IOException
+    {
+        if( stagedWrites && isSink() )
+            mergeStagingTables();
+
+        if( deferIndexes && isSink() )
+            createIndexes( true );
+
+        return super.commitResource( conf );
+    }
+
+    @Override
+    public boolean rollbackResource( JobConf conf ) throws IOException
+    {
+        try
+        {
+            if( stagedWrites && isSink() )
+                dropStagingTables();
+
+            if( deferIndexes && isSink() )
+                createIndexes( true );
+        }
+        catch( TapException exception )
+        {
+            // do not mask the failure being rolled back
+            LOG.warn( "unable to restore indexes on table: {}", tableDesc.tableName );
+            LOG.warn( "sql failure", exception.getCause() );
+        }
+
+        return super.rollbackResource( conf );
+    }
+
+    private void createAttempts()
+    {
+        // tables left behind by an earlier flow would be merged into this one
+        dropStagingTables();
+
+        LOG.info( "creating attempts table: {}", getAttemptsTableName() );
+
+        executeUpdate( String.format( "CREATE TABLE %s ( attempt_id VARCHAR(255), target_table VARCHAR(255), staging_table VARCHAR(255), completed INT )", getAttemptsTableName() ) );
+    }
+
+    private void createStagingTable( JobConf conf )
+    {
+        String attempt = conf.get( "mapred.task.id" );
+        String stagingTable = getStagingTableName( attempt );
+        String targetTable = getTargetTableName( conf );
+
+        if( tableExists( stagingTable ) )
+            return;
+
+        LOG.info( "creating staging table: {}", stagingTable );
+
+        List<String> statements = new ArrayList<String>();
+
+        statements.add( tableDesc.getCreateStagingTableStatement( stagingTable, targetTable ) );
+        statements.add( String.format( "INSERT INTO %s VALUES ( '%s', '%s', '%s', 0 )", getAttemptsTableName(), attempt, targetTable, stagingTable ) );
+
+        executeUpdates( statements );
+    }
+
+    private void mergeStagingTables()
+    {
+        // only the attempt Hadoop let commit is completed, the first one wins should a task be rerun
+        Map<String, Object[]> winners = new TreeMap<String, Object[]>();
+        List<Object[]> attempts = executeQuery( String.format( "SELECT attempt_id, target_table, staging_table FROM %s WHERE completed = 1 ORDER BY attempt_id", getAttemptsTableName() ), -1 );
+
+        for( Object[] attempt : attempts )
+        {
+            String attemptId = attempt[ 0 ].toString();
+            String taskId = attemptId.substring( 0, attemptId.lastIndexOf( '_' ) );
+
+            if( !winners.containsKey( taskId ) )
+                winners.put( taskId, attempt );
+        }
+
+        List<String> statements = new ArrayList<String>();
+
+        for( Object[] winner : winners.values() )
+            statements.add( tableDesc.getMergeStagingTableStatement( winner[ 2 ].toString(), winner[ 1 ].toString() ) );
+
+        LOG.info( "merging {} staging tables into table: {}", statements.size(), tableDesc.tableName );
+
+        executeUpdates( statements );
+
+        dropStagingTables();
+    }
+
+    private void dropStagingTables()
+    {
+        if( !tableExists( getAttemptsTableName() ) )
+            return;
+
+        List<Object[]> attempts = executeQuery( String.format( "SELECT staging_table FROM %s", getAttemptsTableName() ), -1 );
+
+        for( Object[] attempt : attempts )
+        {
+            String stagingTable = attempt[ 0 ].toString();
+
+            if( tableExists( stagingTable ) )
+                executeUpdate( String.format( getDropTableFormat(), stagingTable ) );
+        }
+
+        executeUpdate( String.format( getDropTableFormat(), getAttemptsTableName() ) );
+    }
+
+    private String getDropTableFormat()
+    {
+        return "DROP TABLE %s";
+    }
+
+    boolean tableExists( String tableName )
+    {
+        try
+        {
+            executeQuery( String.format( "select 1 from %s where 1 = 0", tableName ), 0 );
+        }
+        catch( TapException exception )
+        {
+            return false;
+        }
+
+        return true;
+    }
+
+    private boolean isDeferred( IndexDesc index )
+    {
+        // unique indexes enforce constraints the load relies on, so they are never deferred
+        return deferIndexes && !index.isUnique();
+    }
+
+    private void createIndexes( boolean deferred )
+    {
+        if( !tableDesc.hasIndexes() )
+            return;
+
+        for( IndexDesc index : tableDesc.getIndexes() )
+        {
+            if( isDeferred( index ) != deferred )
+                continue;
+
+            LOG.info( "creating index on table: {}", tableDesc.tableName );
+
+            executeUpdate( index.getCreateIndexStatement( tableDesc.getTableName() ) );
+        }
+    }
+
+    private void dropIndexes()
+    {
+        if( !tableDesc.hasIndexes() )
+            return;
+
+        for( IndexDesc index : tableDesc.getIndexes() )
+        {
+            if( !isDeferred( index ) )
+                continue;
+
+            String statement = index.getDropIndexStatement( tableDesc.getTableName() );
+
+            try
+            {
+                LOG.info( "dropping index on table: {}", tableDesc.tableName );
+
+                executeUpdate( statement );
+            }
+            catch( TapException exception )
+            {
+                // the index may not exist yet, it is created on commit
+                LOG.warn( "unable to drop index: {}", statement );
+                LOG.warn( "sql failure", exception.getCause() );
+            }
+        }
+    }
+
     @Override
     public boolean deleteResource( JobConf conf ) throws IOException
     {
@@ -84,7 +84,13 @@ public class JDBCTapCollector extends TupleEntrySchemeCollector implements Outpu
 
         LOG.info("Output format class is: " + outputFormat.getClass().toString());
 
-        writer = outputFormat.getRecordWriter( null, conf, tap.getIdentifier(), Reporter.NULL );
+        // hand over the task reporter so the writer may publish counters
+        Reporter taskReporter = Reporter.NULL;
+
+        if( hadoopFlowProcess instanceof HadoopFlowProcess )
+            taskReporter = ( (HadoopFlowProcess) hadoopFlowProcess ).getReporter();
+
+        writer = outputFormat.getRecordWriter( null, conf, tap.getIdentifier(), taskReporter );
 
         sinkCall.setOutput( this );
     }
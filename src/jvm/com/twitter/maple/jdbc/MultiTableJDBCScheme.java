@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+
+package com.twitter.maple.jdbc;
+
+import cascading.flow.FlowProcess;
+import cascading.scheme.SinkCall;
+import cascading.scheme.SourceCall;
+import cascading.tap.Tap;
+import cascading.tap.TapException;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import com.twitter.maple.jdbc.db.DBOutputFormat;
+import com.twitter.maple.jdbc.db.TableRecord;
+import com.twitter.maple.jdbc.db.UpsertDialect;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.RecordReader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Class MultiTableJDBCScheme is a sink only {@link JDBCScheme} writing every Tuple to several tables in a single
+ * pass, used with a {@link MultiTableJDBCTap}.
+ * <p/>
+ * Each table is given the names of its columns, which are also the names of the fields written to them, so a
+ * field may be written to several tables, like a foreign key. As with JDBCScheme, a table with updateBy columns
+ * is updated, unless all the updateBy values of the Tuple are null, in which case it is inserted into.
+ * <p/>
+ * Upserts, tombstones, hash columns and deduplicating by key are not supported.
+ */
+public class MultiTableJDBCScheme extends JDBCScheme {
+    /** Field tableColumns, the columns of each table, updateBy columns last */
+    private String[][] tableColumns;
+    /** Field tableUpdateBy */
+    private String[][] tableUpdateBy;
+    /** Field tableFields */
+    private Fields[] tableFields;
+    /** Field tableUpdateByFields */
+    private Fields[] tableUpdateByFields;
+
+    /**
+     * Constructor MultiTableJDBCScheme creates a new MultiTableJDBCScheme instance.
+     *
+     * @param columns  of type String[][], the columns of each table, in the order of the TableDescs of the tap
+     * @param updateBy of type String[][], the updateBy columns of each table, may be null or hold nulls
+     */
+    public MultiTableJDBCScheme( String[][] columns, String[][] updateBy ) {
+        super( union( columns ) );
+
+        if( updateBy != null && updateBy.length != columns.length )
+            throw new IllegalArgumentException( "columns and updateBy must have one entry per table" );
+
+        this.tableColumns = new String[ columns.length ][];
+        this.tableUpdateBy = new String[ columns.length ][];
+        this.tableFields = new Fields[ columns.length ];
+        this.tableUpdateByFields = new Fields[ columns.length ];
+
+        for( int i = 0; i < columns.length; i++ ) {
+            String[] keys = updateBy != null && updateBy[ i ] != null && updateBy[ i ].length != 0 ? updateBy[ i ] : null;
+
+            if( keys != null && !Arrays.asList( columns[ i ] ).containsAll( Arrays.asList( keys ) ) )
+                throw new IllegalArgumentException( "columns of table " + i + " must contain its updateBy column names" );
+
+            List<String> ordered = new ArrayList<String>();
+
+            // updates bind the updateBy values last, inserts use the same order
+            for( String column : columns[ i ] ) {
+                if( keys == null || !Arrays.asList( keys ).contains( column ) )
+                    ordered.add( column );
+            }
+
+            if( keys != null )
+                ordered.addAll( Arrays.asList( keys ) );
+
+            this.tableColumns[ i ] = ordered.toArray( new String[ ordered.size() ] );
+            this.tableUpdateBy[ i ] = keys;
+            this.tableFields[ i ] = new Fields( this.tableColumns[ i ] );
+            this.tableUpdateByFields[ i ] = keys != null ? new Fields( keys ) : null;
+        }
+    }
+
+    private static String[] union( String[][] columns ) {
+        Set<String> union = new LinkedHashSet<String>();
+
+        for( String[] tableColumns : columns )
+            union.addAll( Arrays.asList( tableColumns ) );
+
+        return union.toArray( new String[ union.size() ] );
+    }
+
+    @Override
+    public void setUpsertDialect( UpsertDialect upsertDialect ) {
+        if( upsertDialect != null )
+            throw new UnsupportedOperationException( "upserts are not supported by MultiTableJDBCScheme" );
+    }
+
+    @Override
+    public void setDeduplicateByKey( boolean deduplicateByKey ) {
+        if( deduplicateByKey )
+            throw new UnsupportedOperationException( "deduplicating by key is not supported by MultiTableJDBCScheme" );
+    }
+
+    @Override
+    public void setHashColumn( String hashColumn ) {
+        if( hashColumn != null )
+            throw new UnsupportedOperationException( "hash columns are not supported by MultiTableJDBCScheme" );
+    }
+
+    @Override
+    public void setTombstoneField( String tombstoneField ) {
+        if( tombstoneField != null )
+            throw new UnsupportedOperationException( "tombstones are not supported by MultiTableJDBCScheme" );
+    }
+
+    @Override
+    public void sourceConfInit( FlowProcess<JobConf> process, Tap<JobConf, RecordReader, OutputCollector> tap,
+        JobConf conf ) {
+        throw new TapException( "cannot source from this Scheme" );
+    }
+
+    @Override
+    public boolean source( FlowProcess<JobConf> flowProcess, SourceCall<Object[], RecordReader> sourceCall ) throws IOException {
+        throw new TapException( "cannot source from this Scheme" );
+    }
+
+    @Override
+    public void sinkConfInit( FlowProcess<JobConf> process, Tap<JobConf, RecordReader, OutputCollector> tap,
+        JobConf conf ) {
+        if( !( tap instanceof MultiTableJDBCTap ) )
+            throw new TapException( "MultiTableJDBCScheme requires a MultiTableJDBCTap" );
+
+        MultiTableJDBCTap multiTableTap = (MultiTableJDBCTap) tap;
+        TableDesc[] tableDescs = multiTableTap.getTableDescs();
+
+        if( tableDescs.length != tableColumns.length )
+            throw new TapException( "number of TableDescs: " + tableDescs.length + " does not match number of tables: " + tableColumns.length );
+
+        String[] tableNames = new String[ tableDescs.length ];
+
+        for( int i = 0; i < tableDescs.length; i++ )
+            tableNames[ i ] = tableDescs[ i ].getTableName();
+
+        DBOutputFormat.setMultiTableOutput( conf, DBOutputFormat.class, tableNames, tableColumns, tableUpdateBy, multiTableTap.getBatchSize() );
+
+        if( multiTableTap.getBatchBytes() > 0 )
+            DBOutputFormat.setBatchMaxBytes( conf, multiTableTap.getBatchBytes() );
+
+        if( multiTableTap.isAdaptiveBatchSize() )
+            DBOutputFormat.setAdaptiveBatchSize( conf, multiTableTap.minBatchSize, multiTableTap.maxBatchSize, multiTableTap.batchTargetMillis );
+
+        if( multiTableTap.isWriteRateLimited() )
+            DBOutputFormat.setOutputRate( conf, multiTableTap.rowsPerSecond, multiTableTap.bytesPerSecond, multiTableTap.rateTasks );
+    }
+
+    @Override
+    public void sink( FlowProcess<JobConf> flowProcess, SinkCall<Object[], OutputCollector> sinkCall ) throws IOException {
+        TupleEntry tupleEntry = sinkCall.getOutgoingEntry();
+        OutputCollector outputCollector = sinkCall.getOutput();
+
+        for( int i = 0; i < tableFields.length; i++ ) {
+            Tuple values = cleanTuple( tupleEntry.selectTuple( tableFields[ i ] ) );
+            TableRecord record = new TableRecord( i, new TupleRecord( values ) );
+
+            if( tableUpdateByFields[ i ] == null || isNull( tupleEntry.selectTuple( tableUpdateByFields[ i ] ) ) )
+                outputCollector.collect( record, null );
+            else
+                outputCollector.collect( record, record );
+        }
+    }
+
+    private boolean isNull( Tuple tuple ) {
+        for( int i = 0; i < tuple.size(); i++ ) {
+            if( tuple.getObject( i ) != null )
+                return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public boolean equals( Object object ) {
+        if( this == object )
+            return true;
+        if( !( object instanceof MultiTableJDBCScheme ) )
+            return false;
+        if( !super.equals( object ) )
+            return false;
+
+        MultiTableJDBCScheme that = (MultiTableJDBCScheme) object;
+
+        if( !Arrays.deepEquals( tableColumns, that.tableColumns ) )
+            return false;
+        if( !Arrays.deepEquals( tableUpdateBy, that.tableUpdateBy ) )
+            return false;
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = super.hashCode();
+        result = 31 * result + Arrays.deepHashCode( tableColumns );
+        result = 31 * result + Arrays.deepHashCode( tableUpdateBy );
+        return result;
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+
+package com.twitter.maple.jdbc;
+
+import cascading.tap.SinkMode;
+import cascading.tap.TapException;
+import org.apache.hadoop.mapred.JobConf;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Class MultiTableJDBCTap is a sink only {@link JDBCTap} writing to several tables in a single pass, over one
+ * connection and transaction per task, with a {@link MultiTableJDBCScheme}.
+ * <p/>
+ * TableDescs are given parents first, so that tables referencing others by foreign key are created after, dropped
+ * before and written after them. Once any table holds a full batch, the batches of all tables are executed in
+ * that order, and all tables are committed together when the task completes.
+ * <p/>
+ * Batch bytes, adaptive batch sizes and write rates apply as for a JDBCTap. Retries, rejects, sorted writes, staged
+ * writes, deferred indexes and partition per task would break the single transaction or need a single table, and are
+ * not supported.
+ */
+public class MultiTableJDBCTap extends JDBCTap {
+    /** Field LOG */
+    private static final Logger LOG = LoggerFactory.getLogger( MultiTableJDBCTap.class );
+
+    /** Field tableDescs */
+    TableDesc[] tableDescs;
+
+    /**
+     * Constructor MultiTableJDBCTap creates a new MultiTableJDBCTap instance.
+     *
+     * @param connectionUrl   of type String
+     * @param username        of type String
+     * @param password        of type String
+     * @param driverClassName of type String
+     * @param tableDescs      of type TableDesc[], parents before children
+     * @param scheme          of type MultiTableJDBCScheme
+     * @param sinkMode        of type SinkMode
+     */
+    public MultiTableJDBCTap( String connectionUrl, String username, String password, String driverClassName, TableDesc[] tableDescs, MultiTableJDBCScheme scheme, SinkMode sinkMode ) {
+        super( connectionUrl, username, password, driverClassName, tableDescs[ 0 ], scheme, sinkMode );
+        this.tableDescs = tableDescs;
+
+        for( TableDesc tableDesc : tableDescs ) {
+            if( tableDesc.getColumnDefs() == null && sinkMode != SinkMode.UPDATE )
+                throw new IllegalArgumentException( "cannot have sink mode REPLACE or KEEP without TableDesc column defs, use UPDATE mode" );
+        }
+    }
+
+    /**
+     * Constructor MultiTableJDBCTap creates a new MultiTableJDBCTap instance.
+     *
+     * @param connectionUrl   of type String
+     * @param driverClassName of type String
+     * @param tableDescs      of type TableDesc[], parents before children
+     * @param scheme          of type MultiTableJDBCScheme
+     * @param sinkMode        of type SinkMode
+     */
+    public MultiTableJDBCTap( String connectionUrl, String driverClassName, TableDesc[] tableDescs, MultiTableJDBCScheme scheme, SinkMode sinkMode ) {
+        this( connectionUrl, null, null, driverClassName, tableDescs, scheme, sinkMode );
+    }
+
+    /**
+     * Method getTableDescs returns the tableDescs of this MultiTableJDBCTap object.
+     *
+     * @return the tableDescs (type TableDesc[]) of this MultiTableJDBCTap object.
+     */
+    public TableDesc[] getTableDescs() {
+        return tableDescs;
+    }
+
+    @Override
+    public void setRetryPolicy( int maxRetries, long retryBackoffMillis, String... retrySqlStates ) {
+        if( maxRetries > 0 )
+            throw new UnsupportedOperationException( "retries are not supported by MultiTableJDBCTap" );
+    }
+
+    @Override
+    public void setRejectPath( String rejectPath, long maxRejects ) {
+        if( rejectPath != null )
+            throw new UnsupportedOperationException( "rejects are not supported by MultiTableJDBCTap" );
+    }
+
+    @Override
+    public void setSortedWrites( int sortBufferRecords, long sortBufferBytes ) {
+        throw new UnsupportedOperationException( "sorted writes are not supported by MultiTableJDBCTap" );
+    }
+
+    @Override
+    public void setDeferIndexes( boolean deferIndexes ) {
+        if( deferIndexes )
+            throw new UnsupportedOperationException( "deferred indexes are not supported by MultiTableJDBCTap" );
+    }
+
+    @Override
+    public void setPartitionPerTask( boolean partitionPerTask ) {
+        if( partitionPerTask )
+            throw new UnsupportedOperationException( "partition per task is not supported by MultiTableJDBCTap" );
+    }
+
+    @Override
+    public void setStagedWrites( boolean stagedWrites ) {
+        if( stagedWrites )
+            throw new UnsupportedOperationException( "staged writes are not supported by MultiTableJDBCTap" );
+    }
+
+    @Override
+    public boolean createResource( JobConf conf ) throws IOException
+    {
+        for( TableDesc tableDesc : tableDescs )
+        {
+            if( tableExists( tableDesc.getTableName() ) )
+                continue;
+
+            try
+            {
+                LOG.info( "creating table: {}", tableDesc.getTableName() );
+
+                executeUpdate( tableDesc.getCreateTableStatement() );
+
+                for( String statement : tableDesc.getCreateIndexStatements() )
+                    executeUpdate( statement );
+            }
+            catch( TapException exception )
+            {
+                LOG.warn( "unable to create table: {}", tableDesc.getTableName() );
+                LOG.warn( "sql failure", exception.getCause() );
+
+                return false;
+            }
+        }
+
+        return resourceExists( conf );
+    }
+
+    @Override
+    public boolean deleteResource( JobConf conf ) throws IOException
+    {
+        // children first, their foreign keys reference the parents
+        for( int i = tableDescs.length - 1; i >= 0; i-- )
+        {
+            TableDesc tableDesc = tableDescs[ i ];
+
+            if( !tableExists( tableDesc.getTableName() ) )
+                continue;
+
+            try
+            {
+                LOG.info( "deleting table: {}", tableDesc.getTableName() );
+
+                executeUpdate( tableDesc.getTableDropStatement() );
+            }
+            catch( TapException exception )
+            {
+                LOG.warn( "unable to drop table: {}", tableDesc.getTableName() );
+                LOG.warn( "sql failure", exception.getCause() );
+
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public boolean resourceExists( JobConf conf ) throws IOException
+    {
+        for( TableDesc tableDesc : tableDescs )
+        {
+            if( !tableExists( tableDesc.getTableName() ) )
+                return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "MultiTableJDBCTap{" + "connectionUrl='" + connectionUrl + '\'' + ", driverClassName='" + driverClassName + '\'' + ", tableDescs=" + Arrays.asList( tableDescs ) + '}';
+    }
+
+    @Override
+    public boolean equals( Object object )
+    {
+        if( this == object )
+            return true;
+        if( !( object instanceof MultiTableJDBCTap ) )
+            return false;
+        if( !super.equals( object ) )
+            return false;
+
+        MultiTableJDBCTap that = (MultiTableJDBCTap) object;
+
+        return Arrays.equals( tableDescs, that.tableDescs );
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return 31 * super.hashCode() + Arrays.hashCode( tableDescs );
+    }
+}
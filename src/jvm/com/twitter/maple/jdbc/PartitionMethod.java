@@ -0,0 +1,26 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+
+package com.twitter.maple.jdbc;
+
+/**
+ * The method a {@link TableDesc} partitions its table by, in PostgreSQL 10+ declarative partitioning syntax:
+ * {@code PARTITION BY <method> ( columns )}, each partition being created as a table of its own with
+ * {@code CREATE TABLE ... PARTITION OF ... FOR VALUES ...}.
+ */
+public enum PartitionMethod {
+    /** Partitions hold contiguous ranges of the partition columns, {@code FOR VALUES FROM (..) TO (..)} */
+    RANGE,
+    /** Partitions hold the rows whose hash of the partition columns has a given remainder */
+    HASH
+}
@@ -35,6 +35,16 @@ public class TableDesc implements Serializable {
     String[] columnDefs;
     /** Field primaryKeys */
     String[] primaryKeys;
+    /** Field indexes */
+    IndexDesc[] indexes;
+    /** Field storage */
+    TableStorage storage = TableStorage.LOGGED;
+    /** Field partitionMethod */
+    PartitionMethod partitionMethod;
+    /** Field partitionColumns */
+    String[] partitionColumns;
+    /** Field partitionBounds */
+    String[] partitionBounds;
 
     /**
      * Constructor TableDesc creates a new TableDesc instance.
@@ -60,6 +70,20 @@ public class TableDesc implements Serializable {
         this.primaryKeys = primaryKeys;
     }
 
+    /**
+     * Constructor TableDesc creates a new TableDesc instance.
+     *
+     * @param tableName   of type String
+     * @param columnNames of type String[]
+     * @param columnDefs  of type String[]
+     * @param primaryKeys of type String
+     * @param indexes     of type IndexDesc[]
+     */
+    public TableDesc( String tableName, String[] columnNames, String[] columnDefs, String[] primaryKeys, IndexDesc... indexes ) {
+        this( tableName, columnNames, columnDefs, primaryKeys );
+        this.indexes = indexes;
+    }
+
     public String getTableName() {
         return tableName;
     }
@@ -76,6 +100,172 @@ public class TableDesc implements Serializable {
         return primaryKeys;
     }
 
+    public IndexDesc[] getIndexes() {
+        return indexes;
+    }
+
+    public TableStorage getStorage() {
+        return storage;
+    }
+
+    /**
+     * Method setStorage sets the storage of this TableDesc object, applied to the table, or to its partitions if
+     * partitioned, as those hold the rows.
+     *
+     * @param storage the storage of this TableDesc object.
+     */
+    public void setStorage( TableStorage storage ) {
+        if( storage == null )
+            throw new IllegalArgumentException( "storage may not be null" );
+
+        this.storage = storage;
+    }
+
+    public PartitionMethod getPartitionMethod() {
+        return partitionMethod;
+    }
+
+    public String[] getPartitionColumns() {
+        return partitionColumns;
+    }
+
+    /**
+     * Method setHashPartitions partitions the table of this TableDesc object into partitionCount partitions by
+     * the hash of the given columns.
+     *
+     * @param partitionCount   of type int
+     * @param partitionColumns of type String...
+     */
+    public void setHashPartitions( int partitionCount, String... partitionColumns ) {
+        if( partitionCount <= 0 )
+            throw new IllegalArgumentException( "partitionCount must be positive" );
+
+        String[] bounds = new String[ partitionCount ];
+
+        for( int i = 0; i < partitionCount; i++ )
+            bounds[ i ] = String.format( "WITH ( MODULUS %d, REMAINDER %d )", partitionCount, i );
+
+        setPartitions( PartitionMethod.HASH, partitionColumns, bounds );
+    }
+
+    /**
+     * Method setRangePartitions partitions the table of this TableDesc object by ranges of the given columns.
+     * <p/>
+     * Partition i holds the rows from boundaries[i], inclusive, to boundaries[i + 1], exclusive. Boundaries are SQL
+     * literals, or MINVALUE and MAXVALUE, comma separated if there are several partition columns.
+     *
+     * @param partitionColumns of type String[]
+     * @param boundaries       of type String...
+     */
+    public void setRangePartitions( String[] partitionColumns, String... boundaries ) {
+        if( boundaries.length < 2 )
+            throw new IllegalArgumentException( "range partitions require at least two boundaries" );
+
+        String[] bounds = new String[ boundaries.length - 1 ];
+
+        for( int i = 0; i < bounds.length; i++ )
+            bounds[ i ] = String.format( "FROM ( %s ) TO ( %s )", boundaries[ i ], boundaries[ i + 1 ] );
+
+        setPartitions( PartitionMethod.RANGE, partitionColumns, bounds );
+    }
+
+    private void setPartitions( PartitionMethod partitionMethod, String[] partitionColumns, String[] partitionBounds ) {
+        if( partitionColumns == null || partitionColumns.length == 0 )
+            throw new IllegalArgumentException( "partitioning requires column names" );
+
+        this.partitionMethod = partitionMethod;
+        this.partitionColumns = partitionColumns;
+        this.partitionBounds = partitionBounds;
+    }
+
+    public boolean isPartitioned() {
+        return partitionMethod != null;
+    }
+
+    /**
+     * Method getPartitionCount returns the number of partitions of this TableDesc object, 0 if not partitioned.
+     *
+     * @return the partitionCount (type int) of this TableDesc object.
+     */
+    public int getPartitionCount() {
+        return isPartitioned() ? partitionBounds.length : 0;
+    }
+
+    /**
+     * Method getPartitionTableName returns the name of the table holding the given partition.
+     *
+     * @param partition of type int
+     * @return String
+     */
+    public String getPartitionTableName( int partition ) {
+        if( partition < 0 || partition >= getPartitionCount() )
+            throw new IllegalArgumentException( "no partition " + partition + " in table: " + tableName + ", partitions: " + getPartitionCount() );
+
+        return tableName + "_p" + partition;
+    }
+
+    /**
+     * Method getCreatePartitionStatements returns the statements creating the partitions of this TableDesc object,
+     * run once the partitioned table was created.
+     *
+     * @return the createPartitionStatements (type List<String>) of this TableDesc object.
+     */
+    public List<String> getCreatePartitionStatements() {
+        List<String> statements = new ArrayList<String>();
+
+        for( int i = 0; i < getPartitionCount(); i++ )
+            statements.add( String.format( getCreatePartitionFormat(), getPartitionTableName( i ), tableName, partitionBounds[ i ] ) );
+
+        return statements;
+    }
+
+    protected String getCreatePartitionFormat() {
+        return getCreateTablePrefix() + " %s PARTITION OF %s FOR VALUES %s";
+    }
+
+    /**
+     * Method getDropPartitionStatement returns the statement dropping the given partition and all its rows, far
+     * cheaper than deleting them.
+     *
+     * @param partition of type int
+     * @return String
+     */
+    public String getDropPartitionStatement( int partition ) {
+        return String.format( getDropTableFormat(), getPartitionTableName( partition ) );
+    }
+
+    /**
+     * Method getCreateIndexStatements returns the statements creating the secondary indexes of this TableDesc object.
+     *
+     * @return the createIndexStatements (type List<String>) of this TableDesc object.
+     */
+    public List<String> getCreateIndexStatements() {
+        List<String> statements = new ArrayList<String>();
+
+        if( hasIndexes() ) {
+            for( IndexDesc index : indexes )
+                statements.add( index.getCreateIndexStatement( tableName ) );
+        }
+
+        return statements;
+    }
+
+    /**
+     * Method getDropIndexStatements returns the statements dropping the secondary indexes of this TableDesc object.
+     *
+     * @return the dropIndexStatements (type List<String>) of this TableDesc object.
+     */
+    public List<String> getDropIndexStatements() {
+        List<String> statements = new ArrayList<String>();
+
+        if( hasIndexes() ) {
+            for( IndexDesc index : indexes )
+                statements.add( index.getDropIndexStatement( tableName ) );
+        }
+
+        return statements;
+    }
+
     /**
      * Method getTableCreateStatement returns the tableCreateStatement of this TableDesc object.
      *
@@ -86,7 +276,12 @@ public class TableDesc implements Serializable {
 
         createTableStatement = addCreateTableBodyTo( createTableStatement );
 
-        return String.format( getCreateTableFormat(), tableName, Util.join( createTableStatement, ", " ) );
+        String statement = String.format( getCreateTableFormat(), tableName, Util.join( createTableStatement, ", " ) );
+
+        if( isPartitioned() )
+            statement += String.format( getPartitionByFormat(), partitionMethod, Util.join( partitionColumns, ", " ) );
+
+        return statement;
     }
 
     protected List<String> addCreateTableBodyTo( List<String> createTableStatement ) {
@@ -97,7 +292,21 @@ public class TableDesc implements Serializable {
     }
 
     protected String getCreateTableFormat() {
-        return "CREATE TABLE %s ( %s )";
+        // PostgreSQL rejects UNLOGGED on a partitioned table, only its partitions take it
+        return ( isPartitioned() ? "CREATE TABLE" : getCreateTablePrefix() ) + " %s ( %s )";
+    }
+
+    protected String getCreateTablePrefix() {
+        switch( storage ) {
+            case UNLOGGED:
+                return "CREATE UNLOGGED TABLE";
+            default:
+                return "CREATE TABLE";
+        }
+    }
+
+    protected String getPartitionByFormat() {
+        return " PARTITION BY %s ( %s )";
     }
 
     protected List<String> addDefinitionsTo( List<String> createTableStatement ) {
@@ -118,6 +327,38 @@ public class TableDesc implements Serializable {
         return createTableStatement;
     }
 
+    /**
+     * Method getCreateStagingTableStatement returns the statement creating an empty staging table with the columns
+     * of the given table.
+     *
+     * @param stagingTableName of type String
+     * @param sourceTableName  of type String
+     * @return String
+     */
+    public String getCreateStagingTableStatement( String stagingTableName, String sourceTableName ) {
+        return String.format( getCreateStagingTableFormat(), stagingTableName, sourceTableName );
+    }
+
+    protected String getCreateStagingTableFormat() {
+        return "CREATE TABLE %s AS SELECT * FROM %s WHERE 1 = 0";
+    }
+
+    /**
+     * Method getMergeStagingTableStatement returns the statement copying all rows of a staging table into the
+     * given table.
+     *
+     * @param stagingTableName of type String
+     * @param targetTableName  of type String
+     * @return String
+     */
+    public String getMergeStagingTableStatement( String stagingTableName, String targetTableName ) {
+        return String.format( getMergeStagingTableFormat(), targetTableName, stagingTableName );
+    }
+
+    protected String getMergeStagingTableFormat() {
+        return "INSERT INTO %s SELECT * FROM %s";
+    }
+
     /**
      * Method getTableDropStatement returns the tableDropStatement of this TableDesc object.
      *
@@ -144,9 +385,13 @@ public class TableDesc implements Serializable {
         return primaryKeys != null && primaryKeys.length != 0;
     }
 
+    public boolean hasIndexes() {
+        return indexes != null && indexes.length != 0;
+    }
+
     @Override
     public String toString() {
-        return "TableDesc{" + "tableName='" + tableName + '\'' + ", columnNames=" + ( columnNames == null ? null : Arrays.asList( columnNames ) ) + ", columnDefs=" + ( columnDefs == null ? null : Arrays.asList( columnDefs ) ) + ", primaryKeys=" + ( primaryKeys == null ? null : Arrays.asList( primaryKeys ) ) + '}';
+        return "TableDesc{" + "tableName='" + tableName + '\'' + ", columnNames=" + ( columnNames == null ? null : Arrays.asList( columnNames ) ) + ", columnDefs=" + ( columnDefs == null ? null : Arrays.asList( columnDefs ) ) + ", primaryKeys=" + ( primaryKeys == null ? null : Arrays.asList( primaryKeys ) ) + ", indexes=" + ( indexes == null ? null : Arrays.asList( indexes ) ) + ", storage=" + storage + ", partitionMethod=" + partitionMethod + ", partitionColumns=" + ( partitionColumns == null ? null : Arrays.asList( partitionColumns ) ) + ", partitionBounds=" + ( partitionBounds == null ? null : Arrays.asList( partitionBounds ) ) + '}';
     }
 
     @Override
@@ -164,6 +409,16 @@ public class TableDesc implements Serializable {
             return false;
         if( !Arrays.equals( primaryKeys, tableDesc.primaryKeys ) )
             return false;
+        if( !Arrays.equals( indexes, tableDesc.indexes ) )
+            return false;
+        if( storage != tableDesc.storage )
+            return false;
+        if( partitionMethod != tableDesc.partitionMethod )
+            return false;
+        if( !Arrays.equals( partitionColumns, tableDesc.partitionColumns ) )
+            return false;
+        if( !Arrays.equals( partitionBounds, tableDesc.partitionBounds ) )
+            return false;
         if( tableName != null ? !tableName.equals( tableDesc.tableName ) : tableDesc.tableName != null )
             return false;
 
@@ -176,6 +431,11 @@ public class TableDesc implements Serializable {
         result = 31 * result + ( columnNames != null ? Arrays.hashCode( columnNames ) : 0 );
         result = 31 * result + ( columnDefs != null ? Arrays.hashCode( columnDefs ) : 0 );
         result = 31 * result + ( primaryKeys != null ? Arrays.hashCode( primaryKeys ) : 0 );
+        result = 31 * result + ( indexes != null ? Arrays.hashCode( indexes ) : 0 );
+        result = 31 * result + ( storage != null ? storage.hashCode() : 0 );
+        result = 31 * result + ( partitionMethod != null ? partitionMethod.hashCode() : 0 );
+        result = 31 * result + ( partitionColumns != null ? Arrays.hashCode( partitionColumns ) : 0 );
+        result = 31 * result + ( partitionBounds != null ? Arrays.hashCode( partitionBounds ) : 0 );
         return result;
     }
 }
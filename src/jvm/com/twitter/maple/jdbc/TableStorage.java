@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+
+package com.twitter.maple.jdbc;
+
+/**
+ * The storage a {@link TableDesc} creates its table with. <p/> {@link #UNLOGGED} skips the write ahead log,
+ * trading durability for write throughput, and is meant for tables that can be reloaded from their source.
+ */
+public enum TableStorage {
+    /** {@code CREATE TABLE}, the default */
+    LOGGED,
+    /** PostgreSQL: {@code CREATE UNLOGGED TABLE}, truncated on crash recovery */
+    UNLOGGED
+}
@@ -13,14 +13,18 @@
 package com.twitter.maple.jdbc;
 
 import cascading.tuple.Tuple;
-import com.twitter.maple.jdbc.db.DBWritable;
+import com.twitter.maple.jdbc.db.SizedDBWritable;
 
+import java.io.Serializable;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Date;
 
-public class TupleRecord implements DBWritable {
+public class TupleRecord implements SizedDBWritable, Serializable {
     private Tuple tuple;
+    private int[] writePositions;
+    private long writeSize = -1;
 
     public TupleRecord() {
     }
@@ -29,8 +33,21 @@ public class TupleRecord implements DBWritable {
         this.tuple = tuple;
     }
 
+    /**
+     * Constructor TupleRecord creates a new TupleRecord instance only binding the values at the given positions
+     * when written, like the keys of a delete, while keeping the whole tuple for comparators and rejects.
+     *
+     * @param tuple          of type Tuple
+     * @param writePositions of type int[]
+     */
+    public TupleRecord( Tuple tuple, int[] writePositions ) {
+        this.tuple = tuple;
+        this.writePositions = writePositions;
+    }
+
     public void setTuple( Tuple tuple ) {
         this.tuple = tuple;
+        this.writeSize = -1;
     }
 
     public Tuple getTuple() {
@@ -38,8 +55,69 @@ public class TupleRecord implements DBWritable {
     }
 
     public void write( PreparedStatement statement ) throws SQLException {
-        for( int i = 0; i < tuple.size(); i++ )
-            statement.setObject( i + 1, tuple.getObject( i ) );
+        long size = 0;
+
+        for( int i = 0; i < getWriteCount(); i++ ) {
+            Object value = tuple.getObject( getWritePosition( i ) );
+
+            statement.setObject( i + 1, value );
+            size += estimateSize( value );
+        }
+
+        writeSize = size;
+    }
+
+    public long getWriteSize() {
+        if( writeSize == -1 ) {
+            long size = 0;
+
+            for( int i = 0; i < getWriteCount(); i++ )
+                size += estimateSize( tuple.getObject( getWritePosition( i ) ) );
+
+            writeSize = size;
+        }
+
+        return writeSize;
+    }
+
+    private int getWriteCount() {
+        return writePositions != null ? writePositions.length : tuple.size();
+    }
+
+    private int getWritePosition( int index ) {
+        return writePositions != null ? writePositions[ index ] : index;
+    }
+
+    /**
+     * Estimates the bytes a value takes on the wire, erring on the side of cheap over exact.
+     *
+     * @param value
+     * @return the estimated size in bytes
+     */
+    protected long estimateSize( Object value ) {
+        if( value == null )
+            return 1;
+
+        if( value instanceof byte[] )
+            return ( (byte[]) value ).length;
+
+        if( value instanceof CharSequence )
+            return ( (CharSequence) value ).length();
+
+        if( value instanceof Number || value instanceof Boolean || value instanceof Date )
+            return 8;
+
+        return 16;
+    }
+
+    /**
+     * Returns the tab delimited values of this record, as written to the reject path.
+     *
+     * @return the values (type String) of this record
+     */
+    @Override
+    public String toString() {
+        return tuple == null ? "" : tuple.toString( "\t" );
     }
 
     public void readFields( ResultSet resultSet ) throws SQLException {
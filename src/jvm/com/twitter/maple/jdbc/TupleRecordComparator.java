@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package com.twitter.maple.jdbc;
+
+import cascading.tuple.Tuple;
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Comparator;
+
+/**
+ * Class TupleRecordComparator orders {@link TupleRecord} instances by the values at the key positions set in the
+ * job configuration, nulls first. Numbers of different types are compared by value and byte arrays as unsigned
+ * bytes, other values of different types can not be compared. It is used by the {@link JDBCScheme} to write sorted
+ * by the updateBy or primary key columns.
+ *
+ * @see JDBCTap#setSortedWrites(int, long)
+ */
+public class TupleRecordComparator implements Comparator<TupleRecord>, Configurable {
+    /** Field KEY_POSITIONS, the positions of the key values in each record */
+    public static final String KEY_POSITIONS = "mapred.jdbc.output.sort.key.positions";
+
+    /** Field conf */
+    private Configuration conf;
+    /** Field keyPositions */
+    private int[] keyPositions;
+
+    public void setConf( Configuration conf ) {
+        this.conf = conf;
+
+        String[] positions = conf.getStrings( KEY_POSITIONS );
+
+        if( positions == null )
+            throw new IllegalArgumentException( "no key positions set in: " + KEY_POSITIONS );
+
+        keyPositions = new int[ positions.length ];
+
+        for( int i = 0; i < positions.length; i++ )
+            keyPositions[ i ] = Integer.parseInt( positions[ i ].trim() );
+    }
+
+    public Configuration getConf() {
+        return conf;
+    }
+
+    public int compare( TupleRecord lhs, TupleRecord rhs ) {
+        Tuple lhsTuple = lhs.getTuple();
+        Tuple rhsTuple = rhs.getTuple();
+
+        for( int position : keyPositions ) {
+            int result = compareValues( lhsTuple.getObject( position ), rhsTuple.getObject( position ) );
+
+            if( result != 0 )
+                return result;
+        }
+
+        return 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private int compareValues( Object lhs, Object rhs ) {
+        if( lhs == rhs )
+            return 0;
+
+        if( lhs == null )
+            return -1;
+
+        if( rhs == null )
+            return 1;
+
+        if( lhs instanceof Comparable && lhs.getClass() == rhs.getClass() )
+            return ( (Comparable<Object>) lhs ).compareTo( rhs );
+
+        if( lhs instanceof Number && rhs instanceof Number )
+            return compareNumbers( (Number) lhs, (Number) rhs );
+
+        if( lhs instanceof byte[] && rhs instanceof byte[] )
+            return compareBytes( (byte[]) lhs, (byte[]) rhs );
+
+        throw new IllegalArgumentException( "unable to compare key values of type: " + lhs.getClass().getName() + " and: " + rhs.getClass().getName() );
+    }
+
+    /** Compares numbers of different types by their values, so that an Integer 10 sorts after a Long 9. */
+    private static int compareNumbers( Number lhs, Number rhs ) {
+        if( isIntegral( lhs ) && isIntegral( rhs ) ) {
+            long lhsValue = lhs.longValue();
+            long rhsValue = rhs.longValue();
+
+            return lhsValue < rhsValue ? -1 : lhsValue == rhsValue ? 0 : 1;
+        }
+
+        if( !isFinite( lhs ) || !isFinite( rhs ) )
+            return Double.compare( lhs.doubleValue(), rhs.doubleValue() );
+
+        return toBigDecimal( lhs ).compareTo( toBigDecimal( rhs ) );
+    }
+
+    private static boolean isIntegral( Number number ) {
+        return number instanceof Long || number instanceof Integer || number instanceof Short || number instanceof Byte;
+    }
+
+    private static boolean isFinite( Number number ) {
+        if( !( number instanceof Double || number instanceof Float ) )
+            return true;
+
+        double value = number.doubleValue();
+
+        return !Double.isNaN( value ) && !Double.isInfinite( value );
+    }
+
+    private static BigDecimal toBigDecimal( Number number ) {
+        if( number instanceof BigDecimal )
+            return (BigDecimal) number;
+
+        if( number instanceof BigInteger )
+            return new BigDecimal( (BigInteger) number );
+
+        if( number instanceof Double || number instanceof Float )
+            return new BigDecimal( number.doubleValue() );
+
+        if( isIntegral( number ) )
+            return BigDecimal.valueOf( number.longValue() );
+
+        return new BigDecimal( number.toString() );
+    }
+
+    /** Compares byte arrays lexicographically, as unsigned bytes. */
+    private static int compareBytes( byte[] lhs, byte[] rhs ) {
+        int length = Math.min( lhs.length, rhs.length );
+
+        for( int i = 0; i < length; i++ ) {
+            int result = ( lhs[ i ] & 0xff ) - ( rhs[ i ] & 0xff );
+
+            if( result != 0 )
+                return result;
+        }
+
+        return lhs.length - rhs.length;
+    }
+}
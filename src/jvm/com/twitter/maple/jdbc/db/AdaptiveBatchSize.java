@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package com.twitter.maple.jdbc.db;
+
+/**
+ * Chooses the number of statements {@link DBOutputFormat} batches before executing. <p/> The size
+ * grows additively while full batches execute within the target latency, and is halved when a
+ * batch is slower than the target or fails, always staying within the configured bounds. With a
+ * byte limit, the size is also kept to the number of statements of the average estimated size seen
+ * so far that fit in it.
+ */
+class AdaptiveBatchSize {
+    private final int minStatements;
+    private final int maxStatements;
+    private final int increment;
+    private final long targetMillis;
+    private final long maxBytes;
+
+    private int statements;
+    private long seenStatements = 0;
+    private long seenBytes = 0;
+
+    AdaptiveBatchSize(int initialStatements, int minStatements, int maxStatements, int increment,
+        long targetMillis, long maxBytes) {
+        if (minStatements < 1 || maxStatements < minStatements) {
+            throw new IllegalArgumentException(
+                "invalid batch bounds, min: " + minStatements + " max: " + maxStatements);
+        }
+
+        this.minStatements = minStatements;
+        this.maxStatements = maxStatements;
+        this.increment = Math.max(1, increment);
+        this.targetMillis = targetMillis;
+        this.maxBytes = maxBytes;
+        this.statements = clamp(initialStatements);
+    }
+
+    /** @return the number of statements to batch before executing */
+    int getStatements() {
+        return statements;
+    }
+
+    /**
+     * Adjusts the size after a batch executed successfully.
+     *
+     * @param batchStatements the number of statements in the batch
+     * @param batchBytes      the estimated bytes bound to the batch, 0 if unknown
+     * @param millis          the time taken to execute the batch statements
+     * @return the change in size, positive if grown, negative if shrunk
+     */
+    int succeeded(long batchStatements, long batchBytes, long millis) {
+        seenStatements += batchStatements;
+        seenBytes += batchBytes;
+
+        if (millis > targetMillis) { return resize(statements / 2); }
+
+        int fitting = getFittingStatements();
+
+        // shrink right away rather than let the byte limit cut every batch short
+        if (fitting < statements) { return resize(fitting); }
+
+        // partial batches, like the last one on close, say nothing about a larger size
+        if (batchStatements < statements) { return 0; }
+
+        return resize((int) Math.min(fitting, (long) statements + increment));
+    }
+
+    /**
+     * Adjusts the size after a batch failed to execute.
+     *
+     * @return the change in size, zero or negative
+     */
+    int failed() {
+        return resize(statements / 2);
+    }
+
+    /** @return the number of statements of the average size seen that fit in the byte limit */
+    private int getFittingStatements() {
+        if (maxBytes <= 0 || seenBytes == 0) { return maxStatements; }
+
+        return (int) Math.min(maxStatements, maxBytes * seenStatements / seenBytes);
+    }
+
+    private int resize(int size) {
+        int previous = statements;
+
+        statements = clamp(size);
+
+        return statements - previous;
+    }
+
+    private int clamp(int size) {
+        return Math.max(minStatements, Math.min(maxStatements, size));
+    }
+}
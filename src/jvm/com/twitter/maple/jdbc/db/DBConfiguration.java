@@ -30,11 +30,16 @@
 package com.twitter.maple.jdbc.db;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.ReflectionUtils;
 
+import java.io.File;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.Comparator;
+import java.util.UUID;
 
 /**
  * A container for configuration property names for jobs with DB input/output. <br> The job can be
@@ -86,6 +91,9 @@ public class DBConfiguration {
     /** Boolean to use ON DUPLICATE KEY UPDATE for INSERTs when outputting tuples to MySQL. */
     public static final String REPLACE_ON_INSERT = "mapred.jdbc.output.replace.on.insert";
 
+    /** {@link UpsertDialect} name used to generate a single INSERT-or-UPDATE statement per row */
+    public static final String UPSERT_DIALECT = "mapred.jdbc.output.upsert.dialect";
+
     /** Output table name */
     public static final String OUTPUT_TABLE_NAME_PROPERTY = "mapred.jdbc.output.table.name";
 
@@ -96,9 +104,86 @@ public class DBConfiguration {
     public static final String OUTPUT_UPDATE_FIELD_NAMES_PROPERTY =
         "mapred.jdbc.output.update.field.names";
 
+    /**
+     * Output table names, in foreign key order, when writing to several tables. Their field names are
+     * set in the field name properties suffixed with the table index, like {@code .0}
+     */
+    public static final String OUTPUT_TABLE_NAMES_PROPERTY = "mapred.jdbc.output.table.names";
+
     /** The number of statements to batch before executing */
     public static final String BATCH_STATEMENTS_PROPERTY = "mapred.jdbc.batch.statements.num";
 
+    /** The estimated number of bytes bound to a batch before it is executed early, 0 for no limit */
+    public static final String BATCH_MAX_BYTES_PROPERTY = "mapred.jdbc.batch.bytes.max";
+
+    /** Boolean to grow and shrink the batch size based on measured batch execution time */
+    public static final String BATCH_ADAPTIVE_PROPERTY = "mapred.jdbc.batch.adaptive";
+
+    /** The smallest number of statements an adaptive batch may shrink to */
+    public static final String BATCH_MIN_STATEMENTS_PROPERTY = "mapred.jdbc.batch.statements.min";
+
+    /** The largest number of statements an adaptive batch may grow to */
+    public static final String BATCH_MAX_STATEMENTS_PROPERTY = "mapred.jdbc.batch.statements.max";
+
+    /** The number of statements an adaptive batch grows by after each fast, full batch */
+    public static final String BATCH_INCREMENT_PROPERTY = "mapred.jdbc.batch.statements.increment";
+
+    /** The batch execution time in milliseconds above which an adaptive batch shrinks */
+    public static final String BATCH_TARGET_MILLIS_PROPERTY = "mapred.jdbc.batch.target.millis";
+
+    /** The number of times a batch failing with a transient error is rolled back and replayed */
+    public static final String RETRY_MAX_PROPERTY = "mapred.jdbc.output.retry.max";
+
+    /** The milliseconds to back off before the first replay, doubling with every further attempt */
+    public static final String RETRY_BACKOFF_MILLIS_PROPERTY = "mapred.jdbc.output.retry.backoff.millis";
+
+    /** The longest back off in milliseconds between replays */
+    public static final String RETRY_MAX_BACKOFF_MILLIS_PROPERTY =
+        "mapred.jdbc.output.retry.backoff.max.millis";
+
+    /** SQLState classes or codes, comma separated, of the errors considered transient */
+    public static final String RETRY_SQL_STATES_PROPERTY = "mapred.jdbc.output.retry.sqlstates";
+
+    /** Directory rows failing to write are isolated into, instead of failing the task */
+    public static final String OUTPUT_REJECT_PATH_PROPERTY = "mapred.jdbc.output.reject.path";
+
+    /** The number of rows a task may reject before it fails, -1 for no limit */
+    public static final String OUTPUT_MAX_REJECTS_PROPERTY = "mapred.jdbc.output.reject.max";
+
+    /** Comparator class ordering output records by key, used to sort and deduplicate them */
+    public static final String OUTPUT_KEY_COMPARATOR_CLASS_PROPERTY =
+        "mapred.jdbc.output.key.comparator.class";
+
+    /** Boolean to buffer and write records in key order */
+    public static final String OUTPUT_SORT_PROPERTY = "mapred.jdbc.output.sort";
+
+    /** Column holding a hash of the written values, rows are only updated if it changed */
+    public static final String OUTPUT_HASH_COLUMN_PROPERTY = "mapred.jdbc.output.hash.column";
+
+    /** Boolean to prepare a statement deleting rows by the output update field names */
+    public static final String OUTPUT_DELETE_PROPERTY = "mapred.jdbc.output.delete";
+
+    /** Boolean to only write the last record of each key in a batch */
+    public static final String OUTPUT_DEDUPLICATE_PROPERTY = "mapred.jdbc.output.deduplicate";
+
+    /** The number of records buffered for sorting before they are spilled to local disk */
+    public static final String OUTPUT_SORT_BUFFER_RECORDS_PROPERTY = "mapred.jdbc.output.sort.buffer.records";
+
+    /** The estimated bytes buffered for sorting before they are spilled to local disk, 0 for no limit */
+    public static final String OUTPUT_SORT_BUFFER_BYTES_PROPERTY = "mapred.jdbc.output.sort.buffer.bytes";
+
+    /** The rows per second all output tasks together may write, 0 for no limit */
+    public static final String OUTPUT_RATE_ROWS_PROPERTY = "mapred.jdbc.output.rate.rows";
+
+    /** The estimated bytes per second all output tasks together may write, 0 for no limit */
+    public static final String OUTPUT_RATE_BYTES_PROPERTY = "mapred.jdbc.output.rate.bytes";
+
+    /** The number of output tasks sharing the rate, defaults to the number of reduce, or map, tasks */
+    public static final String OUTPUT_RATE_TASKS_PROPERTY = "mapred.jdbc.output.rate.tasks";
+
+    /** Table the attempts committing their output are marked completed in, see {@link DBOutputCommitter} */
+    public static final String OUTPUT_ATTEMPTS_TABLE_PROPERTY = "mapred.jdbc.output.attempts.table";
+
     /** The number of splits allowed, becomes max concurrent reads. */
     public static final String CONCURRENT_READS_PROPERTY = "mapred.jdbc.concurrent.reads.num";
 
@@ -216,6 +301,16 @@ public class DBConfiguration {
       job.setBoolean(DBConfiguration.REPLACE_ON_INSERT, replaceOnInsert);
     }
 
+    UpsertDialect getUpsertDialect() {
+        String dialect = job.get(DBConfiguration.UPSERT_DIALECT);
+
+        return dialect == null ? null : UpsertDialect.valueOf(dialect);
+    }
+
+    void setUpsertDialect(UpsertDialect upsertDialect) {
+        job.set(DBConfiguration.UPSERT_DIALECT, upsertDialect.name());
+    }
+
     String getInputQuery() {
         return job.get(DBConfiguration.INPUT_QUERY);
     }
@@ -275,6 +370,30 @@ public class DBConfiguration {
         job.setStrings(DBConfiguration.OUTPUT_UPDATE_FIELD_NAMES_PROPERTY, fieldNames);
     }
 
+    String[] getOutputTableNames() {
+        return job.getStrings(DBConfiguration.OUTPUT_TABLE_NAMES_PROPERTY);
+    }
+
+    void setOutputTableNames(String... tableNames) {
+        job.setStrings(DBConfiguration.OUTPUT_TABLE_NAMES_PROPERTY, tableNames);
+    }
+
+    String[] getOutputFieldNames(int table) {
+        return job.getStrings(DBConfiguration.OUTPUT_FIELD_NAMES_PROPERTY + "." + table);
+    }
+
+    void setOutputFieldNames(int table, String... fieldNames) {
+        job.setStrings(DBConfiguration.OUTPUT_FIELD_NAMES_PROPERTY + "." + table, fieldNames);
+    }
+
+    String[] getOutputUpdateFieldNames(int table) {
+        return job.getStrings(DBConfiguration.OUTPUT_UPDATE_FIELD_NAMES_PROPERTY + "." + table);
+    }
+
+    void setOutputUpdateFieldNames(int table, String... fieldNames) {
+        job.setStrings(DBConfiguration.OUTPUT_UPDATE_FIELD_NAMES_PROPERTY + "." + table, fieldNames);
+    }
+
     int getBatchStatementsNum() {
         return job.getInt(DBConfiguration.BATCH_STATEMENTS_PROPERTY, 1000);
     }
@@ -283,6 +402,218 @@ public class DBConfiguration {
         job.setInt(DBConfiguration.BATCH_STATEMENTS_PROPERTY, batchStatementsNum);
     }
 
+    long getBatchMaxBytes() {
+        return job.getLong(DBConfiguration.BATCH_MAX_BYTES_PROPERTY, 0);
+    }
+
+    void setBatchMaxBytes(long maxBytes) {
+        job.setLong(DBConfiguration.BATCH_MAX_BYTES_PROPERTY, maxBytes);
+    }
+
+    boolean getBatchAdaptive() {
+        return job.getBoolean(DBConfiguration.BATCH_ADAPTIVE_PROPERTY, false);
+    }
+
+    void setBatchAdaptive(boolean adaptive) {
+        job.setBoolean(DBConfiguration.BATCH_ADAPTIVE_PROPERTY, adaptive);
+    }
+
+    int getBatchMinStatementsNum() {
+        return job.getInt(DBConfiguration.BATCH_MIN_STATEMENTS_PROPERTY, 10);
+    }
+
+    int getBatchMaxStatementsNum() {
+        return job.getInt(DBConfiguration.BATCH_MAX_STATEMENTS_PROPERTY, 10000);
+    }
+
+    int getBatchIncrementNum() {
+        return job.getInt(DBConfiguration.BATCH_INCREMENT_PROPERTY, 100);
+    }
+
+    long getBatchTargetMillis() {
+        return job.getLong(DBConfiguration.BATCH_TARGET_MILLIS_PROPERTY, 1000);
+    }
+
+    void setBatchBounds(int minStatements, int maxStatements, long targetMillis) {
+        job.setInt(DBConfiguration.BATCH_MIN_STATEMENTS_PROPERTY, minStatements);
+        job.setInt(DBConfiguration.BATCH_MAX_STATEMENTS_PROPERTY, maxStatements);
+        job.setLong(DBConfiguration.BATCH_TARGET_MILLIS_PROPERTY, targetMillis);
+    }
+
+    long getOutputRateRows() {
+        return job.getLong(DBConfiguration.OUTPUT_RATE_ROWS_PROPERTY, 0);
+    }
+
+    long getOutputRateBytes() {
+        return job.getLong(DBConfiguration.OUTPUT_RATE_BYTES_PROPERTY, 0);
+    }
+
+    void setOutputRate(long rowsPerSecond, long bytesPerSecond) {
+        job.setLong(DBConfiguration.OUTPUT_RATE_ROWS_PROPERTY, rowsPerSecond);
+        job.setLong(DBConfiguration.OUTPUT_RATE_BYTES_PROPERTY, bytesPerSecond);
+    }
+
+    /**
+     * Returns the number of tasks the output rate is divided between, the reduce tasks if the job
+     * has any, as they are the ones writing, or else the map tasks.
+     */
+    int getOutputRateTasks() {
+        int tasks = job.getInt(DBConfiguration.OUTPUT_RATE_TASKS_PROPERTY, 0);
+
+        if (tasks <= 0) { tasks = job.getInt("mapred.reduce.tasks", 1); }
+
+        if (tasks <= 0) { tasks = job.getInt("mapred.map.tasks", 1); }
+
+        return Math.max(1, tasks);
+    }
+
+    void setOutputRateTasks(int tasks) {
+        job.setInt(DBConfiguration.OUTPUT_RATE_TASKS_PROPERTY, tasks);
+    }
+
+    int getRetryMax() {
+        return job.getInt(DBConfiguration.RETRY_MAX_PROPERTY, 0);
+    }
+
+    void setRetryMax(int retryMax) {
+        job.setInt(DBConfiguration.RETRY_MAX_PROPERTY, retryMax);
+    }
+
+    long getRetryBackoffMillis() {
+        return job.getLong(DBConfiguration.RETRY_BACKOFF_MILLIS_PROPERTY, 100);
+    }
+
+    void setRetryBackoffMillis(long backoffMillis) {
+        job.setLong(DBConfiguration.RETRY_BACKOFF_MILLIS_PROPERTY, backoffMillis);
+    }
+
+    long getRetryMaxBackoffMillis() {
+        return job.getLong(DBConfiguration.RETRY_MAX_BACKOFF_MILLIS_PROPERTY, 10000);
+    }
+
+    /**
+     * Defaults to transaction rollbacks (class 40, serialization failures and deadlocks), MySQL
+     * lock wait timeouts (class 41) and PostgreSQL lock timeouts (55P03).
+     */
+    String[] getRetrySqlStates() {
+        return job.getStrings(DBConfiguration.RETRY_SQL_STATES_PROPERTY, "40", "41", "55P03");
+    }
+
+    void setRetrySqlStates(String... sqlStates) {
+        job.setStrings(DBConfiguration.RETRY_SQL_STATES_PROPERTY, sqlStates);
+    }
+
+    String getRejectPath() {
+        return job.get(DBConfiguration.OUTPUT_REJECT_PATH_PROPERTY);
+    }
+
+    /**
+     * Returns a sink for rejected rows writing to a file named after the current task attempt in
+     * the configured reject directory, or null if no directory is configured.
+     */
+    RejectSink getRejectSink() {
+        String rejectPath = getRejectPath();
+
+        if (rejectPath == null) { return null; }
+
+        String attemptId = job.get("mapred.task.id");
+        String fileName = "rejects-" + (attemptId != null ? attemptId : UUID.randomUUID().toString());
+
+        return new RejectSink(job, new Path(rejectPath, fileName),
+            job.getLong(DBConfiguration.OUTPUT_MAX_REJECTS_PROPERTY, -1));
+    }
+
+    void setRejectPath(String rejectPath, long maxRejects) {
+        job.set(DBConfiguration.OUTPUT_REJECT_PATH_PROPERTY, rejectPath);
+        job.setLong(DBConfiguration.OUTPUT_MAX_REJECTS_PROPERTY, maxRejects);
+    }
+
+    @SuppressWarnings("unchecked")
+    <K> Comparator<K> getOutputKeyComparator() {
+        Class<? extends Comparator<?>> comparatorClass = (Class<? extends Comparator<?>>)
+            job.getClass(DBConfiguration.OUTPUT_KEY_COMPARATOR_CLASS_PROPERTY, null, Comparator.class);
+
+        if (comparatorClass == null) {
+            throw new IllegalStateException(
+                "no output key comparator set in: " + DBConfiguration.OUTPUT_KEY_COMPARATOR_CLASS_PROPERTY);
+        }
+
+        return (Comparator<K>) ReflectionUtils.newInstance(comparatorClass, job);
+    }
+
+    void setOutputKeyComparator(Class<? extends Comparator<?>> comparatorClass) {
+        job.setClass(DBConfiguration.OUTPUT_KEY_COMPARATOR_CLASS_PROPERTY, comparatorClass, Comparator.class);
+    }
+
+    boolean getOutputSort() {
+        return job.getBoolean(DBConfiguration.OUTPUT_SORT_PROPERTY, false);
+    }
+
+    void setOutputSort(boolean sort) {
+        job.setBoolean(DBConfiguration.OUTPUT_SORT_PROPERTY, sort);
+    }
+
+    String getOutputHashColumn() {
+        return job.get(DBConfiguration.OUTPUT_HASH_COLUMN_PROPERTY);
+    }
+
+    void setOutputHashColumn(String hashColumn) {
+        job.set(DBConfiguration.OUTPUT_HASH_COLUMN_PROPERTY, hashColumn);
+    }
+
+    String getOutputAttemptsTable() {
+        return job.get(DBConfiguration.OUTPUT_ATTEMPTS_TABLE_PROPERTY);
+    }
+
+    void setOutputAttemptsTable(String attemptsTable) {
+        job.set(DBConfiguration.OUTPUT_ATTEMPTS_TABLE_PROPERTY, attemptsTable);
+    }
+
+    boolean getOutputDelete() {
+        return job.getBoolean(DBConfiguration.OUTPUT_DELETE_PROPERTY, false);
+    }
+
+    void setOutputDelete(boolean delete) {
+        job.setBoolean(DBConfiguration.OUTPUT_DELETE_PROPERTY, delete);
+    }
+
+    boolean getOutputDeduplicate() {
+        return job.getBoolean(DBConfiguration.OUTPUT_DEDUPLICATE_PROPERTY, false);
+    }
+
+    void setOutputDeduplicate(boolean deduplicate) {
+        job.setBoolean(DBConfiguration.OUTPUT_DEDUPLICATE_PROPERTY, deduplicate);
+    }
+
+    int getOutputSortBufferRecords() {
+        return job.getInt(DBConfiguration.OUTPUT_SORT_BUFFER_RECORDS_PROPERTY, 100000);
+    }
+
+    long getOutputSortBufferBytes() {
+        return job.getLong(DBConfiguration.OUTPUT_SORT_BUFFER_BYTES_PROPERTY, 64 * 1024 * 1024);
+    }
+
+    /**
+     * Returns a directory of the task attempt, under the local directories of the task tracker,
+     * to spill sorted records to. The task tracker cleans those up once the attempt is done.
+     */
+    File getOutputSortDirectory() throws IOException {
+        String attempt = job.get("mapred.task.id", "client-" + UUID.randomUUID());
+        Path path = job.getLocalPath("mapred.local.dir", "jdbc-sort/" + attempt);
+        File directory = new File(path.toUri().getPath());
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("unable to create sort directory: " + directory);
+        }
+
+        return directory;
+    }
+
+    void setOutputSortBuffer(int records, long bytes) {
+        job.setInt(DBConfiguration.OUTPUT_SORT_BUFFER_RECORDS_PROPERTY, records);
+        job.setLong(DBConfiguration.OUTPUT_SORT_BUFFER_BYTES_PROPERTY, bytes);
+    }
+
     int getMaxConcurrentReadsNum() {
         return job.getInt(DBConfiguration.CONCURRENT_READS_PROPERTY, 0);
     }
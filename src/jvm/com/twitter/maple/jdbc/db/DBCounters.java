@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package com.twitter.maple.jdbc.db;
+
+/**
+ * Hadoop counters reported by {@link DBOutputFormat} and {@link DBInputFormat} through the task {@link
+ * org.apache.hadoop.mapred.Reporter}. Latency histograms are reported alongside, in the {@link
+ * #BATCH_LATENCY_GROUP}, {@link #COMMIT_LATENCY_GROUP} and {@link #SELECT_LATENCY_GROUP} groups.
+ */
+public enum DBCounters {
+    /** Number of rows written by insert, or upsert, statements */
+    INSERTED_ROWS,
+    /** Number of rows written by update statements, including those left unchanged */
+    UPDATED_ROWS,
+    /** Number of batches executed */
+    BATCHES,
+    /** Estimated bytes bound to executed batches, only counted for {@link SizedDBWritable} keys */
+    BOUND_BYTES,
+    /** Milliseconds spent executing batches, divide by BATCHES for the mean */
+    BATCH_MILLIS,
+    /** Number of commits */
+    COMMITS,
+    /** Milliseconds spent committing, divide by COMMITS for the mean */
+    COMMIT_MILLIS,
+    /** Number of rows read */
+    READ_ROWS,
+    /** Milliseconds spent executing select queries until their first row is available */
+    SELECT_MILLIS,
+    /** Number of batches executed with an adaptive batch size */
+    ADAPTIVE_BATCHES,
+    /** Sum of the adaptive batch size chosen for each batch, divide by ADAPTIVE_BATCHES for the mean */
+    ADAPTIVE_BATCH_SIZE_TOTAL,
+    /** Number of times the adaptive batch size grew */
+    ADAPTIVE_BATCH_SIZE_INCREASES,
+    /** Number of times the adaptive batch size shrunk */
+    ADAPTIVE_BATCH_SIZE_DECREASES,
+    /** Adaptive batch size in effect when each writer closed, summed across tasks */
+    ADAPTIVE_BATCH_SIZE_FINAL,
+    /** Number of batches executed early because they reached the byte limit */
+    BYTE_LIMITED_BATCHES,
+    /** Number of times a batch was rolled back and replayed after a transient error */
+    RETRIES,
+    /** Number of rows isolated from failed batches and written to the reject path */
+    REJECTED_ROWS,
+    /** Number of sorted runs spilled to local disk before being written in key order */
+    SORT_SPILLS,
+    /** Number of records dropped because a later record in the same batch had the same key */
+    DEDUPLICATED_ROWS,
+    /** Number of batches executed early to keep writes of the same key in order */
+    ORDER_LIMITED_BATCHES,
+    /** Number of rows left untouched because their content hash did not change */
+    UNCHANGED_ROWS,
+    /** Number of rows deleted by tombstone records */
+    DELETED_ROWS,
+    /** Milliseconds writers waited to stay within the output rate limit */
+    THROTTLED_MILLIS;
+
+    /** Counter group of the batch execution time histogram, one counter per latency bucket */
+    public static final String BATCH_LATENCY_GROUP = "JDBC batch latency";
+    /** Counter group of the commit time histogram, one counter per latency bucket */
+    public static final String COMMIT_LATENCY_GROUP = "JDBC commit latency";
+    /** Counter group of the select query time histogram, one counter per latency bucket */
+    public static final String SELECT_LATENCY_GROUP = "JDBC select latency";
+}
@@ -61,6 +61,7 @@ public class DBInputFormat<T extends DBWritable>
         private Class<T> inputClass;
         private JobConf job;
         private DBInputSplit split;
+        private Reporter reporter = Reporter.NULL;
         private long pos = 0;
 
         /**
@@ -69,9 +70,20 @@ public class DBInputFormat<T extends DBWritable>
          */
         protected DBRecordReader(DBInputSplit split, Class<T> inputClass, JobConf job)
             throws SQLException, IOException {
+            this(split, inputClass, job, Reporter.NULL);
+        }
+
+        /**
+         * @param split    The InputSplit to read data for
+         * @param reporter the reporter rows read and select latency are counted with
+         * @throws SQLException
+         */
+        protected DBRecordReader(DBInputSplit split, Class<T> inputClass, JobConf job,
+            Reporter reporter) throws SQLException, IOException {
             this.inputClass = inputClass;
             this.split = split;
             this.job = job;
+            this.reporter = reporter;
 
             statement =
                 connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
@@ -80,8 +92,22 @@ public class DBInputFormat<T extends DBWritable>
             String query = getSelectQuery();
             try {
                 LOG.info(query);
+
+                long startTime = System.currentTimeMillis();
+
                 results = statement.executeQuery(query);
-                LOG.info("done executing select query");
+
+                long selectMillis = System.currentTimeMillis() - startTime;
+
+                LatencyHistogram selectLatency =
+                    new LatencyHistogram(DBCounters.SELECT_LATENCY_GROUP);
+
+                selectLatency.add(selectMillis);
+                selectLatency.publish(reporter);
+
+                reporter.incrCounter(DBCounters.SELECT_MILLIS, selectMillis);
+
+                LOG.info("done executing select query in " + selectMillis + "ms");
             } catch (SQLException exception) {
                 LOG.error("unable to execute select query: " + query, exception);
                 throw new IOException("unable to execute select query: " + query, exception);
@@ -139,6 +165,8 @@ public class DBInputFormat<T extends DBWritable>
 
         /** {@inheritDoc} */
         public void close() throws IOException {
+            reporter.incrCounter(DBCounters.READ_ROWS, pos);
+
             try {
                 connection.commit();
                 results.close();
@@ -324,7 +352,8 @@ public class DBInputFormat<T extends DBWritable>
         Reporter reporter) throws IOException {
         Class inputClass = dbConf.getInputClass();
         try {
-            return new DBRecordReader((DBInputSplit) split, inputClass, job);
+            return new DBRecordReader((DBInputSplit) split, inputClass, job,
+                reporter != null ? reporter : Reporter.NULL);
         } catch (SQLException exception) {
             throw new IOException(exception.getMessage(), exception);
         }
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package com.twitter.maple.jdbc.db;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.mapred.JobContext;
+import org.apache.hadoop.mapred.OutputCommitter;
+import org.apache.hadoop.mapred.TaskAttemptContext;
+
+/**
+ * Marks a task attempt as completed in the attempts table set with {@link
+ * DBOutputFormat#setStagedOutput(org.apache.hadoop.mapred.JobConf, String)} once Hadoop lets it
+ * commit. Hadoop only lets one attempt of each task commit, so of several speculative attempts
+ * only the one whose output counts is marked, even if the others closed their writers first.
+ */
+public class DBOutputCommitter extends OutputCommitter {
+    private static final Log LOG = LogFactory.getLog(DBOutputCommitter.class);
+
+    /** {@inheritDoc} */
+    public void setupJob(JobContext context) throws IOException {
+    }
+
+    /** {@inheritDoc} */
+    public void cleanupJob(JobContext context) throws IOException {
+    }
+
+    /** {@inheritDoc} */
+    public void setupTask(TaskAttemptContext context) throws IOException {
+    }
+
+    /**
+     * Only attempts that registered a staging table need committing. In a job with a reduce phase
+     * the map attempts go through the committer too, without ever writing to the database.
+     */
+    public boolean needsTaskCommit(TaskAttemptContext context) throws IOException {
+        DBConfiguration dbConf = new DBConfiguration(context.getJobConf());
+        String attemptsTable = dbConf.getOutputAttemptsTable();
+
+        if (attemptsTable == null) { return false; }
+
+        String attempt = context.getTaskAttemptID().toString();
+        Connection connection = dbConf.getConnection();
+
+        try {
+            Statement statement = connection.createStatement();
+
+            try {
+                ResultSet results = statement.executeQuery(String.format(
+                    "SELECT count(*) FROM %s WHERE attempt_id = '%s'", attemptsTable, attempt));
+
+                return results.next() && results.getInt(1) > 0;
+            } finally {
+                statement.close();
+            }
+        } catch (SQLException exception) {
+            throw new IOException("unable to look up attempt: " + attempt + " in: " + attemptsTable, exception);
+        } finally {
+            try {
+                connection.close();
+            } catch (SQLException exception) {
+                LOG.warn("unable to close connection", exception);
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void commitTask(TaskAttemptContext context) throws IOException {
+        DBConfiguration dbConf = new DBConfiguration(context.getJobConf());
+        String attemptsTable = dbConf.getOutputAttemptsTable();
+        String attempt = context.getTaskAttemptID().toString();
+
+        LOG.info("marking attempt: " + attempt + " completed in: " + attemptsTable);
+
+        Connection connection = dbConf.getConnection();
+
+        try {
+            Statement statement = connection.createStatement();
+
+            try {
+                int updated = statement.executeUpdate(String.format(
+                    "UPDATE %s SET completed = 1 WHERE attempt_id = '%s'", attemptsTable, attempt));
+
+                if (updated != 1) {
+                    throw new IOException("attempt: " + attempt + " not registered in: " + attemptsTable);
+                }
+            } finally {
+                statement.close();
+            }
+
+            if (!connection.getAutoCommit()) { connection.commit(); }
+        } catch (SQLException exception) {
+            throw new IOException("unable to mark attempt: " + attempt + " completed", exception);
+        } finally {
+            try {
+                connection.close();
+            } catch (SQLException exception) {
+                LOG.warn("unable to close connection", exception);
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void abortTask(TaskAttemptContext context) throws IOException {
+        // never marked, so its staging table is dropped without being merged
+    }
+}
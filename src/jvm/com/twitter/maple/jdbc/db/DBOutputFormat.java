@@ -43,9 +43,15 @@ import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 /**
  * A OutputFormat that sends the reduce output to a SQL table. <p/> {@link DBOutputFormat} accepts
@@ -55,16 +61,56 @@ import java.util.Set;
 public class DBOutputFormat<K extends DBWritable, V> implements OutputFormat<K, V> {
     private static final Log LOG = LogFactory.getLog(DBOutputFormat.class);
 
+    /** SQLState of an update matching no row */
+    private static final String NO_DATA = "02000";
+
+    /** A record waiting for its batch to be bound, with the operation it is written with */
+    private static class PendingWrite<K> {
+        private final K record;
+        private final WriteOperation operation;
+
+        private PendingWrite(K record, WriteOperation operation) {
+            this.record = record;
+            this.operation = operation;
+        }
+    }
+
     /** A RecordWriter that writes the reduce output to a SQL table */
     protected class DBRecordWriter implements RecordWriter<K, V> {
         private Connection connection;
         private PreparedStatement insertStatement;
         private PreparedStatement updateStatement;
-        private final int statementsBeforeExecute;
+        private PreparedStatement deleteStatement;
+        private int statementsBeforeExecute;
+        private long bytesBeforeExecute = 0;
+        private AdaptiveBatchSize adaptiveBatchSize;
+        private Reporter reporter = Reporter.NULL;
+        private RetryPolicy retryPolicy;
+        private RejectSink rejectSink;
+        private boolean commitEachBatch = false;
+        private boolean skipUnchanged = false;
+        private boolean coordinated = false;
+        private RecordSorter<K> recordSorter;
+        private RateLimiter rowRateLimiter;
+        private RateLimiter byteRateLimiter;
+        private final LatencyHistogram batchLatency =
+            new LatencyHistogram(DBCounters.BATCH_LATENCY_GROUP);
+        private final LatencyHistogram commitLatency =
+            new LatencyHistogram(DBCounters.COMMIT_LATENCY_GROUP);
+        private Map<K, PendingWrite<K>> pending;
+        private boolean collapseInserts = false;
+
+        private final List<K> insertRecords = new ArrayList<K>();
+        private final List<K> updateRecords = new ArrayList<K>();
+        private final List<K> deleteRecords = new ArrayList<K>();
 
         private long statementsAdded = 0;
         private long insertStatementsCurrent = 0;
         private long updateStatementsCurrent = 0;
+        private long deleteStatementsCurrent = 0;
+        private long bytesCurrent = 0;
+        private long executeMillis = 0;
+        private long rejectedCurrent = 0;
 
         protected DBRecordWriter(Connection connection, PreparedStatement insertStatement,
             PreparedStatement updateStatement, int statementsBeforeExecute) {
@@ -74,68 +120,497 @@ public class DBOutputFormat<K extends DBWritable, V> implements OutputFormat<K,
             this.statementsBeforeExecute = statementsBeforeExecute;
         }
 
+        protected DBRecordWriter(Connection connection, PreparedStatement insertStatement,
+            PreparedStatement updateStatement, DBConfiguration dbConf, Reporter reporter)
+            throws IOException {
+            this(connection, insertStatement, updateStatement, null, dbConf, reporter);
+        }
+
+        protected DBRecordWriter(Connection connection, PreparedStatement insertStatement,
+            PreparedStatement updateStatement, PreparedStatement deleteStatement,
+            DBConfiguration dbConf, Reporter reporter) throws IOException {
+            this(connection, insertStatement, updateStatement, dbConf.getBatchStatementsNum());
+            this.deleteStatement = deleteStatement;
+            this.reporter = reporter;
+            this.bytesBeforeExecute = dbConf.getBatchMaxBytes();
+
+            if (dbConf.getBatchAdaptive()) {
+                adaptiveBatchSize = new AdaptiveBatchSize(statementsBeforeExecute,
+                    dbConf.getBatchMinStatementsNum(), dbConf.getBatchMaxStatementsNum(),
+                    dbConf.getBatchIncrementNum(), dbConf.getBatchTargetMillis(),
+                    bytesBeforeExecute);
+                statementsBeforeExecute = adaptiveBatchSize.getStatements();
+            }
+
+            if (dbConf.getRetryMax() > 0) {
+                retryPolicy = new RetryPolicy(dbConf.getRetryMax(), dbConf.getRetryBackoffMillis(),
+                    dbConf.getRetryMaxBackoffMillis(), dbConf.getRetrySqlStates());
+            }
+
+            rejectSink = dbConf.getRejectSink();
+
+            // a rollback discards everything since the last commit, so a batch can only be
+            // replayed or bisected on its own if every batch is committed on its own
+            commitEachBatch = retryPolicy != null || rejectSink != null;
+            skipUnchanged = dbConf.getOutputHashColumn() != null;
+
+            // every task gets an equal share of the global rate
+            int rateTasks = dbConf.getOutputRateTasks();
+
+            if (dbConf.getOutputRateRows() > 0) {
+                rowRateLimiter = new RateLimiter((double) dbConf.getOutputRateRows() / rateTasks);
+            }
+
+            if (dbConf.getOutputRateBytes() > 0) {
+                byteRateLimiter = new RateLimiter((double) dbConf.getOutputRateBytes() / rateTasks);
+            }
+
+            if (dbConf.getOutputSort()) {
+                recordSorter = new RecordSorter<K>(dbConf.<K>getOutputKeyComparator(),
+                    dbConf.getOutputSortBufferRecords(), dbConf.getOutputSortBufferBytes(),
+                    dbConf.getOutputSortDirectory());
+            }
+
+            if (dbConf.getOutputDeduplicate()) {
+                pending = new TreeMap<K, PendingWrite<K>>(dbConf.<K>getOutputKeyComparator());
+
+                // plain inserts carry no key, only upserts can be collapsed
+                collapseInserts = dbConf.getUpsertDialect() != null;
+            }
+        }
+
         /** {@inheritDoc} */
         public void close(Reporter reporter) throws IOException {
+            if (recordSorter != null) { drainSorted(); }
+
             executeBatch();
 
+            if (adaptiveBatchSize != null) {
+                this.reporter.incrCounter(DBCounters.ADAPTIVE_BATCH_SIZE_FINAL,
+                    adaptiveBatchSize.getStatements());
+            }
+
             try {
                 if (insertStatement != null) { insertStatement.close(); }
 
                 if (updateStatement != null) { updateStatement.close(); }
 
-                connection.commit();
+                if (deleteStatement != null) { deleteStatement.close(); }
+
+                commit();
             } catch (SQLException exception) {
                 rollBack();
 
                 createThrowMessage("unable to commit batch", 0, exception);
             } finally {
+                publishLatencies();
+
                 try {
                     connection.close();
                 } catch (SQLException exception) {
                     throw new IOException("unable to close connection", exception);
+                } finally {
+                    if (rejectSink != null) { rejectSink.close(); }
                 }
             }
         }
 
+        private void drainSorted() throws IOException {
+            this.reporter.incrCounter(DBCounters.SORT_SPILLS, recordSorter.getSpillCount());
+
+            try {
+                recordSorter.drain(new RecordSorter.RecordCollector<K>() {
+                    public void collect(K record, WriteOperation operation) throws IOException {
+                        addStatement(record, operation);
+                    }
+                });
+            } finally {
+                recordSorter.close();
+            }
+        }
+
         private void executeBatch() throws IOException {
+            bindPending();
+
+            long batchStatements = getStatementsCurrent();
+            long batchBytes = bytesCurrent;
+
+            throttle(batchStatements, batchBytes);
+
+            long startTime = System.currentTimeMillis();
+
+            try {
+                executeStatements();
+            } catch (IOException exception) {
+                if (adaptiveBatchSize != null) { adapt(adaptiveBatchSize.failed()); }
+
+                throw exception;
+            }
+
+            bytesCurrent = 0;
+
+            if (batchStatements != 0) {
+                long batchMillis = System.currentTimeMillis() - startTime;
+
+                batchLatency.add(batchMillis);
+
+                reporter.incrCounter(DBCounters.BATCHES, 1);
+                reporter.incrCounter(DBCounters.BATCH_MILLIS, batchMillis);
+                reporter.incrCounter(DBCounters.BOUND_BYTES, batchBytes);
+            }
+
+            if (adaptiveBatchSize != null && batchStatements != 0) {
+                reporter.incrCounter(DBCounters.ADAPTIVE_BATCHES, 1);
+                reporter.incrCounter(DBCounters.ADAPTIVE_BATCH_SIZE_TOTAL, statementsBeforeExecute);
+
+                // only the statements themselves, not back offs or commits, tell if the size fits
+                adapt(adaptiveBatchSize.succeeded(batchStatements, batchBytes, executeMillis));
+            }
+        }
+
+        private void throttle(long statements, long bytes) throws IOException {
+            if (statements == 0) { return; }
+
             try {
-                if (insertStatementsCurrent != 0) {
-                    LOG.info(
-                        "executing insert batch " + createBatchMessage(insertStatementsCurrent));
+                long waited = 0;
+
+                if (rowRateLimiter != null) { waited += rowRateLimiter.acquire(statements); }
+
+                if (byteRateLimiter != null) { waited += byteRateLimiter.acquire(bytes); }
+
+                reporter.incrCounter(DBCounters.THROTTLED_MILLIS, waited);
+            } catch (InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+
+                throw new IOException("interrupted while waiting for the output rate limit");
+            }
+        }
+
+        private void adapt(int change) {
+            if (change == 0) { return; }
+
+            reporter.incrCounter(change > 0 ? DBCounters.ADAPTIVE_BATCH_SIZE_INCREASES
+                : DBCounters.ADAPTIVE_BATCH_SIZE_DECREASES, 1);
 
-                    insertStatement.executeBatch();
+            statementsBeforeExecute = adaptiveBatchSize.getStatements();
+
+            LOG.info("adapted batch size to: " + statementsBeforeExecute);
+        }
+
+        private void executeStatements() throws IOException {
+            long unchanged = 0;
+            long deleted = 0;
+
+            for (int attempt = 0; ; attempt++) {
+                String stateMessage = "unable to execute insert batch";
+                long currentStatements = insertStatementsCurrent;
+
+                unchanged = 0;
+                deleted = 0;
+                executeMillis = 0;
+
+                try {
+                    if (insertStatementsCurrent != 0) {
+                        LOG.info(
+                            "executing insert batch " + createBatchMessage(insertStatementsCurrent));
+
+                        int[] result = execute(insertStatement);
+
+                        // upserts skipping an unchanged row report no row affected
+                        if (skipUnchanged) { unchanged += countUnchanged(result); }
+                    }
+
+                    stateMessage = "unable to execute update batch";
+                    currentStatements = updateStatementsCurrent;
+
+                    if (updateStatementsCurrent != 0) {
+                        LOG.info(
+                            "executing update batch " + createBatchMessage(updateStatementsCurrent));
+
+                        int[] result = execute(updateStatement);
+
+                        int count = 0;
+
+                        for (int value : result) { count += value; }
+
+                        // an update not matching any row cannot be told from an unchanged one
+                        if (skipUnchanged) {
+                            unchanged += countUnchanged(result);
+                        } else if (count != updateStatementsCurrent) {
+                            String message =
+                                "update did not update same number of statements executed in batch, batch: "
+                                + updateStatementsCurrent + " updated: " + count;
+
+                            // let bisection find the updates not matching any row
+                            if (rejectSink != null) { throw new SQLException(message, NO_DATA); }
+
+                            throw new IOException(message);
+                        }
+                    }
+
+                    stateMessage = "unable to execute delete batch";
+                    currentStatements = deleteStatementsCurrent;
+
+                    // a tombstone of a row already gone is not an error
+                    if (deleteStatementsCurrent != 0) {
+                        LOG.info(
+                            "executing delete batch " + createBatchMessage(deleteStatementsCurrent));
+
+                        deleted = countAffected(execute(deleteStatement));
+                    }
+
+                    boolean executed = getStatementsCurrent() != 0;
+
+                    if (commitEachBatch && executed) {
+                        stateMessage = "unable to commit batch";
+                        commit();
+                    }
+
+                    countWritten(WriteOperation.INSERT, insertStatementsCurrent);
+                    countWritten(WriteOperation.UPDATE, updateStatementsCurrent);
+
+                    break;
+                } catch (SQLException exception) {
+                    rollBack();
+
+                    if (retryPolicy != null && retryPolicy.shouldRetry(exception, attempt)) {
+                        backOff(stateMessage, attempt, exception);
+
+                        try {
+                            replay(insertStatement, insertRecords);
+                            replay(updateStatement, updateRecords);
+                            replay(deleteStatement, deleteRecords);
+                        } catch (SQLException replayException) {
+                            throw new IOException("unable to replay batch statements", replayException);
+                        }
+
+                        continue;
+                    }
+
+                    if (rejectSink == null || !isDataError(exception)) {
+                        createThrowMessage(stateMessage, currentStatements, exception);
+                    }
+
+                    isolate(stateMessage, exception);
+                    break;
                 }
+            }
 
-                insertStatementsCurrent = 0;
-            } catch (SQLException exception) {
-                rollBack();
+            reporter.incrCounter(DBCounters.UNCHANGED_ROWS, unchanged);
+            reporter.incrCounter(DBCounters.DELETED_ROWS, deleted);
+
+            insertStatementsCurrent = 0;
+            updateStatementsCurrent = 0;
+            deleteStatementsCurrent = 0;
+            insertRecords.clear();
+            updateRecords.clear();
+            deleteRecords.clear();
+        }
+
+        private int[] execute(PreparedStatement statement) throws SQLException {
+            long startTime = System.currentTimeMillis();
+
+            try {
+                return statement.executeBatch();
+            } finally {
+                executeMillis += System.currentTimeMillis() - startTime;
+            }
+        }
+
+        private void commit() throws SQLException {
+            long startTime = System.currentTimeMillis();
+
+            connection.commit();
+
+            long commitMillis = System.currentTimeMillis() - startTime;
+
+            commitLatency.add(commitMillis);
+
+            reporter.incrCounter(DBCounters.COMMITS, 1);
+            reporter.incrCounter(DBCounters.COMMIT_MILLIS, commitMillis);
+        }
+
+        private void countWritten(WriteOperation operation, long rows) {
+            // deleted rows are counted by the rows the deletes affected
+            if (operation == WriteOperation.INSERT) {
+                reporter.incrCounter(DBCounters.INSERTED_ROWS, rows);
+            } else if (operation == WriteOperation.UPDATE) {
+                reporter.incrCounter(DBCounters.UPDATED_ROWS, rows);
+            }
+        }
+
+        private void publishLatencies() {
+            batchLatency.publish(reporter);
+            commitLatency.publish(reporter);
+
+            LOG.info("batch latency " + batchLatency + ", commit latency " + commitLatency);
+        }
+
+        private long getStatementsCurrent() {
+            return insertStatementsCurrent + updateStatementsCurrent + deleteStatementsCurrent;
+        }
+
+        private long countAffected(int[] result) {
+            long affected = 0;
+
+            // drivers may report Statement.SUCCESS_NO_INFO instead of a count
+            for (int value : result) {
+                if (value > 0) { affected += value; }
+            }
+
+            return affected;
+        }
+
+        private long countUnchanged(int[] result) {
+            long unchanged = 0;
+
+            for (int value : result) {
+                if (value == 0) { unchanged++; }
+            }
+
+            return unchanged;
+        }
 
-                createThrowMessage("unable to execute insert batch", insertStatementsCurrent, exception);
+        private void backOff(String stateMessage, int attempt, SQLException exception)
+            throws IOException {
+            long backoff = retryPolicy.backoffMillis(attempt);
+
+            LOG.warn(stateMessage + ", retrying in " + backoff + "ms, attempt: " + (attempt + 1)
+                + " sqlstate: " + exception.getSQLState() + " " + exception.getMessage());
+
+            reporter.incrCounter(DBCounters.RETRIES, 1);
+
+            if (adaptiveBatchSize != null) { adapt(adaptiveBatchSize.failed()); }
+
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+
+                throw new IOException("interrupted while backing off from: " + stateMessage, exception);
             }
+        }
+
+        /**
+         * Bisects a batch that failed on bad data, failing if all of its rows are rejected, which
+         * points to a problem with the table rather than the rows.
+         */
+        private void isolate(String stateMessage, SQLException exception) throws IOException {
+            long statementsCurrent = getStatementsCurrent();
+
+            LOG.warn(stateMessage + ", bisecting batch to isolate failing rows "
+                + createBatchMessage(statementsCurrent), exception);
+
+            rejectedCurrent = 0;
 
             try {
-                if (updateStatementsCurrent != 0) {
-                    LOG.info(
-                        "executing update batch " + createBatchMessage(updateStatementsCurrent));
+                bisect(insertStatement, insertRecords, WriteOperation.INSERT, 0);
+                bisect(updateStatement, updateRecords, WriteOperation.UPDATE, 0);
+                bisect(deleteStatement, deleteRecords, WriteOperation.DELETE, 0);
+            } catch (SQLException bisectException) {
+                throw new IOException("unable to bisect batch statements", bisectException);
+            }
+
+            if (statementsCurrent > 1 && rejectedCurrent == statementsCurrent) {
+                throw new IOException("all " + statementsCurrent + " rows of the batch were rejected, "
+                    + stateMessage, exception);
+            }
+        }
+
+        /**
+         * Returns true if the failure is caused by the data written, an invalid value, a violated
+         * constraint or an update matching no row, rather than by the statement or the database.
+         */
+        private boolean isDataError(SQLException exception) {
+            Throwable throwable = exception;
+
+            while (throwable != null) {
+                String sqlState = throwable instanceof SQLException
+                    ? ((SQLException) throwable).getSQLState() : null;
+
+                if (sqlState != null && (sqlState.startsWith("22") || sqlState.startsWith("23")
+                    || sqlState.equals(NO_DATA))) {
+                    return true;
+                }
+
+                Throwable next = throwable instanceof SQLException
+                    ? ((SQLException) throwable).getNextException() : null;
+
+                throwable = next != null ? next : throwable.getCause();
+            }
+
+            return false;
+        }
+
+        /**
+         * Executes and commits the given records as one batch, if that fails, rolls back and does
+         * the same for each half until the failing records are found and rejected.
+         */
+        private void bisect(PreparedStatement statement, List<K> records,
+            WriteOperation operation, int attempt) throws SQLException, IOException {
+            if (records.isEmpty()) { return; }
 
-                    int[] result = updateStatement.executeBatch();
+            replay(statement, records);
 
+            try {
+                int[] result = execute(statement);
+
+                if (operation == WriteOperation.UPDATE && !skipUnchanged) {
                     int count = 0;
 
                     for (int value : result) { count += value; }
 
-                    if (count != updateStatementsCurrent) {
-                        throw new IOException(
-                            "update did not update same number of statements executed in batch, batch: "
-                            + updateStatementsCurrent + " updated: " + count);
+                    if (count != records.size()) {
+                        throw new SQLException("update did not match a row", NO_DATA);
                     }
                 }
 
-                updateStatementsCurrent = 0;
+                commit();
+
+                countWritten(operation, records.size());
             } catch (SQLException exception) {
                 rollBack();
 
-                createThrowMessage("unable to execute update batch", updateStatementsCurrent, exception);
+                if (retryPolicy != null && retryPolicy.shouldRetry(exception, attempt)) {
+                    backOff("unable to execute bisected batch", attempt, exception);
+                    bisect(statement, records, operation, attempt + 1);
+                    return;
+                }
+
+                if (!isDataError(exception)) {
+                    createThrowMessage("unable to execute bisected batch", records.size(), exception);
+                }
+
+                if (records.size() == 1) {
+                    reject(records.get(0), exception);
+                    return;
+                }
+
+                int middle = records.size() / 2;
+
+                bisect(statement, records.subList(0, middle), operation, 0);
+                bisect(statement, records.subList(middle, records.size()), operation, 0);
+            }
+        }
+
+        private void reject(K record, SQLException exception) throws IOException {
+            LOG.warn("rejecting row to: " + rejectSink.getPath() + ", sqlstate: "
+                + exception.getSQLState() + " " + exception.getMessage());
+
+            rejectSink.reject(record, exception);
+            rejectedCurrent++;
+
+            reporter.incrCounter(DBCounters.REJECTED_ROWS, 1);
+        }
+
+        private void replay(PreparedStatement statement, List<K> records) throws SQLException {
+            if (statement == null) { return; }
+
+            statement.clearBatch();
+
+            for (K record : records) {
+                record.write(statement);
+                statement.addBatch();
             }
         }
 
@@ -149,7 +624,7 @@ public class DBOutputFormat<K extends DBWritable, V> implements OutputFormat<K,
 
         private String createBatchMessage(long currentStatements) {
             return String
-                .format("[totstmts: %d][crntstmts: %d][batch: %d]", statementsAdded, currentStatements, statementsBeforeExecute);
+                .format("[totstmts: %d][crntstmts: %d][batch: %d][crntbytes: %d]", statementsAdded, currentStatements, statementsBeforeExecute, bytesCurrent);
         }
 
         private void createThrowMessage(String stateMessage, long currentStatements,
@@ -171,23 +646,262 @@ public class DBOutputFormat<K extends DBWritable, V> implements OutputFormat<K,
 
         /** {@inheritDoc} */
         public synchronized void write(K key, V value) throws IOException {
+            WriteOperation operation = WriteOperation.of(value);
+
+            if (operation == WriteOperation.DELETE && deleteStatement == null) {
+                throw new IOException("deletes are not enabled, or no output update field names set");
+            }
+
+            if (recordSorter != null) {
+                recordSorter.add(key, operation);
+                return;
+            }
+
+            addStatement(key, operation);
+        }
+
+        private void addStatement(K key, WriteOperation operation) throws IOException {
+            if (!coordinated && conflicts(key, operation)) {
+                reporter.incrCounter(DBCounters.ORDER_LIMITED_BATCHES, 1);
+
+                executeBatch();
+            }
+
+            PendingWrite<K> previous = null;
+
+            if (pending == null || (operation == WriteOperation.INSERT && !collapseInserts)) {
+                bindStatement(key, operation);
+            } else {
+                previous = pending.put(key, new PendingWrite<K>(key, operation));
+            }
+
+            if (previous != null) {
+                // last write wins, the earlier record of the same key is never sent
+                reporter.incrCounter(DBCounters.DEDUPLICATED_ROWS, 1);
+                bytesCurrent -= getWriteSize(previous.record);
+                countStatement(previous.operation, -1);
+            }
+
+            countStatement(operation, 1);
+
+            statementsAdded++;
+
+            bytesCurrent += getWriteSize(key);
+
+            // a coordinating writer decides when, and in which order, batches execute
+            if (coordinated) { return; }
+
+            if (isBatchFull()) { executeBatch(); }
+        }
+
+        /**
+         * Returns true once the current batch holds the number of statements, or the estimated
+         * bytes, executed at once.
+         */
+        private boolean isBatchFull() {
+            if (getStatementsCurrent() >= statementsBeforeExecute) { return true; }
+
+            if (bytesBeforeExecute > 0 && bytesCurrent >= bytesBeforeExecute) {
+                reporter.incrCounter(DBCounters.BYTE_LIMITED_BATCHES, 1);
+
+                return true;
+            }
+
+            return false;
+        }
+
+        /**
+         * Returns true if the given write can't join the current batch. A batch executes its
+         * inserts, then its updates, then its deletes, so a write can only join it if it leaves
+         * the row as if the pending write of the same key, if any, never happened. Without keys
+         * to compare, it can't join if it would execute before any write already batched.
+         */
+        boolean conflicts(K key, WriteOperation operation) {
+            if (pending == null) { return operation.ordinal() < getLastOrdinal(); }
+
+            PendingWrite<K> previous = pending.get(key);
+
+            return previous != null && !replaces(previous.operation, operation);
+        }
+
+        private boolean replaces(WriteOperation previous, WriteOperation operation) {
+            switch (operation) {
+                case DELETE:
+                    return true;
+                case UPDATE:
+                    // only an update finds the row as it was before the previous write
+                    return previous == WriteOperation.UPDATE;
+                default:
+                    // an upsert sets every column, whether the row exists or not
+                    return collapseInserts;
+            }
+        }
+
+        /** @return the ordinal of the last operation the current batch executes, -1 if empty */
+        private int getLastOrdinal() {
+            if (deleteStatementsCurrent != 0) { return WriteOperation.DELETE.ordinal(); }
+
+            if (updateStatementsCurrent != 0) { return WriteOperation.UPDATE.ordinal(); }
+
+            return insertStatementsCurrent != 0 ? WriteOperation.INSERT.ordinal() : -1;
+        }
+
+        private void countStatement(WriteOperation operation, int count) {
+            switch (operation) {
+                case UPDATE:
+                    updateStatementsCurrent += count;
+                    break;
+                case DELETE:
+                    deleteStatementsCurrent += count;
+                    break;
+                default:
+                    insertStatementsCurrent += count;
+            }
+        }
+
+        private void bindPending() throws IOException {
+            if (pending == null) { return; }
+
+            for (PendingWrite<K> write : pending.values()) {
+                bindStatement(write.record, write.operation);
+            }
+
+            pending.clear();
+        }
+
+        private void bindStatement(K key, WriteOperation operation) throws IOException {
             try {
-                if (value == null) {
-                    key.write(insertStatement);
-                    insertStatement.addBatch();
-                    insertStatementsCurrent++;
-                } else {
-                    key.write(updateStatement);
-                    updateStatement.addBatch();
-                    updateStatementsCurrent++;
+                switch (operation) {
+                    case UPDATE:
+                        key.write(updateStatement);
+                        updateStatement.addBatch();
+
+                        if (commitEachBatch) { updateRecords.add(key); }
+                        break;
+
+                    case DELETE:
+                        key.write(deleteStatement);
+                        deleteStatement.addBatch();
+
+                        if (commitEachBatch) { deleteRecords.add(key); }
+                        break;
+
+                    default:
+                        key.write(insertStatement);
+                        insertStatement.addBatch();
+
+                        if (commitEachBatch) { insertRecords.add(key); }
                 }
             } catch (SQLException exception) {
                 throw new IOException("unable to add batch statement", exception);
             }
+        }
 
-            statementsAdded++;
+        private long getWriteSize(K key) {
+            return key instanceof SizedDBWritable ? ((SizedDBWritable) key).getWriteSize() : 0;
+        }
+    }
 
-            if (statementsAdded % statementsBeforeExecute == 0) { executeBatch(); }
+    /**
+     * A RecordWriter fanning {@link TableRecord}s out to one batch per table, over a single
+     * connection and transaction. Once any table holds a full batch, the batches of all tables are
+     * executed in table order, parents before children, so foreign keys are satisfied, and
+     * everything is committed at once when closed. Each table adapts its own batch size, if
+     * enabled, while all tables share the output rate.
+     */
+    protected class MultiTableRecordWriter implements RecordWriter<K, V> {
+        private final Connection connection;
+        private final List<DBRecordWriter> writers;
+        private boolean failed = false;
+
+        protected MultiTableRecordWriter(Connection connection, List<DBRecordWriter> writers) {
+            this.connection = connection;
+            this.writers = writers;
+
+            DBRecordWriter first = writers.get(0);
+
+            for (DBRecordWriter writer : writers) {
+                writer.coordinated = true;
+
+                // the rate is the rate of the task, not of each table
+                writer.rowRateLimiter = first.rowRateLimiter;
+                writer.byteRateLimiter = first.byteRateLimiter;
+            }
+        }
+
+        /** {@inheritDoc} */
+        @SuppressWarnings("unchecked")
+        public synchronized void write(K key, V value) throws IOException {
+            if (!(key instanceof TableRecord)) {
+                throw new IOException("multi table output requires TableRecord keys, got: " + key.getClass().getName());
+            }
+
+            TableRecord record = (TableRecord) key;
+
+            if (record.getTable() < 0 || record.getTable() >= writers.size()) {
+                throw new IOException("no output table: " + record.getTable() + ", tables: " + writers.size());
+            }
+
+            WriteOperation operation = WriteOperation.of(value);
+
+            if (operation == WriteOperation.DELETE) {
+                throw new IOException("deletes are not supported by multi table output");
+            }
+
+            DBRecordWriter writer = writers.get(record.getTable());
+
+            // keeps writes to the same table in order, as each table's batch executes by operation
+            if (writer.conflicts((K) record.getRecord(), operation)) { flush(); }
+
+            writer.addStatement((K) record.getRecord(), operation);
+
+            if (writer.isBatchFull()) { flush(); }
+        }
+
+        private void flush() throws IOException {
+            try {
+                for (DBRecordWriter writer : writers) { writer.executeBatch(); }
+            } catch (IOException exception) {
+                failed = true;
+
+                throw exception;
+            }
+        }
+
+        /** {@inheritDoc} */
+        public void close(Reporter reporter) throws IOException {
+            boolean committed = false;
+
+            try {
+                if (!failed) { flush(); }
+
+                for (DBRecordWriter writer : writers) {
+                    if (writer.insertStatement != null) { writer.insertStatement.close(); }
+
+                    if (writer.updateStatement != null) { writer.updateStatement.close(); }
+                }
+
+                // tables are only ever committed together
+                if (!failed) {
+                    writers.get(0).commit();
+                    committed = true;
+                }
+            } catch (SQLException exception) {
+                throw new IOException("unable to commit tables", exception);
+            } finally {
+                try {
+                    // whatever failed, no table keeps the rows written so far
+                    if (!committed) { writers.get(0).rollBack(); }
+
+                    for (DBRecordWriter writer : writers) { writer.publishLatencies(); }
+                } finally {
+                    try {
+                        connection.close();
+                    } catch (SQLException exception) {
+                        throw new IOException("unable to close connection", exception);
+                    }
+                }
+            }
         }
     }
 
@@ -238,7 +952,166 @@ public class DBOutputFormat<K extends DBWritable, V> implements OutputFormat<K,
         return query.toString();
     }
 
+    /**
+     * Constructs the query used as the prepared statement to insert data, or update the existing
+     * row with the same key, in a single statement.
+     *
+     * @param table       the table to upsert into
+     * @param fieldNames  the fields to upsert, in the order values are bound
+     * @param updateNames the key fields a conflicting row is matched on, may be null for {@link
+     *                    UpsertDialect#MYSQL}
+     * @param dialect     the vendor syntax to generate
+     */
+    protected String constructUpsertQuery(String table, String[] fieldNames, String[] updateNames,
+        UpsertDialect dialect) {
+        return constructUpsertQuery(table, fieldNames, updateNames, dialect, null);
+    }
+
+    /**
+     * Constructs the query used as the prepared statement to insert a row, or update an existing
+     * row with the same key only if its content hash differs, in a single statement.
+     *
+     * @param table       the table to upsert into
+     * @param fieldNames  the fields to upsert, in the order values are bound
+     * @param updateNames the key fields a conflicting row is matched on, may be null for {@link
+     *                    UpsertDialect#MYSQL}
+     * @param dialect     the vendor syntax to generate, {@link UpsertDialect#H2} cannot skip
+     *                    unchanged rows
+     * @param hashColumn  the field holding the content hash, one of fieldNames, or null
+     */
+    protected String constructUpsertQuery(String table, String[] fieldNames, String[] updateNames,
+        UpsertDialect dialect, String hashColumn) {
+        if (fieldNames == null) {
+            throw new IllegalArgumentException("field names may not be null");
+        }
+
+        if (dialect == UpsertDialect.MYSQL && hashColumn == null) {
+            return constructInsertQuery(table, fieldNames, true);
+        }
+
+        if (dialect == UpsertDialect.MYSQL) {
+            List<String> valueNames = new ArrayList<String>(Arrays.asList(fieldNames));
+
+            // assignments are evaluated in order, the hash must be compared before it is replaced
+            valueNames.remove(hashColumn);
+
+            String changed = "IF(" + hashColumn + " <=> VALUES(" + hashColumn + "), %s, VALUES(%s))";
+
+            String insertQuery = constructInsertQuery(table, fieldNames, false);
+
+            return insertQuery.substring(0, insertQuery.lastIndexOf(';')) + " ON DUPLICATE KEY UPDATE "
+                + join(valueNames.toArray(new String[valueNames.size()]), "%s=" + changed, ",")
+                + "," + hashColumn + "=VALUES(" + hashColumn + ");";
+        }
+
+        if (updateNames == null || updateNames.length == 0) {
+            throw new IllegalArgumentException(
+                "update field names may not be null for upsert dialect: " + dialect);
+        }
+
+        Set<String> updateNamesSet = new HashSet<String>();
+        Collections.addAll(updateNamesSet, updateNames);
+
+        StringBuilder query = new StringBuilder();
+
+        switch (dialect) {
+            case POSTGRES:
+                query.append("INSERT INTO ").append(table);
+                query.append(" (").append(join(fieldNames, "%s", ",")).append(")");
+                query.append(" VALUES (").append(join(fieldNames, "?", ",")).append(")");
+                query.append(" ON CONFLICT (").append(join(updateNames, "%s", ",")).append(")");
+
+                if (updateNamesSet.containsAll(Arrays.asList(fieldNames))) {
+                    query.append(" DO NOTHING");
+                } else {
+                    query.append(" DO UPDATE SET ");
+                    query.append(join(valueNames(fieldNames, updateNamesSet), "%s=EXCLUDED.%s", ","));
+
+                    if (hashColumn != null) {
+                        query.append(" WHERE ").append(table).append(".").append(hashColumn)
+                            .append(" IS DISTINCT FROM EXCLUDED.").append(hashColumn);
+                    }
+                }
+                break;
+
+            case MERGE:
+                query.append("MERGE INTO ").append(table);
+                query.append(" USING (VALUES (").append(join(fieldNames, "?", ",")).append("))");
+                query.append(" AS src (").append(join(fieldNames, "%s", ",")).append(")");
+                query.append(" ON (")
+                    .append(join(updateNames, table + ".%s = src.%s", " and ")).append(")");
+
+                if (!updateNamesSet.containsAll(Arrays.asList(fieldNames))) {
+                    query.append(" WHEN MATCHED");
+
+                    if (hashColumn != null) {
+                        query.append(" AND (").append(table).append(".").append(hashColumn)
+                            .append(" IS NULL OR ").append(table).append(".").append(hashColumn)
+                            .append(" <> src.").append(hashColumn).append(")");
+                    }
+
+                    query.append(" THEN UPDATE SET ");
+                    query.append(join(valueNames(fieldNames, updateNamesSet), "%s = src.%s", ","));
+                }
+
+                query.append(" WHEN NOT MATCHED THEN INSERT (")
+                    .append(join(fieldNames, "%s", ",")).append(")");
+                query.append(" VALUES (").append(join(fieldNames, "src.%s", ",")).append(")");
+                break;
+
+            case H2:
+                query.append("MERGE INTO ").append(table);
+                query.append(" (").append(join(fieldNames, "%s", ",")).append(")");
+                query.append(" KEY (").append(join(updateNames, "%s", ",")).append(")");
+                query.append(" VALUES (").append(join(fieldNames, "?", ",")).append(")");
+                break;
+
+            default:
+                throw new IllegalArgumentException("unknown upsert dialect: " + dialect);
+        }
+
+        query.append(";");
+
+        return query.toString();
+    }
+
+    private static String[] valueNames(String[] fieldNames, Set<String> updateNamesSet) {
+        List<String> valueNames = new ArrayList<String>();
+
+        for (String fieldName : fieldNames) {
+            if (!updateNamesSet.contains(fieldName)) { valueNames.add(fieldName); }
+        }
+
+        return valueNames.toArray(new String[valueNames.size()]);
+    }
+
+    private static String join(String[] names, String template, String delimiter) {
+        StringBuilder joined = new StringBuilder();
+
+        for (int i = 0; i < names.length; i++) {
+            if (i != 0) { joined.append(delimiter); }
+
+            joined.append(template.replace("%s", names[i]));
+        }
+
+        return joined.toString();
+    }
+
     protected String constructUpdateQuery(String table, String[] fieldNames, String[] updateNames) {
+        return constructUpdateQuery(table, fieldNames, updateNames, null);
+    }
+
+    /**
+     * Constructs the query used as the prepared statement to update a row only if its content hash
+     * differs. The new hash is bound once more after the updateNames values.
+     *
+     * @param table       the table to update
+     * @param fieldNames  the fields to update, in the order values are bound
+     * @param updateNames the key fields a row is matched on
+     * @param hashColumn  the field holding the content hash, one of fieldNames, or null
+     */
+    protected String constructUpdateQuery(String table, String[] fieldNames, String[] updateNames,
+        String hashColumn) {
         if (fieldNames == null) {
             throw new IllegalArgumentException("field names may not be null");
         }
@@ -278,6 +1151,31 @@ public class DBOutputFormat<K extends DBWritable, V> implements OutputFormat<K,
             }
         }
 
+        if (hashColumn != null) {
+            query.append(" and (").append(hashColumn).append(" is null or ")
+                .append(hashColumn).append(" <> ?)");
+        }
+
+        query.append(";");
+
+        return query.toString();
+    }
+
+    /**
+     * Constructs the query used as the prepared statement to delete rows by key.
+     *
+     * @param table       the table to delete from
+     * @param updateNames the key fields a row is matched on, in the order values are bound
+     */
+    protected String constructDeleteQuery(String table, String[] updateNames) {
+        if (updateNames == null || updateNames.length == 0) {
+            throw new IllegalArgumentException("update field names may not be null for deletes");
+        }
+
+        StringBuilder query = new StringBuilder();
+
+        query.append("DELETE FROM ").append(table);
+        query.append(" WHERE ").append(join(updateNames, "%s = ?", " and "));
         query.append(";");
 
         return query.toString();
@@ -292,17 +1190,26 @@ public class DBOutputFormat<K extends DBWritable, V> implements OutputFormat<K,
         Progressable progress) throws IOException {
         DBConfiguration dbConf = new DBConfiguration(job);
 
+        Reporter reporter = progress instanceof Reporter ? (Reporter) progress : Reporter.NULL;
+
+        if (dbConf.getOutputTableNames() != null) {
+            return getMultiTableRecordWriter(dbConf, reporter);
+        }
+
         String tableName = dbConf.getOutputTableName();
         String[] fieldNames = dbConf.getOutputFieldNames();
         String[] updateNames = dbConf.getOutputUpdateFieldNames();
-        int batchStatements = dbConf.getBatchStatementsNum();
         boolean replaceOnInsert = dbConf.getReplaceOnInsert();
+        UpsertDialect upsertDialect = dbConf.getUpsertDialect();
+        String hashColumn = dbConf.getOutputHashColumn();
 
         Connection connection = dbConf.getConnection();
 
         configureConnection(connection);
 
-        String sqlInsert = constructInsertQuery(tableName, fieldNames, replaceOnInsert);
+        String sqlInsert = upsertDialect != null
+            ? constructUpsertQuery(tableName, fieldNames, updateNames, upsertDialect, hashColumn)
+            : constructInsertQuery(tableName, fieldNames, replaceOnInsert);
         PreparedStatement insertPreparedStatement;
 
         try {
@@ -312,8 +1219,9 @@ public class DBOutputFormat<K extends DBWritable, V> implements OutputFormat<K,
             throw new IOException("unable to create statement for: " + sqlInsert, exception);
         }
 
-        String sqlUpdate =
-            updateNames != null ? constructUpdateQuery(tableName, fieldNames, updateNames) : null;
+        // an upsert covers both cases, so every row goes through the insert statement
+        String sqlUpdate = updateNames != null && upsertDialect == null
+            ? constructUpdateQuery(tableName, fieldNames, updateNames, hashColumn) : null;
         PreparedStatement updatePreparedStatement = null;
 
         try {
@@ -323,13 +1231,97 @@ public class DBOutputFormat<K extends DBWritable, V> implements OutputFormat<K,
             throw new IOException("unable to create statement for: " + sqlUpdate, exception);
         }
 
+        String sqlDelete = dbConf.getOutputDelete() ? constructDeleteQuery(tableName, updateNames) : null;
+        PreparedStatement deletePreparedStatement = null;
+
+        try {
+            deletePreparedStatement =
+                sqlDelete != null ? connection.prepareStatement(sqlDelete) : null;
+        } catch (SQLException exception) {
+            throw new IOException("unable to create statement for: " + sqlDelete, exception);
+        }
+
         if (insertPreparedStatement != null) {
           LOG.info("Executing insert statement:\n " + sqlInsert);
         }
         if (updatePreparedStatement != null) {
           LOG.info("Executing update statement:\n " + sqlUpdate);
         }
-        return new DBRecordWriter(connection, insertPreparedStatement, updatePreparedStatement, batchStatements);
+        if (deletePreparedStatement != null) {
+          LOG.info("Executing delete statement:\n " + sqlDelete);
+        }
+        return new DBRecordWriter(connection, insertPreparedStatement, updatePreparedStatement,
+            deletePreparedStatement, dbConf, reporter);
+    }
+
+    private RecordWriter<K, V> getMultiTableRecordWriter(DBConfiguration dbConf, Reporter reporter)
+        throws IOException {
+        String[] tableNames = dbConf.getOutputTableNames();
+
+        checkMultiTableOutput(dbConf);
+
+        Connection connection = dbConf.getConnection();
+
+        configureConnection(connection);
+
+        List<DBRecordWriter> writers = new ArrayList<DBRecordWriter>();
+
+        for (int i = 0; i < tableNames.length; i++) {
+            String[] fieldNames = dbConf.getOutputFieldNames(i);
+            String[] updateNames = dbConf.getOutputUpdateFieldNames(i);
+
+            String sqlInsert = constructInsertQuery(tableNames[i], fieldNames, false);
+            String sqlUpdate = updateNames != null ? constructUpdateQuery(tableNames[i], fieldNames, updateNames) : null;
+
+            try {
+                LOG.info("Executing insert statement:\n " + sqlInsert);
+
+                PreparedStatement insertPreparedStatement = connection.prepareStatement(sqlInsert);
+                PreparedStatement updatePreparedStatement = null;
+
+                if (sqlUpdate != null) {
+                    LOG.info("Executing update statement:\n " + sqlUpdate);
+
+                    updatePreparedStatement = connection.prepareStatement(sqlUpdate);
+                }
+
+                writers.add(new DBRecordWriter(connection, insertPreparedStatement,
+                    updatePreparedStatement, dbConf, reporter));
+            } catch (SQLException exception) {
+                throw new IOException("unable to create statements for table: " + tableNames[i], exception);
+            }
+        }
+
+        return new MultiTableRecordWriter(connection, writers);
+    }
+
+    /**
+     * Fails on the settings a {@link MultiTableRecordWriter} can't honor. Replaying, bisecting or
+     * committing a batch on its own would break the single transaction across tables, while
+     * sorting, deduplicating, deleting and upserting need keys no table shares.
+     */
+    private void checkMultiTableOutput(DBConfiguration dbConf) throws IOException {
+        List<String> unsupported = new ArrayList<String>();
+
+        if (dbConf.getRetryMax() > 0) { unsupported.add("retries"); }
+
+        if (dbConf.getRejectPath() != null) { unsupported.add("rejects"); }
+
+        if (dbConf.getOutputSort()) { unsupported.add("sorted output"); }
+
+        if (dbConf.getOutputDeduplicate()) { unsupported.add("deduplicated output"); }
+
+        if (dbConf.getOutputDelete()) { unsupported.add("deletes"); }
+
+        if (dbConf.getUpsertDialect() != null) { unsupported.add("upserts"); }
+
+        if (dbConf.getOutputHashColumn() != null) { unsupported.add("hash columns"); }
+
+        if (dbConf.getOutputAttemptsTable() != null) { unsupported.add("staged output"); }
+
+        if (!unsupported.isEmpty()) {
+            throw new IOException("not supported by multi table output: " + unsupported);
+        }
     }
 
     protected void configureConnection(Connection connection) {
@@ -344,6 +1336,226 @@ public class DBOutputFormat<K extends DBWritable, V> implements OutputFormat<K,
         }
     }
 
+    /**
+     * Replays a batch that failed with a transient error, identified by SQLState, instead of
+     * failing the task. The batch is rolled back and replayed after a jittered, exponential back
+     * off. <p/> To make replaying a single batch possible, every batch is committed on its own
+     * once retries are enabled, so a task that fails for good leaves its earlier batches written.
+     *
+     * @param job           The job
+     * @param maxRetries    the number of times a batch is replayed, 0 disables retries
+     * @param backoffMillis the back off before the first replay, doubling with every attempt
+     * @param sqlStates     SQLState classes or codes of transient errors, e.g. "40" or "40001", the
+     *                      defaults are used if none are given
+     */
+    public static void setRetryPolicy(JobConf job, int maxRetries, long backoffMillis,
+        String... sqlStates) {
+        DBConfiguration dbConf = new DBConfiguration(job);
+
+        dbConf.setRetryMax(maxRetries);
+        dbConf.setRetryBackoffMillis(backoffMillis);
+
+        if (sqlStates != null && sqlStates.length != 0) { dbConf.setRetrySqlStates(sqlStates); }
+    }
+
+    /**
+     * Isolates the rows of a failed batch instead of failing the task. The batch is bisected until
+     * the failing rows are found, those are written to a file in the given directory together with
+     * their error, and all other rows are written to the table. Only batches failing on bad data,
+     * SQLState classes 22 and 23, are bisected. Other failures, and batches of which every row is
+     * rejected, still fail the task. <p/> As with retries, every batch is committed on its own once
+     * enabled.
+     *
+     * @param job        The job
+     * @param rejectPath the directory, on any Hadoop FileSystem, to write rejected rows to
+     * @param maxRejects the number of rows a task may reject before failing, -1 for no limit
+     */
+    public static void setRejectPath(JobConf job, String rejectPath, long maxRejects) {
+        new DBConfiguration(job).setRejectPath(rejectPath, maxRejects);
+    }
+
+    /**
+     * Buffers records and writes them in the order of the given comparator instead of the order
+     * they arrive in, so keyed writes hit the table's index in order. Once the buffer holds the
+     * given number of records or estimated bytes it is sorted and spilled to local disk, all spills
+     * are merged and written when the task closes.
+     *
+     * @param job             The job
+     * @param comparatorClass the comparator of the output keys, instantiated with the job
+     *                        configuration
+     * @param bufferRecords   the number of records buffered in memory
+     * @param bufferBytes     the estimated bytes buffered in memory, 0 for no limit
+     */
+    public static void setSortedOutput(JobConf job, Class<? extends Comparator<?>> comparatorClass,
+        int bufferRecords, long bufferBytes) {
+        DBConfiguration dbConf = new DBConfiguration(job);
+
+        dbConf.setOutputKeyComparator(comparatorClass);
+        dbConf.setOutputSort(true);
+        dbConf.setOutputSortBuffer(bufferRecords, bufferBytes);
+    }
+
+    /**
+     * Collapses records with the same key within a batch, only the last one written is sent to the
+     * database, whatever its operation; a delete replaces an earlier update of its key, an upsert
+     * an earlier delete. Plain inserts carry no key and are never collapsed, only upserts are. An
+     * update following an upsert or delete of its key, or a plain insert following any pending
+     * write of its key, executes the batch first, counted under {@link
+     * DBCounters#ORDER_LIMITED_BATCHES}. Writes of other keys never execute a batch early.
+     *
+     * @param job             The job
+     * @param comparatorClass the comparator of the output keys, records comparing equal have the
+     *                        same key
+     */
+    public static void setDeduplicatedOutput(JobConf job, Class<? extends Comparator<?>> comparatorClass) {
+        DBConfiguration dbConf = new DBConfiguration(job);
+
+        dbConf.setOutputKeyComparator(comparatorClass);
+        dbConf.setOutputDeduplicate(true);
+    }
+
+    /**
+     * Initializes the job to write {@link TableRecord}s to several tables over one connection and
+     * transaction per task, with a batch per table.
+     * <p/>
+     * Batch bytes, adaptive batch sizes and output rates apply as for a single table, retries,
+     * rejects, sorted, deduplicated, staged and delete output, upserts and hash columns fail the
+     * task.
+     *
+     * @param job                 The job
+     * @param dbOutputFormatClass
+     * @param tableNames          the tables to write to, parents before the children referencing
+     *                            them by foreign key
+     * @param fieldNames          the field names of each table
+     * @param updateFields        the update field names of each table, or null for tables only
+     *                            inserted into
+     * @param batchSize           the number of statements of any one table before all batches are
+     *                            executed
+     */
+    public static void setMultiTableOutput(JobConf job,
+        Class<? extends DBOutputFormat> dbOutputFormatClass, String[] tableNames,
+        String[][] fieldNames, String[][] updateFields, int batchSize) {
+        if (dbOutputFormatClass == null) { job.setOutputFormat(DBOutputFormat.class); } else {
+            job.setOutputFormat(dbOutputFormatClass);
+        }
+
+        // writing doesn't always happen in reduce
+        job.setReduceSpeculativeExecution(false);
+        job.setMapSpeculativeExecution(false);
+
+        DBConfiguration dbConf = new DBConfiguration(job);
+
+        dbConf.setOutputTableNames(tableNames);
+
+        for (int i = 0; i < tableNames.length; i++) {
+            dbConf.setOutputFieldNames(i, fieldNames[i]);
+
+            if (updateFields != null && updateFields[i] != null) {
+                dbConf.setOutputUpdateFieldNames(i, updateFields[i]);
+            }
+        }
+
+        if (batchSize != -1) { dbConf.setBatchStatementsNum(batchSize); }
+    }
+
+    /**
+     * Marks each task attempt completed in the given table, by setting its {@code completed} column
+     * to 1 where its {@code attempt_id} matches, once Hadoop lets the attempt commit its output. As
+     * only one attempt of each task may commit, this tells the attempt whose output counts from
+     * speculative ones, which also close their writers. Sets {@link DBOutputCommitter} as the
+     * output committer of the job.
+     *
+     * @param job           The job
+     * @param attemptsTable the table registering the staging table of each task attempt
+     */
+    public static void setStagedOutput(JobConf job, String attemptsTable) {
+        job.setOutputCommitter(DBOutputCommitter.class);
+
+        new DBConfiguration(job).setOutputAttemptsTable(attemptsTable);
+    }
+
+    /**
+     * Lets records collected with {@link WriteOperation#DELETE} as value delete the rows matching
+     * their values, bound in the order of the output update field names. Deletes are batched
+     * alongside inserts and updates; as a batch executes its inserts, then its updates, then its
+     * deletes, it is executed early whenever a write would otherwise overtake one written before
+     * it, counted under {@link DBCounters#ORDER_LIMITED_BATCHES}. With {@link
+     * #setDeduplicatedOutput(JobConf, Class)} that only happens for writes of the same key. The
+     * number of rows deleted is counted under {@link DBCounters#DELETED_ROWS}.
+     *
+     * @param job The job
+     */
+    public static void setDeleteOutput(JobConf job) {
+        new DBConfiguration(job).setOutputDelete(true);
+    }
+
+    /**
+     * Only updates rows whose content hash changed. The hash column must be the last output field
+     * name, and update records must bind the hash once more after their key values. Rows skipped
+     * are counted under {@link DBCounters#UNCHANGED_ROWS}; as updates matching no row cannot be
+     * told apart from unchanged ones, they no longer fail the task.
+     *
+     * @param job        The job
+     * @param hashColumn the column holding the content hash
+     */
+    public static void setHashColumn(JobConf job, String hashColumn) {
+        new DBConfiguration(job).setOutputHashColumn(hashColumn);
+    }
+
+    /**
+     * Executes a batch early once the estimated size of the values bound to it reaches the given
+     * limit, regardless of the number of statements. Only applies to keys implementing {@link
+     * SizedDBWritable}.
+     *
+     * @param job      The job
+     * @param maxBytes the batch size limit in bytes, 0 for no limit
+     */
+    public static void setBatchMaxBytes(JobConf job, long maxBytes) {
+        new DBConfiguration(job).setBatchMaxBytes(maxBytes);
+    }
+
+    /**
+     * Paces writes so that all output tasks together stay within the given rates. Each task gets an
+     * equal share, the rate divided by the number of reduce tasks, or map tasks in a map only job,
+     * and waits before executing a batch that would exceed it. Time spent waiting is counted under
+     * {@link DBCounters#THROTTLED_MILLIS}.
+     *
+     * @param job            The job
+     * @param rowsPerSecond  the rows written per second across all tasks, 0 for no limit
+     * @param bytesPerSecond the estimated bytes written per second across all tasks, 0 for no
+     *                       limit, only applies to keys implementing {@link SizedDBWritable}
+     * @param tasks          the number of tasks sharing the rates, 0 to use the number of tasks of
+     *                       the job, set it to the number of task slots if fewer tasks run at once
+     */
+    public static void setOutputRate(JobConf job, long rowsPerSecond, long bytesPerSecond,
+        int tasks) {
+        DBConfiguration dbConf = new DBConfiguration(job);
+
+        dbConf.setOutputRate(rowsPerSecond, bytesPerSecond);
+
+        if (tasks > 0) { dbConf.setOutputRateTasks(tasks); }
+    }
+
+    /**
+     * Lets the number of statements batched before executing grow and shrink between the given
+     * bounds, starting from the configured batch size, so that each batch executes within the
+     * target time. Only the execution of the statements is timed, not commits or retry back offs.
+     * With {@link #setBatchMaxBytes(JobConf, long)}, the size is also kept to the number of rows of
+     * the average estimated size that fit in the byte limit.
+     *
+     * @param job           The job
+     * @param minStatements the smallest batch size
+     * @param maxStatements the largest batch size
+     * @param targetMillis  the batch execution time above which the batch size is halved
+     */
+    public static void setAdaptiveBatchSize(JobConf job, int minStatements, int maxStatements,
+        long targetMillis) {
+        DBConfiguration dbConf = new DBConfiguration(job);
+
+        dbConf.setBatchAdaptive(true);
+        dbConf.setBatchBounds(minStatements, maxStatements, targetMillis);
+    }
+
     /**
      * Initializes the reduce-part of the job with the appropriate output settings
      *
@@ -363,6 +1575,33 @@ public class DBOutputFormat<K extends DBWritable, V> implements OutputFormat<K,
         String[] updateFields,
         int batchSize,
         boolean replaceOnInsert
+    ) {
+        setOutput(job, dbOutputFormatClass, tableName, fieldNames, updateFields, batchSize,
+            replaceOnInsert, null);
+    }
+
+    /**
+     * Initializes the reduce-part of the job with the appropriate output settings
+     *
+     * @param job                 The job
+     * @param dbOutputFormatClass
+     * @param tableName           The table to insert data into
+     * @param fieldNames          The field names in the table. If unknown, supply the appropriate
+     * @param updateFields
+     * @param batchSize
+     * @param replaceOnInsert     Boolean which says whether inserts should replace.
+     * @param upsertDialect       if not null, every row is written with a single upsert statement
+     *                            keyed on updateFields
+     */
+    public static void setOutput(
+        JobConf job,
+        Class<? extends DBOutputFormat> dbOutputFormatClass,
+        String tableName,
+        String[] fieldNames,
+        String[] updateFields,
+        int batchSize,
+        boolean replaceOnInsert,
+        UpsertDialect upsertDialect
     ) {
         if (dbOutputFormatClass == null) { job.setOutputFormat(DBOutputFormat.class); } else {
             job.setOutputFormat(dbOutputFormatClass);
@@ -380,6 +1619,8 @@ public class DBOutputFormat<K extends DBWritable, V> implements OutputFormat<K,
 
         if (updateFields != null) { dbConf.setOutputUpdateFieldNames(updateFields); }
 
+        if (upsertDialect != null) { dbConf.setUpsertDialect(upsertDialect); }
+
         if (batchSize != -1) { dbConf.setBatchStatementsNum(batchSize); }
     }
 }
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+
+package com.twitter.maple.jdbc.db;
+
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * Counts latencies in buckets doubling in width, from 1ms up to about a minute. <p/> Hadoop sums
+ * counters across tasks, so percentiles cannot be published as counters themselves. Instead each
+ * bucket is published as a counter of its own group, which sums correctly, and the job wide
+ * percentiles can be read off the cumulative bucket counts. The percentiles of a single task are
+ * available for logging.
+ */
+class LatencyHistogram {
+    /** Number of bounded buckets, the last one ending at 2^16ms */
+    private static final int BUCKETS = 17;
+
+    private final String group;
+    private final long[] counts = new long[BUCKETS + 1];
+    private long total = 0;
+
+    /** @param group the counter group the buckets are published under */
+    LatencyHistogram(String group) {
+        this.group = group;
+    }
+
+    void add(long millis) {
+        counts[bucket(millis)]++;
+        total++;
+    }
+
+    long getCount() {
+        return total;
+    }
+
+    /**
+     * Returns the upper bound of the bucket holding the given percentile, or -1 if nothing was
+     * recorded. Latencies beyond the last bucket are reported as {@link Long#MAX_VALUE}.
+     *
+     * @param percentile between 0 and 100
+     */
+    long getPercentile(double percentile) {
+        if (total == 0) { return -1; }
+
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+
+            if (seen >= Math.max(1, rank)) { return upperBound(i); }
+        }
+
+        return upperBound(BUCKETS);
+    }
+
+    /** Adds the bucket counts to the counters of this histogram's group, named by upper bound. */
+    void publish(Reporter reporter) {
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) { continue; }
+
+            String name = i < BUCKETS ? String.format("<= %06dms", upperBound(i))
+                : String.format("> %06dms", upperBound(BUCKETS - 1));
+
+            reporter.incrCounter(group, name, counts[i]);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[count: %d][p50: %dms][p99: %dms]", total, getPercentile(50),
+            getPercentile(99));
+    }
+
+    private static int bucket(long millis) {
+        int bucket = 0;
+
+        while (bucket < BUCKETS && millis > upperBound(bucket)) { bucket++; }
+
+        return bucket;
+    }
+
+    private static long upperBound(int bucket) {
+        return bucket < BUCKETS ? 1L << bucket : Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+
+package com.twitter.maple.jdbc.db;
+
+/**
+ * A token bucket pacing the rows or bytes {@link DBOutputFormat} writes. <p/> Tokens accrue at the
+ * configured rate, up to one second's worth, so a writer may burst briefly after idling but never
+ * exceeds the rate for long. A batch larger than the bucket is let through at once and paid back
+ * by waiting before the next one.
+ */
+class RateLimiter {
+    private final double permitsPerSecond;
+    private final double maxPermits;
+
+    private double permits;
+    private long lastNanos;
+
+    RateLimiter(double permitsPerSecond) {
+        this(permitsPerSecond, System.nanoTime());
+    }
+
+    /**
+     * @param permitsPerSecond the rate of rows or bytes
+     * @param nowNanos         the current time of the clock later passed to {@link #reserve(long, long)}
+     */
+    RateLimiter(double permitsPerSecond, long nowNanos) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("rate must be positive, got: " + permitsPerSecond);
+        }
+
+        this.permitsPerSecond = permitsPerSecond;
+        this.maxPermits = permitsPerSecond;
+        this.permits = maxPermits;
+        this.lastNanos = nowNanos;
+    }
+
+    /**
+     * Takes the given number of permits, waiting until the bucket is no longer in debt.
+     *
+     * @param required the number of rows or bytes about to be written
+     * @return the milliseconds waited
+     * @throws InterruptedException if interrupted while waiting
+     */
+    long acquire(long required) throws InterruptedException {
+        long waitMillis = reserve(required, System.nanoTime());
+
+        if (waitMillis > 0) { Thread.sleep(waitMillis); }
+
+        return waitMillis;
+    }
+
+    /**
+     * Takes the given number of permits at the given time, without waiting.
+     *
+     * @param required the number of rows or bytes about to be written
+     * @param nowNanos the current time, in nanoseconds
+     * @return the milliseconds to wait before writing
+     */
+    long reserve(long required, long nowNanos) {
+        refill(nowNanos);
+
+        permits -= required;
+
+        if (permits >= 0) { return 0; }
+
+        return (long) Math.ceil(-permits * 1000 / permitsPerSecond);
+    }
+
+    private void refill(long now) {
+        permits = Math.min(maxPermits, permits + (now - lastNanos) * permitsPerSecond / 1e9);
+        lastNanos = now;
+    }
+}
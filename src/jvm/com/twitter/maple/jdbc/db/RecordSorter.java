@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package com.twitter.maple.jdbc.db;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Buffers the records written by {@link DBOutputFormat} so they can be written in key order. <p/>
+ * Once the buffer holds the maximum number of records or bytes it is sorted and spilled to a file in
+ * the given local directory, and {@link #drain(RecordCollector)} merges all spills back in order.
+ * Draining or closing deletes the spills, and the directory. Records with equal keys
+ * keep the order they were added in, so later writes to a key still win.
+ */
+class RecordSorter<K extends DBWritable> {
+    private static final Log LOG = LogFactory.getLog(RecordSorter.class);
+
+    /** Receives the sorted records */
+    interface RecordCollector<K> {
+        void collect(K record, WriteOperation operation) throws IOException;
+    }
+
+    private static class Entry<K> implements Serializable {
+        final K record;
+        final WriteOperation operation;
+
+        Entry(K record, WriteOperation operation) {
+            this.record = record;
+            this.operation = operation;
+        }
+    }
+
+    /** An open spill file, positioned at its next entry */
+    private class Run {
+        final int index;
+        final ObjectInputStream input;
+        Entry<K> head;
+
+        Run(int index, File file) throws IOException {
+            this.index = index;
+            this.input = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+        }
+
+        @SuppressWarnings("unchecked")
+        boolean advance() throws IOException {
+            if (!input.readBoolean()) {
+                head = null;
+                return false;
+            }
+
+            try {
+                head = (Entry<K>) input.readObject();
+            } catch (ClassNotFoundException exception) {
+                throw new IOException("unable to read spilled record", exception);
+            }
+
+            return true;
+        }
+    }
+
+    private final Comparator<? super K> comparator;
+    private final int maxRecords;
+    private final long maxBytes;
+    private final File directory;
+
+    private final List<Entry<K>> buffer = new ArrayList<Entry<K>>();
+    private final List<File> spills = new ArrayList<File>();
+    private long bufferBytes = 0;
+
+    RecordSorter(Comparator<? super K> comparator, int maxRecords, long maxBytes, File directory) {
+        this.comparator = comparator;
+        this.maxRecords = maxRecords;
+        this.maxBytes = maxBytes;
+        this.directory = directory;
+    }
+
+    void add(K record, WriteOperation operation) throws IOException {
+        if (!(record instanceof Serializable)) {
+            throw new IOException("sorted writes require Serializable records, got: " + record.getClass().getName());
+        }
+
+        buffer.add(new Entry<K>(record, operation));
+
+        if (record instanceof SizedDBWritable) { bufferBytes += ((SizedDBWritable) record).getWriteSize(); }
+
+        if (buffer.size() >= maxRecords || (maxBytes > 0 && bufferBytes >= maxBytes)) { spill(); }
+    }
+
+    int getSpillCount() {
+        return spills.size();
+    }
+
+    /** Hands every record added so far to the collector in key order, and empties this sorter. */
+    void drain(RecordCollector<K> collector) throws IOException {
+        if (spills.isEmpty()) {
+            sortBuffer();
+
+            for (Entry<K> entry : buffer) { collector.collect(entry.record, entry.operation); }
+
+            clearBuffer();
+            return;
+        }
+
+        if (!buffer.isEmpty()) { spill(); }
+
+        PriorityQueue<Run> runs = new PriorityQueue<Run>(spills.size(), new Comparator<Run>() {
+            public int compare(Run lhs, Run rhs) {
+                int result = comparator.compare(lhs.head.record, rhs.head.record);
+
+                // earlier spills hold earlier writes of the same key
+                return result != 0 ? result : lhs.index - rhs.index;
+            }
+        });
+
+        List<Run> open = new ArrayList<Run>();
+
+        try {
+            for (int i = 0; i < spills.size(); i++) {
+                Run run = new Run(i, spills.get(i));
+
+                open.add(run);
+
+                if (run.advance()) { runs.add(run); }
+            }
+
+            while (!runs.isEmpty()) {
+                Run run = runs.poll();
+
+                collector.collect(run.head.record, run.head.operation);
+
+                if (run.advance()) { runs.add(run); }
+            }
+        } finally {
+            for (Run run : open) { run.input.close(); }
+
+            close();
+        }
+    }
+
+    /** Deletes any spill files left behind, and the spill directory. */
+    void close() {
+        for (File spill : spills) {
+            if (spill.exists() && !spill.delete()) { LOG.warn("unable to delete spill file: " + spill); }
+        }
+
+        if (directory.exists() && !directory.delete()) {
+            LOG.warn("unable to delete spill directory: " + directory);
+        }
+
+        spills.clear();
+        clearBuffer();
+    }
+
+    private void spill() throws IOException {
+        sortBuffer();
+
+        File file = File.createTempFile("jdbc-sort-", ".spill", directory);
+        spills.add(file);
+
+        LOG.info("spilling " + buffer.size() + " sorted records to: " + file);
+
+        ObjectOutputStream output =
+            new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+
+        try {
+            for (Entry<K> entry : buffer) {
+                output.writeBoolean(true);
+                output.writeObject(entry);
+                output.reset(); // don't let the stream hold on to every record written
+            }
+
+            output.writeBoolean(false);
+        } finally {
+            output.close();
+        }
+
+        clearBuffer();
+    }
+
+    private void sortBuffer() {
+        // a stable sort, equal keys keep the order they were written in
+        Collections.sort(buffer, new Comparator<Entry<K>>() {
+            public int compare(Entry<K> lhs, Entry<K> rhs) {
+                return comparator.compare(lhs.record, rhs.record);
+            }
+        });
+    }
+
+    private void clearBuffer() {
+        buffer.clear();
+        bufferBytes = 0;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package com.twitter.maple.jdbc.db;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+/**
+ * Writes the records {@link DBOutputFormat} could not write to the database to a file, one per
+ * line, followed by the tab separated SQLState and error message. <p/> The file is only created
+ * once the first record is rejected.
+ */
+class RejectSink {
+    private final Configuration conf;
+    private final Path path;
+    private final long maxRejects;
+
+    private FSDataOutputStream output;
+    private long rejected = 0;
+
+    RejectSink(Configuration conf, Path path, long maxRejects) {
+        this.conf = conf;
+        this.path = path;
+        this.maxRejects = maxRejects;
+    }
+
+    /**
+     * Writes the given record and the reason it was rejected.
+     *
+     * @throws IOException if the record can't be written, or more than the maximum number of
+     *                     records have been rejected
+     */
+    void reject(Object record, SQLException exception) throws IOException {
+        if (maxRejects >= 0 && rejected >= maxRejects) {
+            throw new IOException("rejected more than " + maxRejects + " records, see: " + path, exception);
+        }
+
+        if (output == null) { output = path.getFileSystem(conf).create(path, false); }
+
+        String message = String.valueOf(exception.getMessage()).replaceAll("[\\t\\r\\n]+", " ");
+
+        output.write((record + "\t" + exception.getSQLState() + "\t" + message + "\n").getBytes("UTF-8"));
+
+        rejected++;
+    }
+
+    long getRejected() {
+        return rejected;
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    void close() throws IOException {
+        if (output != null) { output.close(); }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package com.twitter.maple.jdbc.db;
+
+import java.sql.SQLException;
+import java.util.Random;
+
+/**
+ * Decides if a failed batch is worth replaying, and how long {@link DBOutputFormat} backs off
+ * before doing so. <p/> A failure is transient if the SQLState of any exception in its chain starts
+ * with one of the configured SQLState classes or codes, e.g. "40" for serialization failures and
+ * deadlocks. The back off doubles with every attempt, up to a maximum, and is jittered so that
+ * writers contending on the same rows do not retry in lock step.
+ */
+class RetryPolicy {
+    private final int maxRetries;
+    private final long backoffMillis;
+    private final long maxBackoffMillis;
+    private final String[] sqlStates;
+    private final Random random = new Random();
+
+    RetryPolicy(int maxRetries, long backoffMillis, long maxBackoffMillis, String[] sqlStates) {
+        this.maxRetries = maxRetries;
+        this.backoffMillis = Math.max(1, backoffMillis);
+        this.maxBackoffMillis = Math.max(this.backoffMillis, maxBackoffMillis);
+        this.sqlStates = sqlStates;
+    }
+
+    /**
+     * @param exception the failure
+     * @param attempt   the number of retries already made, starting at zero
+     * @return true if the failed batch should be replayed
+     */
+    boolean shouldRetry(SQLException exception, int attempt) {
+        return attempt < maxRetries && isTransient(exception);
+    }
+
+    boolean isTransient(SQLException exception) {
+        Throwable throwable = exception;
+
+        while (throwable != null) {
+            if (throwable instanceof SQLException && matches(((SQLException) throwable).getSQLState())) {
+                return true;
+            }
+
+            Throwable next = throwable instanceof SQLException
+                ? ((SQLException) throwable).getNextException() : null;
+
+            throwable = next != null ? next : throwable.getCause();
+        }
+
+        return false;
+    }
+
+    private boolean matches(String sqlState) {
+        if (sqlState == null) { return false; }
+
+        for (String prefix : sqlStates) {
+            if (sqlState.startsWith(prefix.trim())) { return true; }
+        }
+
+        return false;
+    }
+
+    /**
+     * @param attempt the number of retries already made, starting at zero
+     * @return the milliseconds to sleep before the next attempt, between half and all of the
+     *         exponential back off
+     */
+    long backoffMillis(int attempt) {
+        long backoff = Math.min(maxBackoffMillis, backoffMillis << Math.min(attempt, 30));
+        long half = backoff / 2;
+
+        return half + (long) (random.nextDouble() * (backoff - half));
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package com.twitter.maple.jdbc.db;
+
+import java.sql.PreparedStatement;
+
+/**
+ * A {@link DBWritable} that can estimate how many bytes it binds to a statement. <p/> {@link
+ * DBOutputFormat} uses the estimate to execute a batch early once it holds more bytes than the
+ * configured limit.
+ */
+public interface SizedDBWritable extends DBWritable {
+
+    /**
+     * Returns the estimated size in bytes of the values bound by {@link #write(PreparedStatement)}.
+     *
+     * @return the estimated size in bytes
+     */
+    public long getWriteSize();
+
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+
+package com.twitter.maple.jdbc.db;
+
+import java.io.Serializable;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * A record addressed to one of the tables set with {@link DBOutputFormat#setMultiTableOutput}, by
+ * its index in the table names.
+ */
+public class TableRecord implements DBWritable, Serializable {
+    private final int table;
+    private final DBWritable record;
+
+    public TableRecord(int table, DBWritable record) {
+        this.table = table;
+        this.record = record;
+    }
+
+    public int getTable() {
+        return table;
+    }
+
+    public DBWritable getRecord() {
+        return record;
+    }
+
+    public void write(PreparedStatement statement) throws SQLException {
+        record.write(statement);
+    }
+
+    public void readFields(ResultSet resultSet) throws SQLException {
+        record.readFields(resultSet);
+    }
+
+    @Override
+    public String toString() {
+        return table + "\t" + record;
+    }
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package com.twitter.maple.jdbc.db;
+
+/**
+ * The vendor syntax {@link DBOutputFormat} uses to insert a row, or update it if a row with the same
+ * key already exists, in a single statement. <p/> Every dialect but {@link #MYSQL} resolves conflicts
+ * on the output update field names, so those must be given.
+ */
+public enum UpsertDialect {
+    /** MySQL: {@code INSERT ... ON DUPLICATE KEY UPDATE ...} */
+    MYSQL,
+    /** PostgreSQL 9.5+: {@code INSERT ... ON CONFLICT (keys) DO UPDATE SET ...} */
+    POSTGRES,
+    /** SQL:2003: {@code MERGE INTO ... USING (VALUES ...) ON ... WHEN MATCHED ... WHEN NOT MATCHED ...} */
+    MERGE,
+    /** H2: {@code MERGE INTO ... KEY (keys) VALUES ...} */
+    H2
+}
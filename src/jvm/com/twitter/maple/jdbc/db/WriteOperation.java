@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+
+package com.twitter.maple.jdbc.db;
+
+/**
+ * The statement {@link DBOutputFormat} writes a record with. <p/> A record collected with a null value is
+ * inserted, with any other value updated, unless the value is one of these operations.
+ */
+public enum WriteOperation {
+    /** {@code INSERT}, or an upsert if an {@link UpsertDialect} is set */
+    INSERT,
+    /** {@code UPDATE ... WHERE} the output update field names match */
+    UPDATE,
+    /** {@code DELETE ... WHERE} the output update field names match, requires deletes to be enabled */
+    DELETE;
+
+    /** Returns the operation a record collected with the given value is written with. */
+    static WriteOperation of(Object value) {
+        if (value == null) { return INSERT; }
+
+        if (value instanceof WriteOperation) { return (WriteOperation) value; }
+
+        return UPDATE;
+    }
+}
@@ -0,0 +1,17 @@
+package com.twitter.maple.tap;
+
+import org.apache.hadoop.mapred.JobConf;
+
+public class TapUtil {
+
+    private TapUtil() {
+    }
+
+    /**
+     * Returns true when the given conf is being initialized by the client planning the flow, rather
+     * than from within a task, so taps only modify their resources once per flow.
+     */
+    public static boolean isClient(JobConf conf) {
+        return conf.get("mapred.task.partition") == null;
+    }
+}
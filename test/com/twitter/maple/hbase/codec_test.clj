@@ -0,0 +1,83 @@
+(ns com.twitter.maple.hbase.codec-test
+  (:use clojure.test
+        com.twitter.maple.hbase.test-util)
+  (:import [cascading.tuple Fields]
+           [com.twitter.maple.hbase CellCodec HBaseScheme]
+           [org.apache.hadoop.hbase.io ImmutableBytesWritable]
+           [org.apache.hadoop.hbase.util Bytes]))
+
+(defn round-trip
+  "Encodes the value and decodes it from the middle of a larger
+  buffer."
+  [codec value]
+  (let [bytes (.encode codec value)
+        buffer (byte-array (+ 4 (alength bytes)))]
+    (System/arraycopy bytes 0 buffer 2 (alength bytes))
+    (.decode codec buffer 2 (alength bytes))))
+
+(deftest round-trips-values
+  (are [codec value] (= value (round-trip codec value))
+       CellCodec/STRING "héllo"
+       CellCodec/LONG 1234567890123
+       CellCodec/INT -42
+       CellCodec/DOUBLE 2.5
+       CellCodec/BOOLEAN true
+       CellCodec/BOOLEAN false)
+  (is (= "raw" (string-of (round-trip CellCodec/BYTES (writable "raw")))))
+  (testing "encoding values of other types"
+    (is (= 42 (round-trip CellCodec/LONG (int 42))))
+    (is (= 42 (round-trip CellCodec/INT "42")))
+    (is (= 1.0 (round-trip CellCodec/DOUBLE 1)))))
+
+(deftest checks-value-lengths
+  (are [codec] (thrown? IllegalArgumentException (.decode codec (byte-array 3) 0 3))
+       CellCodec/LONG
+       CellCodec/INT
+       CellCodec/DOUBLE
+       CellCodec/BOOLEAN))
+
+(deftest compares-by-encoding
+  (is (= CellCodec/LONG (proxy [CellCodec] [] (toString [] "long"))))
+  (is (not= CellCodec/LONG CellCodec/INT)))
+
+(defn scheme []
+  (doto (HBaseScheme. (fields "key") (into-array String ["f" "g"])
+                      (into-array Fields [(fields "count" "name") (fields "raw")]))
+    (.setCodec (fields "key" "count") CellCodec/LONG)
+    (.setCodec (fields "name") CellCodec/STRING)))
+
+(deftest rejects-unknown-fields
+  (is (thrown? IllegalArgumentException (.setCodec (scheme) (fields "other") CellCodec/LONG)))
+  (testing "and resets codecs"
+    (let [scheme (doto (scheme) (.setCodec (fields "count") nil))]
+      (is (= CellCodec/BYTES (.getCodec scheme "count")))
+      (is (= CellCodec/STRING (.getCodec scheme "name"))))))
+
+(deftest sources-typed-values
+  (doseq [zero-copy [false true]]
+    (testing (str "zero copy " zero-copy)
+      (is (= [[7 3 "three" "raw"] [8 nil nil ""]]
+             (source-tuples (doto (scheme) (.setZeroCopy zero-copy))
+                            [(row-result (cell (Bytes/toBytes 7) "f" "count" 1 (Bytes/toBytes 3))
+                                         (cell (Bytes/toBytes 7) "f" "name" 1 "three")
+                                         (cell (Bytes/toBytes 7) "g" "raw" 1 "raw"))
+                             (row-result (cell (Bytes/toBytes 8) "f" "other" 1 "x"))]
+                            #(map (fn [value] (if (instance? ImmutableBytesWritable value)
+                                                (string-of value)
+                                                value))
+                                  %)))))))
+
+(defn put-value [put family qualifier]
+  (when-let [[kv] (seq (.get put (bytes-of family) (bytes-of qualifier)))]
+    (.getValue kv)))
+
+(deftest sinks-typed-values
+  (let [[full partial] (sink-tuples (scheme) [[7 3 "three" (writable "raw")]
+                                              [8 nil nil (writable "")]])]
+    (is (= 7 (Bytes/toLong (.getRow full))))
+    (is (= 3 (Bytes/toLong (put-value full "f" "count"))))
+    (is (= "three" (string-of (put-value full "f" "name"))))
+    (is (= "raw" (string-of (put-value full "g" "raw"))))
+    (testing "skipping nulls"
+      (is (= 8 (Bytes/toLong (.getRow partial))))
+      (is (= [["g" "raw" ""]] (put-cells partial))))))
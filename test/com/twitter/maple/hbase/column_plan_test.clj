@@ -0,0 +1,58 @@
+(ns com.twitter.maple.hbase.column-plan-test
+  (:use clojure.test
+        com.twitter.maple.hbase.test-util
+        [com.twitter.maple.jdbc.test-util :only [call construct]])
+  (:import [java.util HashMap]
+           [cascading.tuple Fields]
+           [com.twitter.maple.hbase HBaseScheme]))
+
+(defn field-value [obj name]
+  (let [field (.getDeclaredField (class obj) name)]
+    (.setAccessible field true)
+    (.get field obj)))
+
+(defn column-plan [family-names value-fields tuple-fields]
+  (construct "com.twitter.maple.hbase.ColumnPlan"
+             (when family-names (into-array String family-names))
+             (fields "key")
+             (into-array Fields value-fields)
+             nil
+             (HashMap.)
+             tuple-fields))
+
+(deftest resolves-columns-and-positions-once
+  (let [plan (column-plan ["g" "f"] [(fields "b" "a") (fields "c")]
+                          (fields "c" "key" "a" "b"))]
+    (is (= 1 (field-value plan "keyPosition")))
+    (is (= ["g" "g" "f"] (map string-of (field-value plan "families"))))
+    (is (= ["b" "a" "c"] (map string-of (field-value plan "qualifiers"))))
+    (is (= [3 2 0] (seq (field-value plan "valuePositions"))))
+    (testing "in the column order of a Result"
+      (is (= [2 1 0] (seq (field-value plan "sortedColumns")))))))
+
+(deftest splits-qualified-column-names
+  (let [plan (column-plan nil [(fields "f:a" "g")] (fields "key" "f:a" "g"))]
+    (is (= ["f" "g"] (map string-of (field-value plan "families"))))
+    (is (= ["a" ""] (map string-of (field-value plan "qualifiers"))))))
+
+(deftest compares-cells-to-columns-in-place
+  (let [plan (column-plan ["f"] [(fields "b" "c")] (fields "key" "b" "c"))
+        kv (cell "row" "f" "b" 1 "value")]
+    (is (zero? (call plan "compare" kv (int 0))))
+    (is (neg? (call plan "compare" kv (int 1))))
+    (is (pos? (call plan "compare" (cell "row" "g" "a" 1 "value") (int 1))))))
+
+(def scheme
+  (HBaseScheme. (fields "key") (into-array String ["f" "g"])
+                (into-array Fields [(fields "a" "b") (fields "c")])))
+
+(deftest sources-tuples-through-the-plan
+  (is (= [["r1" "1" "" "3"] ["r2" "" "2" ""]]
+         (source-tuples scheme [(row-result (cell "r1" "f" "a" 1 "1") (cell "r1" "g" "c" 1 "3"))
+                                (row-result (cell "r2" "f" "b" 1 "2"))]
+                        #(map string-of %)))))
+
+(deftest sinks-tuples-through-the-plan
+  (let [[put] (sink-tuples scheme [[(writable "r1") (writable "1") (writable "2") (writable "3")]])]
+    (is (= "r1" (string-of (.getRow put))))
+    (is (= #{["f" "a" "1"] ["f" "b" "2"] ["g" "c" "3"]} (set (put-cells put))))))
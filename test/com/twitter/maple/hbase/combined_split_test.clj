@@ -0,0 +1,82 @@
+(ns com.twitter.maple.hbase.combined-split-test
+  (:use clojure.test
+        com.twitter.maple.hbase.test-util)
+  (:import [com.twitter.maple.hbase HBaseScheme HBaseTap]
+           [com.twitter.maple.hbase.mapred CombinedTableSplit]
+           [org.apache.hadoop.hbase.mapred TableSplit]
+           [org.apache.hadoop.io DataInputBuffer DataOutputBuffer]
+           [java.io IOException]))
+
+;; region servers report their loads often, so store file sizes are
+;; seen soon after flushing
+(use-fixtures :once (cluster-fixture {"hbase.regionserver.msginterval" 100}))
+
+(defn source-conf [table combine-split-size]
+  (let [tap (doto (HBaseTap. table (HBaseScheme. (fields "key") "f" (fields "a")))
+              (.setCombineSplitSize combine-split-size))]
+    (doto (cluster-conf) (->> (.sourceConfInit tap nil)))))
+
+(defn regions [split]
+  (for [region (if (instance? CombinedTableSplit split) (.getSplits split) [split])]
+    [(string-of (.getStartRow region)) (string-of (.getEndRow region))]))
+
+(deftest combines-small-regions
+  (let [table (create-table "small" ["f"] "b" "c" "d")
+        rows ["a" "b" "bb" "c" "d" "e"]]
+    (put-cells! table (for [row rows] [row "f" "a" 1 row]))
+    (let [conf (source-conf "small" (* 2 1024 1024))
+          format (input-format conf)
+          splits (.getSplits format conf 0)]
+      (testing "counting each region as a megabyte"
+        (is (= [[["" "b"] ["b" "c"]] [["c" "d"] ["d" ""]]] (map regions splits)))
+        (is (every? #(instance? CombinedTableSplit %) splits))
+        (is (= [(* 2 1024 1024)] (distinct (map #(.getLength %) splits)))))
+      (testing "reading every region of a split"
+        (is (= rows (map first (mapcat #(read-split format % conf) splits))))))
+    (testing "keeping regions apart below a megabyte"
+      (let [conf (source-conf "small" 0)
+            splits (.getSplits (input-format conf) conf 0)]
+        (is (= 4 (count splits)))
+        (is (every? #(instance? TableSplit %) splits))))))
+
+(deftest keeps-large-regions-apart
+  (let [table (create-table "large" ["f"] "b" "c")
+        value (apply str (repeat 1024 "x"))]
+    (put-cells! table (for [i (range 3072)] [(str "a" i) "f" "a" 1 value]))
+    (.flush *cluster* (bytes-of "large"))
+    (Thread/sleep 1000)
+    (let [conf (source-conf "large" (* 2 1024 1024))
+          splits (.getSplits (input-format conf) conf 0)]
+      (is (= [[["" "b"]] [["b" "c"] ["c" ""]]] (map regions splits))))))
+
+(deftest can-not-combine-and-divide-regions
+  (create-table "conflicting" ["f"])
+  (let [tap (doto (HBaseTap. "conflicting" (HBaseScheme. (fields "key") "f" (fields "a")))
+              (.setCombineSplitSize 1024)
+              (.setSplitsPerRegion 2))
+        conf (doto (cluster-conf) (->> (.sourceConfInit tap nil)))]
+    (is (thrown? IOException (.getSplits (input-format conf) conf 0)))))
+
+(deftest compares-taps-by-combine-split-size
+  (let [tap (doto (HBaseTap. "t" (HBaseScheme. (fields "key") "f" (fields "a")))
+              (.setCombineSplitSize 1024))
+        copy (serialize tap)]
+    (is (= tap copy))
+    (is (= (.hashCode tap) (.hashCode copy)))
+    (.setCombineSplitSize copy 2048)
+    (is (not= tap copy))
+    (is (not= (.hashCode tap) (.hashCode copy)))))
+
+(deftest writes-and-reads-its-regions
+  (let [split (CombinedTableSplit. [(TableSplit. (bytes-of "t") (bytes-of "a") (bytes-of "b") "host")
+                                    (TableSplit. (bytes-of "t") (bytes-of "b") (bytes-of "c") "host")]
+                                   42)
+        out (DataOutputBuffer.)
+        in (DataInputBuffer.)
+        read (CombinedTableSplit.)]
+    (.write split out)
+    (.reset in (.getData out) (.getLength out))
+    (.readFields read in)
+    (is (= 42 (.getLength read)))
+    (is (= [["a" "b"] ["b" "c"]] (regions read)))
+    (is (= ["host"] (seq (.getLocations read))))))
@@ -0,0 +1,97 @@
+(ns com.twitter.maple.hbase.hfile-test
+  (:use clojure.test
+        com.twitter.maple.hbase.test-util)
+  (:import [java.io IOException]
+           [com.twitter.maple.hbase HBaseScheme HBaseTap ScanConfig ScanFilter]
+           [com.twitter.maple.hbase.mapred TableInputFormat]
+           [org.apache.hadoop.hbase HColumnDescriptor]
+           [org.apache.hadoop.hbase.client Delete HTable]
+           [org.apache.hadoop.hbase.io.encoding DataBlockEncoding]
+           [org.apache.hadoop.hbase.regionserver StoreFile$BloomType]))
+
+;; store files are read as flushed, compactions would merge them
+(use-fixtures :once (cluster-fixture {"hbase.hstore.compactionThreshold" 100}))
+
+(defn delete! [table row f]
+  (.delete table (doto (Delete. (bytes-of row)) f)))
+
+(defn write-store-files!
+  "Writes the table over several flushes, so versions and deletes of
+  the same columns are spread over several store files."
+  [name & [family]]
+  (let [table (create-table name [(or family "f") "g"] "r3")
+        flush! #(.flush *cluster* (bytes-of name))]
+    (put-cells! table [["r1" "f" "a" 1 "a1"] ["r1" "f" "a" 2 "a2"]
+                       ["r2" "f" "a" 1 "a1"] ["r2" "f" "b" 1 "b1"]
+                       ["r3" "f" "a" 1 "a1"] ["r3" "f" "b" 2 "b2"] ["r3" "g" "a" 1 "ga"]
+                       ["r4" "f" "a" 1 "a1"]
+                       ["r5" "f" "a" 1 "old"]])
+    (flush!)
+    (put-cells! table [["r1" "f" "a" 3 "a3"]
+                       ["r3" "f" "a" 5 "late"]
+                       ["r5" "f" "a" 1 "new"]])
+    (flush!)
+    (delete! table "r1" #(.deleteColumn % (bytes-of "f") (bytes-of "a") 2))
+    (delete! table "r2" #(.deleteColumns % (bytes-of "f") (bytes-of "a") 2))
+    (delete! table "r3" #(.deleteFamily % (bytes-of "f") 3))
+    (delete! table "r4" #(.deleteFamily % (bytes-of "f") 3))
+    (flush!)))
+
+(defn read-cells [table read-hfiles config]
+  (let [tap (doto (HBaseTap. table (HBaseScheme. (fields "key") (into-array String ["f" "g"])
+                                                 (into-array [(fields "a" "b") (fields "a")])))
+              (.setReadHFiles read-hfiles)
+              (.setScanConfig config))
+        conf (doto (cluster-conf) (->> (.sourceConfInit tap nil)))
+        format (input-format conf)]
+    (mapcat #(read-split format % conf) (.getSplits format conf 0))))
+
+(deftest reads-what-the-region-servers-return
+  (write-store-files! "hfiles")
+  (let [all-versions (doto (ScanConfig.) (.setMaxVersions 10))]
+    (is (= [["r1" "f" "a" 3 "a3"] ["r1" "f" "a" 1 "a1"]
+            ["r2" "f" "b" 1 "b1"]
+            ["r3" "f" "a" 5 "late"] ["r3" "g" "a" 1 "ga"]
+            ["r5" "f" "a" 1 "new"]]
+           (read-cells "hfiles" true all-versions)))
+    (are [config] (= (read-cells "hfiles" false config) (read-cells "hfiles" true config))
+         all-versions
+         (ScanConfig.)
+         (doto (ScanConfig.) (.setTimeRange 2 4))
+         (doto (ScanConfig.) (.setTimeRange 1 2) (.setMaxVersions 10)))
+    (testing "within time ranges"
+      (is (= [["r1" "f" "a" 3 "a3"]]
+             (read-cells "hfiles" true (doto (ScanConfig.) (.setTimeRange 2 4))))))))
+
+(deftest reads-encoded-store-files
+  (write-store-files! "encoded"
+                      (doto (HColumnDescriptor. (bytes-of "f"))
+                        (.setMaxVersions 10)
+                        (.setDataBlockEncoding DataBlockEncoding/FAST_DIFF)
+                        (.setBloomFilterType StoreFile$BloomType/ROW)))
+  (is (= DataBlockEncoding/FAST_DIFF
+         (-> (HTable. (.getConfiguration *cluster*) (bytes-of "encoded"))
+             .getTableDescriptor (.getFamily (bytes-of "f")) .getDataBlockEncodingOnDisk)))
+  (let [all-versions (doto (ScanConfig.) (.setMaxVersions 10))]
+    (is (= (read-cells "encoded" false all-versions) (read-cells "encoded" true all-versions)))
+    (is (= 6 (count (read-cells "encoded" true all-versions))))))
+
+(deftest reads-only-flushed-writes
+  (let [table (create-table "unflushed" ["f"])]
+    (put-cells! table [["r1" "f" "a" 1 "a1"]])
+    (testing "flushing when the flow is planned"
+      (is (= [["r1" "f" "a" 1 "a1"]] (read-cells "unflushed" true (ScanConfig.)))))))
+
+(deftest rejects-scan-filters
+  (create-table "filtered" ["f"])
+  (let [scheme (doto (HBaseScheme. (fields "key") "f" (fields "a"))
+                 (.setScanFilter (ScanFilter/keyOnly)))
+        tap (doto (HBaseTap. "filtered" scheme) (.setReadHFiles true))]
+    (is (thrown? IllegalArgumentException (.sourceConfInit tap nil (cluster-conf)))))
+  (testing "when splitting"
+    (let [conf (doto (cluster-conf)
+                 (TableInputFormat/setTableName "filtered")
+                 (.set TableInputFormat/COLUMN_LIST "f:a")
+                 (.setBoolean TableInputFormat/READ_HFILES true)
+                 (TableInputFormat/setFilter (.toFilter (ScanFilter/keyOnly))))]
+      (is (thrown? IOException (.getSplits (input-format conf) conf 0))))))
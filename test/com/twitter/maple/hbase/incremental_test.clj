@@ -0,0 +1,93 @@
+(ns com.twitter.maple.hbase.incremental-test
+  (:use clojure.test
+        com.twitter.maple.hbase.test-util)
+  (:import [cascading.flow Flow]
+           [cascading.stats FlowStats]
+           [com.twitter.maple.hbase HBaseScheme HBaseTap ScanConfig]
+           [com.twitter.maple.hbase.mapred TableInputFormat]))
+
+(use-fixtures :once (cluster-fixture {}))
+
+(defn incremental-tap [table]
+  (doto (HBaseTap. table (HBaseScheme. (fields "key") "f" (fields "a")))
+    (.setIncremental (str "/incremental/" (gensym table)))))
+
+(defn plan
+  "Configures a job sourcing from the tap, as planning a flow would."
+  [tap]
+  (doto (cluster-conf) (->> (.sourceConfInit tap nil))))
+
+(defn read-rows [conf]
+  (let [format (input-format conf)]
+    (map first (mapcat #(read-split format % conf) (.getSplits format conf 0)))))
+
+(defn put-now! [table & rows]
+  (Thread/sleep 10)
+  (put-cells! table (for [row rows] [row "f" "a" (System/currentTimeMillis) row]))
+  (Thread/sleep 10))
+
+(deftest reads-the-cells-written-since-the-last-run
+  (let [table (create-table "runs" ["f"])
+        tap (incremental-tap "runs")]
+    (put-now! table "r1" "r2")
+    (let [conf (plan tap)]
+      (is (= ["r1" "r2"] (read-rows conf)))
+      (is (.commitIncremental tap conf)))
+    (put-now! table "r2" "r3")
+    (let [conf (plan tap)]
+      (is (= ["r2" "r3"] (read-rows conf)))
+      (is (.commitIncremental tap conf)))
+    (testing "nothing new"
+      (is (empty? (read-rows (plan tap)))))))
+
+(defn time-range [conf]
+  [(.getLong conf TableInputFormat/SCAN_TIME_RANGE_START -1)
+   (.getLong conf TableInputFormat/SCAN_TIME_RANGE_END -1)])
+
+(deftest reads-again-until-committed
+  (let [table (create-table "uncommitted" ["f"])
+        tap (incremental-tap "uncommitted")]
+    (put-now! table "r1")
+    (let [planned (plan tap)]
+      (is (= ["r1"] (read-rows planned)))
+      (put-now! table "r2")
+      (let [conf (plan tap)]
+        (testing "every plan reads the range fixed by the first one"
+          (is (= (time-range planned) (time-range conf)))
+          (is (= ["r1"] (read-rows conf))))
+        (is (.commitIncremental tap conf))
+        (testing "once per plan"
+          (is (not (.commitIncremental tap conf))))))
+    (testing "the next range starts where the committed one ended"
+      (is (= ["r2"] (read-rows (plan tap)))))))
+
+(defn flow [conf successful]
+  (let [stats (promise)
+        flow (reify Flow
+               (getName [_] "flow")
+               (getConfig [_] conf)
+               (getFlowStats [_] @stats))]
+    (deliver stats (proxy [FlowStats] [flow nil]
+                     (isSuccessful [] successful)))
+    flow))
+
+(deftest listener-commits-successful-flows
+  (let [table (create-table "listened" ["f"])
+        tap (incremental-tap "listened")
+        listener (.getIncrementalListener tap)]
+    (put-now! table "r1")
+    (let [conf (plan tap)]
+      (.onCompleted listener (flow conf false))
+      (is (= ["r1"] (read-rows (plan tap)))))
+    (let [conf (plan tap)]
+      (.onCompleted listener (flow conf true))
+      (is (empty? (read-rows (plan tap)))))))
+
+(deftest requires-an-incremental-tap
+  (is (thrown? IllegalStateException
+               (.commitIncremental (HBaseTap. "t" (HBaseScheme. (fields "key") "f" (fields "a")))
+                                   (cluster-conf))))
+  (testing "without a time range"
+    (is (thrown? IllegalArgumentException
+                 (plan (doto (incremental-tap "t")
+                         (.setScanConfig (doto (ScanConfig.) (.setTimeRange 1 2)))))))))
@@ -0,0 +1,74 @@
+(ns com.twitter.maple.hbase.row-range-test
+  (:use clojure.test
+        com.twitter.maple.hbase.test-util
+        [com.twitter.maple.jdbc.test-util :only [call]])
+  (:import [com.twitter.maple.hbase HBaseScheme HBaseTap]
+           [com.twitter.maple.hbase.mapred TableInputFormat]
+           [org.apache.hadoop.hbase.util Bytes]
+           [org.apache.hadoop.mapred JobConf]))
+
+(use-fixtures :once (cluster-fixture {}))
+
+(defn prefix-stop-row [& bytes]
+  (seq (TableInputFormat/getPrefixStopRow (byte-array (map unchecked-byte bytes)))))
+
+(deftest stops-after-the-last-row-of-a-prefix
+  (is (= (seq (bytes-of "ac")) (seq (TableInputFormat/getPrefixStopRow (bytes-of "ab")))))
+  (testing "dropping trailing 0xff bytes"
+    (is (= [0x61 0x63] (prefix-stop-row 0x61 0x62 0xff 0xff))))
+  (testing "at the end of the table if all bytes are 0xff"
+    (is (nil? (prefix-stop-row 0xff 0xff)))))
+
+(defn tap [table]
+  (HBaseTap. table (HBaseScheme. (fields "key") "f" (fields "a"))))
+
+(defn source-conf [tap conf]
+  (doto conf (->> (.sourceConfInit tap nil))))
+
+(deftest pushes-the-range-into-the-scan
+  (let [conf (source-conf (doto (tap "t") (.setRowRange (bytes-of "b") (bytes-of "d\u0000")))
+                          (JobConf.))
+        scan (call (TableInputFormat.) "createScan" conf (into-array String ["f"]))]
+    (is (= "b" (.get conf TableInputFormat/SCAN_START_ROW)))
+    (is (= "d\\x00" (.get conf TableInputFormat/SCAN_STOP_ROW)))
+    (is (= "b" (string-of (.getStartRow scan))))
+    (is (= "d\u0000" (string-of (.getStopRow scan)))))
+  (testing "open ends"
+    (let [conf (source-conf (doto (tap "t") (.setRowRange nil (byte-array 0))) (JobConf.))]
+      (is (nil? (.get conf TableInputFormat/SCAN_START_ROW)))
+      (is (nil? (.get conf TableInputFormat/SCAN_STOP_ROW)))))
+  (testing "prefixes"
+    (let [conf (source-conf (doto (tap "t") (.setRowPrefix (bytes-of "ab"))) (JobConf.))]
+      (is (= ["ab" "ac"] (map #(.get conf %) [TableInputFormat/SCAN_START_ROW
+                                              TableInputFormat/SCAN_STOP_ROW]))))))
+
+(deftest rejects-inverted-ranges
+  (is (thrown? IllegalArgumentException (.setRowRange (tap "t") (bytes-of "b") (bytes-of "a"))))
+  (.setRowRange (tap "t") (bytes-of "b") (byte-array 0)))
+
+(defn split-rows [splits]
+  (for [split splits] [(string-of (.getStartRow split)) (string-of (.getEndRow split))]))
+
+(deftest prunes-and-clips-regions-to-the-range
+  (let [table (create-table "range" ["f"] "b" "d" "f")]
+    (put-cells! table (for [row ["a" "b" "c" "cc" "d" "e" "f" "g"]] [row "f" "a" 1 row]))
+    (let [conf (source-conf (doto (tap "range") (.setRowRange (bytes-of "c") (bytes-of "e")))
+                            (cluster-conf))
+          format (input-format conf)
+          splits (.getSplits format conf 0)]
+      (is (= [["c" "d"] ["d" "e"]] (split-rows splits)))
+      (is (= ["c" "cc" "d"] (map first (mapcat #(read-split format % conf) splits)))))
+    (testing "prefixes in the last region"
+      (let [conf (source-conf (doto (tap "range") (.setRowPrefix (bytes-of "g"))) (cluster-conf))
+            format (input-format conf)
+            splits (.getSplits format conf 0)]
+        (is (= [["g" "h"]] (split-rows splits)))
+        (is (= ["g"] (map first (mapcat #(read-split format % conf) splits))))))
+    (testing "ranges between rows"
+      (let [conf (source-conf (doto (tap "range") (.setRowRange (bytes-of "ca") (bytes-of "cb")))
+                              (cluster-conf))]
+        (is (= [["ca" "cb"]] (split-rows (.getSplits (input-format conf) conf 0))))))
+    (testing "the whole table without a range"
+      (let [conf (source-conf (tap "range") (cluster-conf))]
+        (is (= [["" "b"] ["b" "d"] ["d" "f"] ["f" ""]]
+               (split-rows (.getSplits (input-format conf) conf 0))))))))
@@ -0,0 +1,68 @@
+(ns com.twitter.maple.hbase.scan-config-test
+  (:use clojure.test
+        [com.twitter.maple.jdbc.test-util :only [call]])
+  (:import [cascading.tuple Fields]
+           [com.twitter.maple.hbase HBaseScheme HBaseTap ScanConfig]
+           [com.twitter.maple.hbase.mapred TableInputFormat]
+           [org.apache.hadoop.hbase HConstants]
+           [org.apache.hadoop.hbase.util Bytes]
+           [org.apache.hadoop.mapred JobConf]))
+
+(defn fields [& names]
+  (Fields. (into-array Comparable names)))
+
+(defn create-scan [conf & columns]
+  (call (TableInputFormat.) "createScan" conf (into-array String columns)))
+
+(def scan-keys
+  [TableInputFormat/SCAN_CACHING TableInputFormat/SCAN_BATCH
+   TableInputFormat/SCAN_CACHE_BLOCKS TableInputFormat/SCAN_MAX_VERSIONS
+   TableInputFormat/SCAN_TIME_RANGE_START TableInputFormat/SCAN_TIME_RANGE_END
+   HConstants/HBASE_CLIENT_SCANNER_MAX_RESULT_SIZE_KEY])
+
+(deftest leaves-unset-settings-to-the-client-defaults
+  (let [conf (doto (JobConf. false) (->> (.configure (ScanConfig.))))]
+    (is (every? nil? (map #(.get conf %) scan-keys)))
+    (let [scan (create-scan conf "f")]
+      (is (= 1 (.getMaxVersions scan)))
+      (is (.getCacheBlocks scan))
+      (is (= [0 Long/MAX_VALUE] [(.getMin (.getTimeRange scan)) (.getMax (.getTimeRange scan))])))))
+
+(deftest configures-the-scan
+  (let [config (doto (ScanConfig.)
+                 (.setCaching 500)
+                 (.setBatch 100)
+                 (.setCacheBlocks false)
+                 (.setMaxVersions 3)
+                 (.setTimeRange 10 20)
+                 (.setMaxResultSize 1048576))
+        conf (doto (JobConf. false) (->> (.configure config)))
+        scan (create-scan conf "f")]
+    (is (= 500 (.getCaching scan)))
+    (is (= 100 (.getBatch scan)))
+    (is (not (.getCacheBlocks scan)))
+    (is (= 3 (.getMaxVersions scan)))
+    (is (= [10 20] [(.getMin (.getTimeRange scan)) (.getMax (.getTimeRange scan))]))
+    (is (= 1048576 (.getLong conf HConstants/HBASE_CLIENT_SCANNER_MAX_RESULT_SIZE_KEY 0)))))
+
+(deftest scans-families-and-qualified-columns
+  (let [scan (create-scan (JobConf. false) "f" "g:a" "g:b")
+        family-map (.getFamilyMap scan)]
+    (is (nil? (.get family-map (Bytes/toBytes "f"))))
+    (is (= #{"a" "b"} (set (map #(Bytes/toString %) (.get family-map (Bytes/toBytes "g"))))))))
+
+(deftest rejects-invalid-time-ranges
+  (is (thrown? IllegalArgumentException (.setTimeRange (ScanConfig.) 20 10)))
+  (is (thrown? IllegalArgumentException (.setTimeRange (ScanConfig.) -1 10))))
+
+(deftest tap-writes-its-scan-config
+  (let [tap (doto (HBaseTap. "t" (HBaseScheme. (fields "key") "f" (fields "a" "b")))
+              (.setScanConfig (doto (ScanConfig.) (.setCaching 1000))))
+        conf (doto (JobConf.) (->> (.sourceConfInit tap nil)))]
+    (is (= "t" (TableInputFormat/getTableName conf)))
+    (is (= "f:a f:b" (.get conf TableInputFormat/COLUMN_LIST)))
+    (is (= 1000 (.getInt conf TableInputFormat/SCAN_CACHING 0)))))
+
+(deftest compares-by-settings
+  (is (= (doto (ScanConfig.) (.setCaching 10)) (doto (ScanConfig.) (.setCaching 10))))
+  (is (not= (doto (ScanConfig.) (.setCaching 10)) (doto (ScanConfig.) (.setBatch 10)))))
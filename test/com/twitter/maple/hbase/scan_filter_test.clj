@@ -0,0 +1,88 @@
+(ns com.twitter.maple.hbase.scan-filter-test
+  (:use clojure.test
+        com.twitter.maple.hbase.test-util)
+  (:import [com.twitter.maple.hbase HBaseScheme HBaseTap ScanFilter]
+           [com.twitter.maple.hbase.mapred TableInputFormat]
+           [org.apache.hadoop.hbase.filter ColumnPrefixFilter CompareFilter$CompareOp FilterList
+            FilterList$Operator KeyOnlyFilter PrefixFilter RowFilter SingleColumnValueFilter
+            TimestampsFilter]
+           [org.apache.hadoop.mapred JobConf]))
+
+(use-fixtures :once (cluster-fixture {}))
+
+(def equal CompareFilter$CompareOp/EQUAL)
+
+(deftest compiles-to-hbase-filters
+  (are [filter type] (instance? type (.toFilter filter))
+       (ScanFilter/rowPrefix (bytes-of "a")) PrefixFilter
+       (ScanFilter/row equal (bytes-of "a")) RowFilter
+       (ScanFilter/columnValue "f" "a" equal (bytes-of "1")) SingleColumnValueFilter
+       (ScanFilter/qualifierPrefix "a") ColumnPrefixFilter
+       (ScanFilter/keyOnly) KeyOnlyFilter
+       (ScanFilter/timestamps (long-array [1 2])) TimestampsFilter)
+  (testing "skipping rows missing the column"
+    (is (.getFilterIfMissing (.toFilter (ScanFilter/columnValue "f" "a" equal (bytes-of "1"))))))
+  (testing "combined in lists"
+    (let [filter (.toFilter (ScanFilter/or (into-array ScanFilter [(ScanFilter/keyOnly)
+                                                                   (ScanFilter/rowPrefix (bytes-of "a"))])))]
+      (is (= FilterList$Operator/MUST_PASS_ONE (.getOperator filter)))
+      (is (= [KeyOnlyFilter PrefixFilter] (map class (.getFilters filter)))))))
+
+(deftest compares-by-predicate
+  (let [filter (ScanFilter/and (into-array ScanFilter [(ScanFilter/rowPrefix (bytes-of "a"))
+                                                       (ScanFilter/timestamps (long-array [1]))]))]
+    (is (= filter (ScanFilter/and (into-array ScanFilter [(ScanFilter/rowPrefix (bytes-of "a"))
+                                                          (ScanFilter/timestamps (long-array [1]))]))))
+    (is (not= filter (ScanFilter/or (into-array ScanFilter [(ScanFilter/rowPrefix (bytes-of "a"))
+                                                            (ScanFilter/timestamps (long-array [1]))]))))
+    (testing "once planned"
+      (is (= filter (serialize filter))))))
+
+(deftest stores-the-filter-in-the-job
+  (let [conf (doto (JobConf. false)
+               (TableInputFormat/setFilter (.toFilter (ScanFilter/rowPrefix (bytes-of "a")))))
+        filter (TableInputFormat/getFilter conf)]
+    (is (instance? FilterList filter))
+    (is (= "a" (string-of (.getPrefix (first (.getFilters filter))))))
+    (testing "without wrapping lists again"
+      (TableInputFormat/setFilter conf filter)
+      (is (= [PrefixFilter] (map class (.getFilters (TableInputFormat/getFilter conf)))))))
+  (is (nil? (TableInputFormat/getFilter (JobConf. false)))))
+
+(defn scheme [filter]
+  (doto (HBaseScheme. (fields "key") "f" (fields "a" "b"))
+    (.setScanFilter filter)))
+
+(deftest scheme-writes-its-filter
+  (let [conf (doto (JobConf. false) (->> (.sourceConfInit (scheme (ScanFilter/keyOnly)) nil nil)))]
+    (is (= [KeyOnlyFilter] (map class (.getFilters (TableInputFormat/getFilter conf))))))
+  (is (nil? (.get (doto (JobConf. false) (->> (.sourceConfInit (scheme nil) nil nil)))
+                  TableInputFormat/SCAN_FILTER))))
+
+(defn read-filtered [table filter]
+  (let [conf (doto (cluster-conf) (->> (.sourceConfInit (HBaseTap. table (scheme filter)) nil)))
+        format (input-format conf)]
+    (set (mapcat #(read-split format % conf) (.getSplits format conf 0)))))
+
+(deftest filters-on-the-region-servers
+  (put-cells! (create-table "filtered" ["f"])
+              [["a1" "f" "a" 1 "1"] ["a1" "f" "b" 2 "2"]
+               ["a2" "f" "a" 1 "2"]
+               ["b1" "f" "a" 2 "1"] ["b1" "f" "b" 1 "3"]
+               ["b2" "f" "b" 2 "1"]])
+  (are [filter cells] (= (set cells) (read-filtered "filtered" filter))
+       (ScanFilter/rowPrefix (bytes-of "a"))
+       [["a1" "f" "a" 1 "1"] ["a1" "f" "b" 2 "2"] ["a2" "f" "a" 1 "2"]]
+
+       (ScanFilter/columnValue "f" "a" equal (bytes-of "1"))
+       [["a1" "f" "a" 1 "1"] ["a1" "f" "b" 2 "2"] ["b1" "f" "a" 2 "1"] ["b1" "f" "b" 1 "3"]]
+
+       (ScanFilter/qualifierPrefix "b")
+       [["a1" "f" "b" 2 "2"] ["b1" "f" "b" 1 "3"] ["b2" "f" "b" 2 "1"]]
+
+       (ScanFilter/timestamps (long-array [2]))
+       [["a1" "f" "b" 2 "2"] ["b1" "f" "a" 2 "1"] ["b2" "f" "b" 2 "1"]]
+
+       (ScanFilter/and (into-array ScanFilter [(ScanFilter/rowPrefix (bytes-of "b"))
+                                               (ScanFilter/keyOnly)]))
+       [["b1" "f" "a" 2 ""] ["b1" "f" "b" 1 ""] ["b2" "f" "b" 2 ""]]))
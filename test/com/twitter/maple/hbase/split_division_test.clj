@@ -0,0 +1,76 @@
+(ns com.twitter.maple.hbase.split-division-test
+  (:use clojure.test
+        com.twitter.maple.hbase.test-util
+        [com.twitter.maple.jdbc.test-util :only [call]])
+  (:import [com.twitter.maple.hbase HBaseScheme HBaseTap]
+           [org.apache.hadoop.hbase.mapred TableSplit]
+           [org.apache.hadoop.hbase.util Bytes]))
+
+(use-fixtures :once (cluster-fixture {}))
+
+(defn region [start end location]
+  (TableSplit. (bytes-of "t") (bytes-of start) (bytes-of end) location))
+
+(defn divide [per-region & regions]
+  (call (com.twitter.maple.hbase.mapred.TableInputFormat.) "divideRegions"
+        (vec regions) (int per-region)))
+
+(defn bounds [splits]
+  (for [split splits]
+    [(Bytes/toStringBinary (.getStartRow split)) (Bytes/toStringBinary (.getEndRow split))]))
+
+(defn contiguous? [splits start end]
+  (let [rows (for [split splits] [(.getStartRow split) (.getEndRow split)])]
+    (and (= start (string-of (ffirst rows)))
+         (= end (string-of (second (last rows))))
+         (every? (fn [[[_ end] [start _]]] (Bytes/equals end start)) (partition 2 1 rows))
+         (every? (fn [[start end]] (or (empty? end) (neg? (Bytes/compareTo start end)))) rows))))
+
+(deftest divides-each-region-into-contiguous-splits
+  (let [splits (divide 4 (region "a" "c" "host1") (region "c" "e" "host2"))
+        [first-region second-region] (split-at 4 splits)]
+    (is (= 8 (count splits)))
+    (is (contiguous? first-region "a" "c"))
+    (is (contiguous? second-region "c" "e"))
+    (testing "located on the region's server"
+      (is (= ["host1" "host2"] (distinct (map #(.getRegionLocation %) splits)))))))
+
+(deftest divides-the-start-and-end-of-the-table
+  (let [splits (divide 3 (region "" "" "host"))]
+    (is (= 3 (count splits)))
+    (is (contiguous? splits "" ""))))
+
+(deftest keeps-regions-too-narrow-to-divide
+  (is (= [["a" "a\\x00"]] (bounds (divide 4 (region "a" "a\u0000" "host")))))
+  (testing "or not divided"
+    (is (= [["a" "c"]] (bounds (divide 1 (region "a" "c" "host")))))))
+
+(defn source-conf [splits-per-region]
+  (let [tap (doto (HBaseTap. "divided" (HBaseScheme. (fields "key") "f" (fields "a")))
+              (.setSplitsPerRegion splits-per-region))]
+    (doto (cluster-conf) (->> (.sourceConfInit tap nil)))))
+
+(deftest splits-regions-of-the-table
+  (let [table (create-table "divided" ["f"] "m")
+        rows (for [i (range 100)] (format "%c%02d" (char (+ 97 (mod i 26))) i))]
+    (put-cells! table (for [row rows] [row "f" "a" 1 "x"]))
+    (let [conf (source-conf 4)
+          format (input-format conf)
+          splits (.getSplits format conf 1)]
+      (is (= 8 (count splits)))
+      (is (contiguous? splits "" ""))
+      (testing "reading every row once"
+        (is (= (sort rows) (sort (map first (mapcat #(read-split format % conf) splits)))))))
+    (testing "honoring the number of splits requested"
+      (let [conf (source-conf 0)]
+        (is (= 6 (count (.getSplits (input-format conf) conf 5))))))))
+
+(deftest compares-taps-by-splits-per-region
+  (let [tap (doto (HBaseTap. "t" (HBaseScheme. (fields "key") "f" (fields "a")))
+              (.setSplitsPerRegion 4))
+        copy (serialize tap)]
+    (is (= tap copy))
+    (is (= (.hashCode tap) (.hashCode copy)))
+    (.setSplitsPerRegion copy 2)
+    (is (not= tap copy))
+    (is (not= (.hashCode tap) (.hashCode copy)))))
@@ -0,0 +1,74 @@
+(ns com.twitter.maple.hbase.table-reader-test
+  (:use clojure.test
+        com.twitter.maple.hbase.test-util)
+  (:import [com.twitter.maple.hbase.mapred TableRecordReader]
+           [java.io IOException]
+           [org.apache.hadoop.hbase.client HTable ResultScanner Scan]))
+
+(use-fixtures :once (cluster-fixture {}))
+
+(defn wide-rows! [table]
+  (put-cells! table (for [row ["r1" "r2"]
+                          qualifier ["a" "b" "c"]]
+                      [row "f" qualifier 1 qualifier]))
+  (put-cells! table [["r3" "f" "a" 1 "a"]]))
+
+(defn failing-scanner
+  "Returns a scanner failing on the nth call to next, and delegating
+  to the given scanner otherwise."
+  [^ResultScanner scanner n]
+  (let [calls (atom 0)]
+    (reify ResultScanner
+      (next [_]
+        (if (= n (swap! calls inc))
+          (throw (IOException. "scanner timed out"))
+          (.next scanner)))
+      (close [_] (.close scanner))
+      (iterator [_] (.iterator scanner)))))
+
+(defn failing-table
+  "Returns the table, whose first scanner fails on the nth call to
+  next."
+  [name n]
+  (let [failed (atom false)]
+    (proxy [HTable] [(.getConfiguration *cluster*) (bytes-of name)]
+      (getScanner [scan]
+        (let [scanner (proxy-super getScanner ^Scan scan)]
+          (if (compare-and-set! failed false true)
+            (failing-scanner scanner n)
+            scanner))))))
+
+(defn read-rows
+  "Returns the rows read, with the number of cells of each."
+  [reader]
+  (let [key (.createKey reader)
+        value (.createValue reader)]
+    (try
+      (doall (for [_ (take-while identity (repeatedly #(.next reader key value)))]
+               [(string-of key) (.size value)]))
+      (finally (.close reader)))))
+
+(defn batched [batch]
+  (doto (Scan.) (.setBatch batch)))
+
+(deftest merges-the-batches-of-a-row
+  (let [table (create-table "batched" ["f"])]
+    (wide-rows! table)
+    (is (= [["r1" 3] ["r2" 3] ["r3" 1]]
+           (read-rows (TableRecordReader. table (batched 2)))))
+    (is (= [["r1" 3] ["r2" 3] ["r3" 1]]
+           (read-rows (TableRecordReader. table (batched 1)))))))
+
+(deftest recovers-after-the-row-returned
+  (let [table (create-table "recovered" ["f"])]
+    (wide-rows! table)
+    (testing "without batches"
+      (is (= [["r1" 3] ["r2" 3] ["r3" 1]]
+             (read-rows (TableRecordReader. (failing-table "recovered" 2) (Scan.))))))
+    (testing "skipping every batch of the row returned"
+      ;; r1 is read as two batches, the failure hits the second batch of r2
+      (is (= [["r1" 3] ["r2" 3] ["r3" 1]]
+             (read-rows (TableRecordReader. (failing-table "recovered" 4) (batched 2))))))
+    (testing "failing before any row was returned"
+      (is (thrown? IOException
+                   (read-rows (TableRecordReader. (failing-table "recovered" 1) (Scan.))))))))
@@ -0,0 +1,167 @@
+(ns com.twitter.maple.hbase.test-util
+  (:import [cascading.scheme ConcreteCall]
+           [cascading.tuple Fields Tuple TupleEntry]
+           [com.twitter.maple.hbase.mapred TableInputFormat]
+           [org.apache.hadoop.hbase HBaseTestingUtility HColumnDescriptor HTableDescriptor KeyValue]
+           [org.apache.hadoop.hbase.client HTable Put Result]
+           [org.apache.hadoop.hbase.io ImmutableBytesWritable]
+           [org.apache.hadoop.hbase.util Bytes]
+           [org.apache.hadoop.mapred JobConf OutputCollector RecordReader]
+           [java.io ByteArrayInputStream ByteArrayOutputStream ObjectInputStream
+            ObjectOutputStream]))
+
+(defn fields [& names]
+  (Fields. (into-array Comparable names)))
+
+(defn bytes-of [value]
+  (if (instance? String value) (Bytes/toBytes ^String value) value))
+
+(defn writable [value]
+  (ImmutableBytesWritable. (bytes-of value)))
+
+(defn string-of
+  "Returns the given bytes, or the bytes of the given writable, as a
+  string."
+  [value]
+  (if (instance? ImmutableBytesWritable value)
+    (Bytes/toString (.get value) (.getOffset value) (.getLength value))
+    (Bytes/toString value)))
+
+(defn cell
+  "Returns a KeyValue of the given row, column, timestamp and value."
+  [row family qualifier timestamp value]
+  (KeyValue. (bytes-of row) (bytes-of family) (bytes-of qualifier) (long timestamp)
+             (bytes-of value)))
+
+(defn row-result
+  "Returns a Result of the given cells, sorted as a region server
+  would."
+  [& cells]
+  (Result. (into-array KeyValue (sort KeyValue/COMPARATOR cells))))
+
+(defn result-reader
+  "Returns a RecordReader returning the given Results, keyed by their
+  rows."
+  [results]
+  (let [remaining (atom results)]
+    (reify RecordReader
+      (createKey [_] (ImmutableBytesWritable.))
+      (createValue [_] (Result.))
+      (next [_ key value]
+        (if-let [[result & more] (seq @remaining)]
+          (do (.set key (.getRow result))
+              (.copyFrom value result)
+              (reset! remaining more)
+              true)
+          false))
+      (getPos [_] 0)
+      (getProgress [_] (float 0))
+      (close [_]))))
+
+(defn source-tuples
+  "Sources the given Results through the scheme, returning the values
+  of each tuple, converted by f as they are sourced, since the key is
+  reused for every row read."
+  [scheme results f]
+  (let [call (doto (ConcreteCall.)
+               (.setInput (result-reader results))
+               (.setIncomingEntry (TupleEntry. (.getSourceFields scheme))))]
+    (.sourcePrepare scheme nil call)
+    (loop [tuples []]
+      (if (.source scheme nil call)
+        (recur (conj tuples (doall (f (seq (.getTuple (.getIncomingEntry call)))))))
+        tuples))))
+
+(defn serialize
+  "Returns a copy of the object through java serialization, as
+  Cascading ships taps and schemes to the tasks."
+  [object]
+  (let [out (ByteArrayOutputStream.)]
+    (with-open [objects (ObjectOutputStream. out)]
+      (.writeObject objects object))
+    (with-open [objects (ObjectInputStream. (ByteArrayInputStream. (.toByteArray out)))]
+      (.readObject objects))))
+
+(defn sink-tuples
+  "Sinks the given tuples through the scheme, returning the Puts
+  collected."
+  [scheme tuples]
+  (let [puts (atom [])
+        call (doto (ConcreteCall.)
+               (.setOutput (reify OutputCollector
+                             (collect [_ key value] (swap! puts conj value)))))]
+    (.sinkPrepare scheme nil call)
+    (doseq [values tuples]
+      (.setOutgoingEntry call (TupleEntry. (.getSinkFields scheme)
+                                           (Tuple. (into-array Object values))))
+      (.sink scheme nil call))
+    @puts))
+
+(defn put-cells
+  "Returns the cells of the given Put as [family qualifier value]
+  strings, in column order."
+  [put]
+  (for [[_ kvs] (.getFamilyMap put)
+        kv kvs]
+    [(Bytes/toString (.getFamily kv)) (Bytes/toString (.getQualifier kv))
+     (Bytes/toString (.getValue kv))]))
+
+(def ^:dynamic *cluster* nil)
+
+(defn cluster-fixture
+  "Returns a fixture running the tests against a mini cluster started
+  with the given settings."
+  [settings]
+  (fn [f]
+    (let [cluster (HBaseTestingUtility.)]
+      (doseq [[name value] settings]
+        (.set (.getConfiguration cluster) name (str value)))
+      (.startMiniCluster cluster)
+      (try
+        (binding [*cluster* cluster] (f))
+        (finally (.shutdownMiniCluster cluster))))))
+
+(defn cluster-conf []
+  (JobConf. (.getConfiguration *cluster*)))
+
+(defn create-table
+  "Creates a table of the given families, names or descriptors, split
+  at the given rows, and returns it."
+  [name families & split-rows]
+  (let [descriptor (HTableDescriptor. (bytes-of name))]
+    (doseq [family families]
+      (.addFamily descriptor (if (instance? HColumnDescriptor family)
+                               family
+                               (doto (HColumnDescriptor. (bytes-of family))
+                                 (.setMaxVersions 10)))))
+    (.createTable (.getHBaseAdmin *cluster*) descriptor
+                  (when (seq split-rows) (into-array (map bytes-of split-rows))))
+    (HTable. (.getConfiguration *cluster*) (bytes-of name))))
+
+(defn put-cells!
+  "Writes the given cells, as vectors of the arguments of cell, to the
+  table."
+  [table cells]
+  (.put table (vec (for [[row family qualifier ts value] cells]
+                     (doto (Put. (bytes-of row))
+                       (.add (bytes-of family) (bytes-of qualifier) (long ts)
+                             (bytes-of value)))))))
+
+(defn input-format [conf]
+  (doto (TableInputFormat.) (.configure conf)))
+
+(defn read-split
+  "Returns the cells of the rows of the split, as [row family
+  qualifier timestamp value] strings and longs."
+  [format split conf]
+  (let [reader (.getRecordReader format split conf nil)
+        key (.createKey reader)
+        value (.createValue reader)]
+    (try
+      (doall (apply concat
+                    (for [_ (take-while identity (repeatedly #(.next reader key value)))]
+                      (doall (for [kv (.raw value)]
+                               [(string-of (.getRow kv)) (string-of (.getFamily kv))
+                                (string-of (.getQualifier kv)) (.getTimestamp kv)
+                                (string-of (.getValue kv))])))))
+      (finally (.close reader)))))
@@ -0,0 +1,49 @@
+(ns com.twitter.maple.hbase.zero-copy-test
+  (:use clojure.test
+        com.twitter.maple.hbase.test-util)
+  (:import [cascading.tuple Fields]
+           [com.twitter.maple.hbase HBaseScheme]))
+
+(defn scheme [zero-copy]
+  (doto (HBaseScheme. (fields "key") (into-array String ["f" "g"])
+                      (into-array Fields [(fields "b" "a" "z") (fields "c")]))
+    (.setZeroCopy zero-copy)))
+
+(def rows
+  [(row-result (cell "r1" "f" "a" 2 "new") (cell "r1" "f" "a" 1 "old")
+               (cell "r1" "f" "b" 1 "b1") (cell "r1" "f" "y" 1 "skipped")
+               (cell "r1" "g" "c" 1 "c1"))
+   (row-result (cell "r2" "g" "c" 1 "c2"))
+   (row-result (cell "r3" "f" "y" 1 "skipped"))])
+
+(deftest sources-the-same-values-as-copies
+  (is (= (source-tuples (scheme false) rows #(map string-of %))
+         (source-tuples (scheme true) rows #(map string-of %))
+         [["r1" "b1" "new" "" "c1"] ["r2" "" "" "" "c2"] ["r3" "" "" "" ""]])))
+
+(deftest sources-views-over-the-row-buffer
+  (let [[[_ b a _ c]] (source-tuples (scheme true) (take 1 rows) identity)]
+    (is (every? pos? (map #(.getOffset %) [b a c])))
+    (testing "of the cells read"
+      (let [kvs (.raw (first rows))]
+        (is (identical? (.get a) (.getBuffer (first kvs))))
+        (is (identical? (.get c) (.getBuffer (last kvs))))))))
+
+(deftest shares-one-instance-for-missing-cells
+  (let [[[_ _ _ z1 c1] [_ b2 a2 z2]] (source-tuples (scheme true) (take 2 rows) identity)]
+    (is (zero? (.getLength z1)))
+    (is (identical? z1 z2))
+    (is (identical? z1 b2))
+    (is (identical? z1 a2))
+    (is (not (identical? z1 c1))))
+  (testing "unlike copies"
+    (let [[[_ _ _ z1] [_ _ _ z2]] (source-tuples (scheme false) (take 2 rows) identity)]
+      (is (not (identical? z1 z2))))))
+
+(deftest compares-schemes-by-zero-copy
+  (let [scheme #(doto (HBaseScheme. (fields "key") "f" (fields "a"))
+                  (.setZeroCopy %))]
+    (is (= (scheme true) (scheme true)))
+    (is (= (.hashCode (scheme true)) (.hashCode (scheme true))))
+    (is (not= (scheme true) (scheme false)))
+    (is (not= (.hashCode (scheme true)) (.hashCode (scheme false))))))
@@ -0,0 +1,57 @@
+(ns com.twitter.maple.jdbc.adaptive-batch-size-test
+  (:use clojure.test
+        com.twitter.maple.jdbc.test-util)
+  (:import [com.twitter.maple.jdbc.db DBOutputFormat]))
+
+(defn batch-size
+  "Returns an AdaptiveBatchSize of 10 statements, growing by 5 up to 40
+  within 100ms, down to 2."
+  [max-bytes]
+  (construct "com.twitter.maple.jdbc.db.AdaptiveBatchSize"
+             (int 10) (int 2) (int 40) (int 5) 100 max-bytes))
+
+(defn statements [size]
+  (call size "getStatements"))
+
+(defn succeeded [size batch-statements batch-bytes millis]
+  (call size "succeeded" batch-statements batch-bytes millis)
+  (statements size))
+
+(deftest grows-on-fast-full-batches
+  (let [size (batch-size 0)]
+    (is (= 15 (succeeded size 10 0 5)))
+    (is (= 20 (succeeded size 15 0 100)))
+    (testing "partial batches say nothing about a larger size"
+      (is (= 20 (succeeded size 3 0 5))))
+    (testing "bounded by the maximum"
+      (dotimes [_ 10] (succeeded size 40 0 5))
+      (is (= 40 (statements size))))))
+
+(deftest halves-on-slow-or-failed-batches
+  (let [size (batch-size 0)]
+    (is (= 5 (succeeded size 10 0 101)))
+    (call size "failed")
+    (is (= 2 (statements size)))
+    (testing "bounded by the minimum"
+      (call size "failed")
+      (is (= 2 (statements size))))))
+
+(deftest keeps-to-the-statements-fitting-the-byte-limit
+  (let [size (batch-size 1000)]
+    (testing "grows up to the rows of the average size seen"
+      (is (= 15 (succeeded size 10 500 5)))
+      (is (= 20 (succeeded size 15 750 5)))
+      (is (= 20 (succeeded size 20 1000 5))))
+    (testing "shrinks right away once rows get larger"
+      (is (= 12 (succeeded size 20 3000 5))))))
+
+(deftest adapts-while-writing
+  (let [url (h2-url)
+        conf (doto (output-conf url "t" ["id" "name"] nil 2)
+               (DBOutputFormat/setAdaptiveBatchSize (int 2) (int 8) 60000))
+        _ (execute! url "CREATE TABLE t (id INT, name VARCHAR(10))")
+        counters (write-records conf (for [i (range 100)] [[i "a"]]))]
+    (is (= 100 (ffirst (query url "SELECT count(*) FROM t"))))
+    (is (< 0 (counters "ADAPTIVE_BATCH_SIZE_INCREASES")))
+    (is (= 8 (counters "ADAPTIVE_BATCH_SIZE_FINAL")))
+    (is (= (counters "BATCHES") (counters "ADAPTIVE_BATCHES")))))
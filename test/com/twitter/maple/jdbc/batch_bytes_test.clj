@@ -0,0 +1,27 @@
+(ns com.twitter.maple.jdbc.batch-bytes-test
+  (:use clojure.test
+        com.twitter.maple.jdbc.test-util)
+  (:import [com.twitter.maple.jdbc.db DBOutputFormat]))
+
+(def long-name (apply str (repeat 100 "x")))
+
+(defn write-long-rows [max-bytes]
+  (let [url (h2-url)
+        conf (doto (output-conf url "t" ["id" "name"] nil 1000)
+               (DBOutputFormat/setBatchMaxBytes max-bytes))]
+    (execute! url "CREATE TABLE t (id INT, name VARCHAR(100))")
+    (let [counters (write-records conf (for [i (range 10)] [[i long-name]]))]
+      (is (= 10 (ffirst (query url "SELECT count(*) FROM t"))))
+      counters)))
+
+(deftest executes-batches-early-at-the-byte-limit
+  ;; every row is estimated at 8 bytes for the id and 100 for the name
+  (let [counters (write-long-rows 250)]
+    (is (= 3 (counters "BYTE_LIMITED_BATCHES")))
+    (is (= 4 (counters "BATCHES")))
+    (is (= 1080 (counters "BOUND_BYTES")))))
+
+(deftest no-byte-limit-by-default
+  (let [counters (write-long-rows 0)]
+    (is (nil? (counters "BYTE_LIMITED_BATCHES")))
+    (is (= 1 (counters "BATCHES")))))
@@ -0,0 +1,67 @@
+(ns com.twitter.maple.jdbc.bisection-test
+  (:use clojure.test
+        com.twitter.maple.jdbc.test-util)
+  (:require [clojure.string :as s])
+  (:import [java.io File]
+           [com.twitter.maple.jdbc.db DBOutputFormat WriteOperation]))
+
+(defn reject-conf [url reject-path max-rejects]
+  (doto (output-conf url "t" ["id" "name"] ["id"] 10)
+    (.set "mapred.task.id" "attempt_test_0001_r_000000_0")
+    (DBOutputFormat/setRejectPath reject-path max-rejects)))
+
+(defn rejected-lines [reject-path]
+  (-> (File. reject-path "rejects-attempt_test_0001_r_000000_0")
+      slurp
+      s/split-lines))
+
+(deftest rejects-only-the-failing-rows
+  (let [url (h2-url)
+        reject-path (temp-dir)
+        ids [1 2 -3 4 5 -6 7 8]]
+    (execute! url "CREATE TABLE t (id INT PRIMARY KEY CHECK (id > 0), name VARCHAR(10))")
+    (let [counters (write-records (reject-conf url reject-path -1)
+                                  (for [id ids] [[id "a"]]))]
+      (is (= 2 (counters "REJECTED_ROWS")))
+      (is (= 6 (counters "INSERTED_ROWS")))
+      (is (= [[1] [2] [4] [5] [7] [8]] (query url "SELECT id FROM t ORDER BY id")))
+      (let [lines (rejected-lines reject-path)]
+        (is (= ["-3\ta" "-6\ta"] (map #(s/join "\t" (take 2 (s/split % #"\t"))) lines)))
+        (is (every? #(= "23513" (nth (s/split % #"\t") 2)) lines))))))
+
+(deftest rejects-updates-matching-no-row
+  (let [url (h2-url)
+        reject-path (temp-dir)]
+    (execute! url
+              "CREATE TABLE t (id INT PRIMARY KEY, name VARCHAR(10))"
+              "INSERT INTO t VALUES (1, 'a')")
+    (let [counters (write-records (reject-conf url reject-path -1)
+                                  [[["b" 1] WriteOperation/UPDATE]
+                                   [["c" 2] WriteOperation/UPDATE]])]
+      (is (= 1 (counters "REJECTED_ROWS")))
+      (is (= [[1 "b"]] (query url "SELECT id, name FROM t")))
+      (is (.startsWith (first (rejected-lines reject-path)) "c\t2\t02000")))))
+
+(deftest fails-beyond-the-maximum-rejects
+  (let [url (h2-url)]
+    (execute! url "CREATE TABLE t (id INT PRIMARY KEY CHECK (id > 0), name VARCHAR(10))")
+    (is (thrown? java.io.IOException
+                 (write-records (reject-conf url (temp-dir) 1)
+                                (for [id [1 -2 -3]] [[id "a"]]))))))
+
+(deftest fails-on-errors-not-caused-by-the-rows
+  (let [url (h2-url)
+        reject-path (temp-dir)]
+    ;; the function fails with a general error, not a data one
+    (execute! url
+              "CREATE ALIAS parse FOR \"java.lang.Integer.parseInt(java.lang.String)\""
+              "CREATE TABLE t (id INT PRIMARY KEY, name VARCHAR(10) CHECK (parse(COALESCE(name, '1')) > 0))")
+    (is (thrown? java.io.IOException
+                 (write-records (reject-conf url reject-path -1) (for [id [1 2]] [[id "a"]]))))
+    (is (not (.exists (File. reject-path "rejects-attempt_test_0001_r_000000_0"))))))
+
+(deftest fails-when-every-row-of-a-batch-is-rejected
+  (let [url (h2-url)]
+    (execute! url "CREATE TABLE t (id INT PRIMARY KEY CHECK (id > 100), name VARCHAR(10))")
+    (is (thrown-with-msg? java.io.IOException #"all 3 rows"
+          (write-records (reject-conf url (temp-dir) -1) (for [id [1 2 3]] [[id "a"]]))))))
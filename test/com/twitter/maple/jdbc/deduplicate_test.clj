@@ -0,0 +1,57 @@
+(ns com.twitter.maple.jdbc.deduplicate-test
+  (:use clojure.test
+        com.twitter.maple.jdbc.test-util)
+  (:import [com.twitter.maple.jdbc TupleRecordComparator]
+           [com.twitter.maple.jdbc.db DBOutputFormat UpsertDialect WriteOperation]))
+
+(defn dedup-conf [url fields key-position dialect]
+  (doto (output-conf url "t" fields ["id"] 100 dialect)
+    (.set TupleRecordComparator/KEY_POSITIONS (str key-position))
+    (DBOutputFormat/setDeduplicatedOutput TupleRecordComparator)
+    (DBOutputFormat/setDeleteOutput)))
+
+(defn create-table [url & rows]
+  (apply execute! url
+         "CREATE TABLE t (id INT PRIMARY KEY, name VARCHAR(10))"
+         (for [[id name] rows] (format "INSERT INTO t VALUES (%d, '%s')" id name))))
+
+(deftest last-upsert-or-tombstone-wins
+  (let [url (h2-url)
+        conf (dedup-conf url ["id" "name"] 0 UpsertDialect/H2)]
+    (create-table url [2 "old"])
+    (let [counters (write-records conf [[[1 "a"]] [[1 "b"]]
+                                        [[2 "c"]] [(tombstone [0] 2 nil) WriteOperation/DELETE]
+                                        [[3 "x"]] [(tombstone [0] 3 nil) WriteOperation/DELETE]
+                                        [[3 "y"]]])]
+      (is (= [[1 "b"] [3 "y"]] (query url "SELECT id, name FROM t ORDER BY id")))
+      (is (= 4 (counters "DEDUPLICATED_ROWS")))
+      (is (= 1 (counters "BATCHES")))
+      (is (= 2 (counters "INSERTED_ROWS")))
+      (is (= 1 (counters "DELETED_ROWS"))))))
+
+(deftest last-update-or-tombstone-wins
+  ;; without an upsert, keyed records bind their values first and keys last
+  (let [url (h2-url)
+        conf (dedup-conf url ["name" "id"] 1 nil)]
+    (create-table url [1 "a"] [2 "b"])
+    (let [counters (write-records conf [[["x" 1] WriteOperation/UPDATE]
+                                        [["y" 1] WriteOperation/UPDATE]
+                                        [["z" 2] WriteOperation/UPDATE]
+                                        [(tombstone [1] nil 2) WriteOperation/DELETE]])]
+      (is (= [[1 "y"]] (query url "SELECT id, name FROM t ORDER BY id")))
+      (is (= 2 (counters "DEDUPLICATED_ROWS")))
+      (is (= 1 (counters "UPDATED_ROWS")))
+      (is (= 1 (counters "DELETED_ROWS"))))))
+
+(deftest executes-the-batch-before-writes-it-cannot-replace
+  (let [url (h2-url)
+        conf (dedup-conf url ["name" "id"] 1 nil)]
+    (create-table url [1 "a"])
+    (let [counters (write-records conf [[["c" 3]]
+                                        [(tombstone [1] nil 3) WriteOperation/DELETE]
+                                        [["d" 3]]
+                                        [(tombstone [1] nil 1) WriteOperation/DELETE]
+                                        [["e" 1]]])]
+      (is (= [[1 "e"] [3 "d"]] (query url "SELECT id, name FROM t ORDER BY id")))
+      (is (= 2 (counters "ORDER_LIMITED_BATCHES")))
+      (is (= 0 (counters "DEDUPLICATED_ROWS" 0))))))
@@ -0,0 +1,82 @@
+(ns com.twitter.maple.jdbc.deferred-index-test
+  (:use clojure.test
+        com.twitter.maple.jdbc.test-util)
+  (:import [cascading.tap SinkMode]
+           [com.twitter.maple.jdbc IndexDesc JDBCScheme JDBCTap TableDesc]
+           [org.apache.hadoop.mapred JobConf]))
+
+(defn table-desc [& indexes]
+  (TableDesc. "t"
+              (into-array String ["id" "name"])
+              (into-array String ["INT NOT NULL" "VARCHAR(10)"])
+              (into-array String ["id"])
+              (into-array IndexDesc indexes)))
+
+(deftest index-statements
+  (let [desc (table-desc (IndexDesc. "t_name" (into-array String ["name"]))
+                         (IndexDesc. "t_id_name" true (into-array String ["id" "name"])))]
+    (is (= ["CREATE INDEX t_name ON t ( name )"
+            "CREATE UNIQUE INDEX t_id_name ON t ( id, name )"]
+           (.getCreateIndexStatements desc)))
+    (is (= ["DROP INDEX t_name" "DROP INDEX t_id_name"]
+           (.getDropIndexStatements desc)))
+    (is (empty? (.getCreateIndexStatements (table-desc))))))
+
+(deftest indexes-require-columns
+  (is (thrown? IllegalArgumentException
+               (IndexDesc. "t_name" (into-array String [])))))
+
+(defn index-names [url]
+  (set (map first (query url "SELECT index_name FROM information_schema.indexes WHERE table_name = 'T' AND index_name LIKE 'T_%'"))))
+
+(defn deferring-tap [url]
+  (doto (JDBCTap. url "org.h2.Driver"
+                  (table-desc (IndexDesc. "t_name" (into-array String ["name"])))
+                  (JDBCScheme. (into-array String ["id" "name"]))
+                  SinkMode/UPDATE)
+    (.setDeferIndexes true)))
+
+(deftest builds-deferred-indexes-on-commit
+  (let [url (h2-url)
+        tap (deferring-tap url)]
+    (testing "a new table is created without its indexes"
+      (.sinkConfInit tap nil (JobConf.))
+      (is (empty? (index-names url))))
+    (testing "indexes are built once the load commits"
+      (is (.commitResource tap (JobConf.)))
+      (is (= #{"T_NAME"} (index-names url))))
+    (testing "existing indexes are dropped before the next load"
+      (.sinkConfInit tap nil (JobConf.))
+      (is (empty? (index-names url))))
+    (testing "and restored when it fails"
+      (.rollbackResource tap (JobConf.))
+      (is (= #{"T_NAME"} (index-names url))))))
+
+(deftest leaves-indexes-alone-within-tasks
+  (let [url (h2-url)
+        tap (deferring-tap url)]
+    (.sinkConfInit tap nil (JobConf.))
+    (.commitResource tap (JobConf.))
+    (.sinkConfInit tap nil (doto (JobConf.) (.set "mapred.task.partition" "0")))
+    (is (= #{"T_NAME"} (index-names url)))))
+
+(deftest keeps-unique-indexes-while-deferring
+  (let [url (h2-url)
+        tap (doto (JDBCTap. url "org.h2.Driver"
+                            (table-desc (IndexDesc. "t_name" (into-array String ["name"]))
+                                        (IndexDesc. "t_id_name" true (into-array String ["id" "name"])))
+                            (JDBCScheme. (into-array String ["id" "name"]))
+                            SinkMode/UPDATE)
+              (.setDeferIndexes true))]
+    (testing "a new table is created with its unique indexes only"
+      (.sinkConfInit tap nil (JobConf.))
+      (is (= #{"T_ID_NAME"} (index-names url))))
+    (testing "the deferred indexes are built once the load commits"
+      (is (.commitResource tap (JobConf.)))
+      (is (= #{"T_NAME" "T_ID_NAME"} (index-names url))))
+    (testing "unique indexes are not dropped before the next load"
+      (.sinkConfInit tap nil (JobConf.))
+      (is (= #{"T_ID_NAME"} (index-names url))))
+    (testing "and the deferred ones are restored when it fails"
+      (.rollbackResource tap (JobConf.))
+      (is (= #{"T_NAME" "T_ID_NAME"} (index-names url))))))
@@ -0,0 +1,69 @@
+(ns com.twitter.maple.jdbc.metrics-test
+  (:use clojure.test
+        com.twitter.maple.jdbc.test-util)
+  (:import [com.twitter.maple.jdbc TupleRecord]
+           [com.twitter.maple.jdbc.db DBConfiguration DBCounters DBInputFormat]
+           [org.apache.hadoop.mapred JobConf]))
+
+(defn histogram [& millis]
+  (let [histogram (construct "com.twitter.maple.jdbc.db.LatencyHistogram" "latency")]
+    (doseq [m millis] (call histogram "add" (long m)))
+    histogram))
+
+(defn group-total
+  "Sums the counters of the given group."
+  [counters group]
+  (reduce + (for [[name value] counters :when (.startsWith name (str group "/"))] value)))
+
+(deftest reports-bucket-upper-bounds-as-percentiles
+  (let [h (histogram 0 1 2 3 100)]
+    (is (= 5 (call h "getCount")))
+    (is (= 2 (call h "getPercentile" 50.0)))
+    (is (= 128 (call h "getPercentile" 99.0)))
+    (is (= 1 (call h "getPercentile" 0.0))))
+  (testing "nothing recorded"
+    (is (= -1 (call (histogram) "getPercentile" 50.0))))
+  (testing "beyond the last bucket"
+    (is (= Long/MAX_VALUE (call (histogram 100000) "getPercentile" 50.0)))))
+
+(deftest publishes-buckets-as-counters
+  (let [counters (atom {})]
+    (call (histogram 0 1 3 100000) "publish" (counting-reporter counters))
+    (is (= {"latency/<= 000001ms" 2
+            "latency/<= 000004ms" 1
+            "latency/> 065536ms" 1}
+           @counters))))
+
+(deftest counts-writes-batches-and-commits
+  (let [url (h2-url)]
+    (execute! url "CREATE TABLE t (name VARCHAR(10), id INT PRIMARY KEY)")
+    (let [conf (output-conf url "t" ["name" "id"] ["id"] 2)
+          counters (write-records conf (concat (for [i (range 5)] [["a" i] nil])
+                                               (for [i (range 2)] [["b" i] (record)])))]
+      (is (= 5 (counters "INSERTED_ROWS")))
+      (is (= 2 (counters "UPDATED_ROWS")))
+      (is (= 4 (counters "BATCHES")))
+      (is (= 1 (counters "COMMITS")))
+      (is (pos? (counters "BOUND_BYTES")))
+      (testing "one histogram entry per batch and commit"
+        (is (= 4 (group-total counters DBCounters/BATCH_LATENCY_GROUP)))
+        (is (= 1 (group-total counters DBCounters/COMMIT_LATENCY_GROUP)))))))
+
+(deftest counts-rows-read-and-select-latency
+  (let [url (h2-url)
+        conf (doto (JobConf.)
+               (DBConfiguration/configureDB "org.h2.Driver" url)
+               (DBInputFormat/setInput TupleRecord "t" nil nil -1 (int 1) false
+                                       (into-array String ["id"])))
+        format (doto (DBInputFormat.) (.configure conf))
+        counters (atom {})]
+    (execute! url "CREATE TABLE t (id INT)" "INSERT INTO t VALUES (1), (2), (3)")
+    (let [reader (.getRecordReader format (first (.getSplits format conf 1)) conf
+                                   (counting-reporter counters))
+          key (.createKey reader)
+          value (.createValue reader)]
+      (while (.next reader key value))
+      (.close reader))
+    (is (= 3 (@counters "READ_ROWS")))
+    (is (contains? @counters "SELECT_MILLIS"))
+    (is (= 1 (group-total @counters DBCounters/SELECT_LATENCY_GROUP)))))
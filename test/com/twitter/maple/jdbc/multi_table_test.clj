@@ -0,0 +1,105 @@
+(ns com.twitter.maple.jdbc.multi-table-test
+  (:use clojure.test
+        com.twitter.maple.jdbc.test-util)
+  (:import [java.io IOException]
+           [cascading.tap SinkMode]
+           [com.twitter.maple.jdbc MultiTableJDBCScheme MultiTableJDBCTap TableDesc]
+           [com.twitter.maple.jdbc.db DBConfiguration DBOutputFormat TableRecord]
+           [org.apache.hadoop.mapred JobConf]))
+
+(def fields ["pid" "pname" "cid" "cname"])
+
+(defn multi-table-url []
+  (doto (h2-url)
+    (execute! "CREATE TABLE parent (pid INT PRIMARY KEY, pname VARCHAR(100))"
+              "CREATE TABLE child (cid INT PRIMARY KEY, pid INT REFERENCES parent (pid), cname VARCHAR(100))")))
+
+(defn multi-table-tap [url batch-size]
+  (doto (MultiTableJDBCTap. url "org.h2.Driver"
+                            (into-array TableDesc [(TableDesc. "parent") (TableDesc. "child")])
+                            (MultiTableJDBCScheme. (into-array [(into-array String ["pid" "pname"])
+                                                                (into-array String ["cid" "pid" "cname"])])
+                                                   nil)
+                            SinkMode/UPDATE)
+    (.setBatchSize (int batch-size))))
+
+(defn row-counts [url]
+  [(ffirst (query url "SELECT count(*) FROM parent"))
+   (ffirst (query url "SELECT count(*) FROM child"))])
+
+(deftest writes-parents-before-children
+  (let [url (multi-table-url)
+        counters (sink-tuples (multi-table-tap url 2) fields
+                              (for [i (range 5)] [i (str "p" i) (* 10 i) (str "c" i)]))]
+    (is (= [5 5] (row-counts url)))
+    (is (= [[0 0 "c0"] [40 4 "c4"]]
+           (query url "SELECT cid, pid, cname FROM child WHERE cid IN (0, 40) ORDER BY cid")))
+    (is (= 10 (counters "INSERTED_ROWS")))
+    (is (= 1 (counters "COMMITS")))))
+
+(deftest rolls-back-every-table-on-failure
+  (testing "when the last batches fail on close"
+    (let [url (multi-table-url)]
+      (is (thrown? IOException
+                   (sink-tuples (multi-table-tap url 100) fields
+                                [[1 "a" 10 "x"] [2 "b" 10 "y"]])))
+      (is (= [0 0] (row-counts url)))))
+  (testing "when a batch fails while writing"
+    (let [url (multi-table-url)]
+      (is (thrown? IOException
+                   (sink-tuples (multi-table-tap url 1) fields
+                                [[1 "a" 10 "x"] [2 "b" 10 "y"] [3 "c" 30 "z"]])))
+      (is (= [0 0] (row-counts url))))))
+
+(deftest applies-batch-settings-to-every-table
+  (testing "batch bytes"
+    (let [url (multi-table-url)
+          tap (doto (multi-table-tap url 1000) (.setBatchBytes 100))
+          counters (sink-tuples tap fields
+                                (for [i (range 10)] [i (apply str (repeat 50 "p")) i "c"]))]
+      (is (= [10 10] (row-counts url)))
+      (is (pos? (counters "BYTE_LIMITED_BATCHES")))))
+  (testing "adaptive batch sizes"
+    (let [url (multi-table-url)
+          tap (doto (multi-table-tap url 2) (.setAdaptiveBatchSize 1 8 60000))
+          counters (sink-tuples tap fields (for [i (range 20)] [i "p" i "c"]))]
+      (is (= [20 20] (row-counts url)))
+      (is (pos? (counters "ADAPTIVE_BATCH_SIZE_INCREASES"))))))
+
+(deftest rejects-unsupported-settings
+  (let [tap (multi-table-tap (h2-url) 10)
+        scheme (.getScheme tap)]
+    (are [f] (thrown? UnsupportedOperationException (f))
+         #(.setRetryPolicy tap 3 10 (into-array String []))
+         #(.setRejectPath tap "/tmp/rejects" 10)
+         #(.setSortedWrites tap 10 0)
+         #(.setDeferIndexes tap true)
+         #(.setPartitionPerTask tap true)
+         #(.setStagedWrites tap true)
+         #(.setUpsertDialect scheme com.twitter.maple.jdbc.db.UpsertDialect/MYSQL)
+         #(.setDeduplicateByKey scheme true)
+         #(.setHashColumn scheme "hash")
+         #(.setTombstoneField scheme "deleted"))
+    (.setRetryPolicy tap 0 10 (into-array String []))
+    (.setStagedWrites tap false))
+  (testing "the output format fails on settings it can't honor"
+    (let [conf (doto (JobConf.)
+                 (DBConfiguration/configureDB "org.h2.Driver" (h2-url))
+                 (DBOutputFormat/setMultiTableOutput
+                  DBOutputFormat (into-array String ["parent"])
+                  (into-array [(into-array String ["pid"])]) nil (int 10))
+                 (DBOutputFormat/setRetryPolicy 3 10 (into-array String [])))]
+      (is (thrown-with-msg? IOException #"retries"
+            (.getRecordWriter (DBOutputFormat.) nil conf "test" nil))))))
+
+(deftest reads-fields-into-the-wrapped-record
+  (let [url (multi-table-url)
+        wrapped (record nil nil)
+        table-record (TableRecord. 1 wrapped)]
+    (execute! url "INSERT INTO parent VALUES (7, 'seven')")
+    (with-open [connection (java.sql.DriverManager/getConnection url)
+                statement (.createStatement connection)
+                results (.executeQuery statement "SELECT pid, pname FROM parent")]
+      (.next results)
+      (.readFields table-record results))
+    (is (= [7 "seven"] (seq (.getTuple wrapped))))))
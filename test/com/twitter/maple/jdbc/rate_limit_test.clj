@@ -0,0 +1,74 @@
+(ns com.twitter.maple.jdbc.rate-limit-test
+  (:use clojure.test
+        com.twitter.maple.jdbc.test-util)
+  (:import [com.twitter.maple.jdbc.db DBOutputFormat]
+           [org.apache.hadoop.mapred JobConf]))
+
+(defn rate-limiter [rate]
+  (construct "com.twitter.maple.jdbc.db.RateLimiter" (double rate) (long 0)))
+
+(defn reserve
+  "Takes the permits from the limiter at the given millisecond of its
+  clock, returning the milliseconds to wait."
+  [limiter permits millis]
+  (call limiter "reserve" (long permits) (long (* millis 1000000))))
+
+(deftest lets-a-second-of-permits-through-at-once
+  (let [limiter (rate-limiter 100)]
+    (is (= 0 (reserve limiter 100 0)))
+    (testing "then waits until the debt is paid back"
+      (is (= 500 (reserve limiter 50 0))))
+    (testing "and lets the next batch through once it is"
+      (is (= 0 (reserve limiter 10 600))))))
+
+(deftest refills-at-the-rate
+  (let [limiter (rate-limiter 100)]
+    (reserve limiter 100 0)
+    (is (= 0 (reserve limiter 25 250)))
+    (is (= 500 (reserve limiter 50 250)))))
+
+(deftest holds-a-second-of-permits-at-most
+  (let [limiter (rate-limiter 100)]
+    (is (= 500 (reserve limiter 150 10000)))))
+
+(deftest lets-oversized-batches-through-and-waits-after
+  (let [limiter (rate-limiter 100)]
+    (is (= 1000 (reserve limiter 200 0))))
+  (testing "rounding the wait up"
+    (is (= 334 (reserve (rate-limiter 3) 4 0)))))
+
+(deftest sleeps-while-in-debt
+  (let [limiter (construct "com.twitter.maple.jdbc.db.RateLimiter" (double 100))
+        start (System/nanoTime)]
+    (is (= 10 (call limiter "acquire" (long 101))))
+    (is (<= 10 (quot (- (System/nanoTime) start) 1000000)))))
+
+(deftest requires-a-positive-rate
+  (is (thrown? IllegalArgumentException (rate-limiter 0))))
+
+(defn rate-tasks [conf]
+  (call (construct "com.twitter.maple.jdbc.db.DBConfiguration" conf) "getOutputRateTasks"))
+
+(deftest shares-the-rate-between-tasks
+  (is (= 4 (rate-tasks (doto (JobConf.) (DBOutputFormat/setOutputRate 100 0 (int 4))))))
+  (testing "defaults to the number of reduce tasks"
+    (is (= 3 (rate-tasks (doto (JobConf.) (.setNumReduceTasks 3))))))
+  (testing "or map tasks for map only flows"
+    (is (= 5 (rate-tasks (doto (JobConf.) (.setNumReduceTasks 0) (.setNumMapTasks 5)))))))
+
+(deftest throttles-batches-to-the-share-of-the-task
+  (let [url (h2-url)
+        ;; two tasks share 100 rows per second, so this one writes 50
+        conf (doto (output-conf url "t" ["id"] nil 50)
+               (DBOutputFormat/setOutputRate 100 0 (int 2)))]
+    (execute! url "CREATE TABLE t (id INT)")
+    (let [counters (write-records conf (for [i (range 150)] [[i]]))]
+      (is (= 150 (ffirst (query url "SELECT count(*) FROM t"))))
+      (is (pos? (counters "THROTTLED_MILLIS"))))))
+
+(deftest no-throttling-by-default
+  (let [url (h2-url)]
+    (execute! url "CREATE TABLE t (id INT)")
+    (is (zero? (get (write-records (output-conf url "t" ["id"] nil 50)
+                                   (for [i (range 150)] [[i]]))
+                    "THROTTLED_MILLIS" 0)))))
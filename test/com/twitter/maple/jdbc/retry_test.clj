@@ -0,0 +1,59 @@
+(ns com.twitter.maple.jdbc.retry-test
+  (:use clojure.test
+        com.twitter.maple.jdbc.test-util)
+  (:import [java.sql DriverManager SQLException]
+           [com.twitter.maple.jdbc.db DBOutputFormat WriteOperation]))
+
+(defn retry-policy [max-retries backoff max-backoff & states]
+  (construct "com.twitter.maple.jdbc.db.RetryPolicy"
+             (int max-retries) backoff max-backoff (into-array String states)))
+
+(defn sql-exception [state & [next]]
+  (doto (SQLException. "failed" state)
+    (.setNextException next)))
+
+(deftest retries-transient-states-only
+  (let [policy (retry-policy 2 10 100 "40" "HYT00")]
+    (is (call policy "shouldRetry" (sql-exception "40001") (int 0)))
+    (is (call policy "shouldRetry" (sql-exception "HYT00") (int 1)))
+    (testing "up to the maximum number of retries"
+      (is (not (call policy "shouldRetry" (sql-exception "40001") (int 2)))))
+    (testing "other states fail right away"
+      (is (not (call policy "shouldRetry" (sql-exception "23505") (int 0)))))
+    (testing "anywhere in the exception chain"
+      (is (call policy "shouldRetry"
+                (sql-exception "08000" (sql-exception "40P01")) (int 0))))))
+
+(deftest backs-off-exponentially-with-jitter
+  (let [policy (retry-policy 10 10 100 "40")]
+    (doseq [[attempt backoff] [[0 10] [1 20] [2 40] [3 80] [4 100] [9 100]]]
+      (dotimes [_ 20]
+        (is (<= (/ backoff 2) (call policy "backoffMillis" (int attempt)) backoff))))))
+
+(deftest replays-a-batch-after-a-lock-timeout
+  (let [url (h2-url)
+        lock-url (str url ";LOCK_TIMEOUT=50")
+        conf (doto (output-conf lock-url "t" ["name" "id"] ["id"] 10)
+               (DBOutputFormat/setRetryPolicy (int 10) 50 (into-array String ["HYT00"])))]
+    (execute! url
+              "CREATE TABLE t (id INT PRIMARY KEY, name VARCHAR(10))"
+              "INSERT INTO t VALUES (1, 'a'), (2, 'b')")
+    (with-open [locking (DriverManager/getConnection url)]
+      (.setAutoCommit locking false)
+      (with-open [statement (.createStatement locking)]
+        (.executeUpdate statement "UPDATE t SET name = 'locked' WHERE id = 1"))
+      (let [release (future (Thread/sleep 300) (.commit locking))
+            counters (write-records conf [[["c" 1] WriteOperation/UPDATE]
+                                          [["d" 2] WriteOperation/UPDATE]])]
+        @release
+        (is (<= 1 (counters "RETRIES")))
+        (is (= 2 (counters "UPDATED_ROWS")))
+        (is (= [[1 "c"] [2 "d"]] (query url "SELECT id, name FROM t ORDER BY id")))))))
+
+(deftest fails-once-retries-run-out
+  (let [url (h2-url)
+        conf (doto (output-conf url "t" ["id" "name"] nil 10)
+               (DBOutputFormat/setRetryPolicy (int 2) 1 (into-array String ["23"])))]
+    (execute! url "CREATE TABLE t (id INT PRIMARY KEY, name VARCHAR(10))")
+    (is (thrown? java.io.IOException
+                 (write-records conf [[[1 "a"]] [[1 "b"]]])))))
@@ -0,0 +1,89 @@
+(ns com.twitter.maple.jdbc.skip-unchanged-test
+  (:use clojure.test
+        com.twitter.maple.jdbc.test-util)
+  (:import [cascading.tap SinkMode]
+           [cascading.tuple Tuple]
+           [com.twitter.maple.jdbc JDBCScheme JDBCTap TableDesc]
+           [com.twitter.maple.jdbc.db DBOutputFormat UpsertDialect]))
+
+(defn hashing-scheme []
+  (doto (JDBCScheme. (into-array String ["id" "name"]) nil (into-array String ["id"]))
+    (.setHashColumn "h")))
+
+(defn hashing-tap [url]
+  (JDBCTap. url "org.h2.Driver"
+            (TableDesc. "t"
+                        (into-array String ["id" "name" "h"])
+                        (into-array String ["INT" "VARCHAR(10)" "VARCHAR(32)"])
+                        (into-array String ["id"]))
+            (hashing-scheme)
+            SinkMode/UPDATE))
+
+(deftest skips-rows-whose-hash-did-not-change
+  (let [url (h2-url)
+        tap (hashing-tap url)
+        sink #(sink-tuples tap ["id" "name"] %)]
+    (execute! url
+              "CREATE TABLE t (id INT PRIMARY KEY, name VARCHAR(10), h VARCHAR(32))"
+              "INSERT INTO t VALUES (1, 'a', NULL), (2, 'b', NULL)")
+    (testing "rows without a hash are always updated"
+      (is (= 0 (get (sink [[1 "a"] [2 "b"]]) "UNCHANGED_ROWS")))
+      (is (every? #(= 32 (count (last %))) (query url "SELECT * FROM t"))))
+    (testing "unchanged rows are skipped"
+      (is (= 2 (get (sink [[1 "a"] [2 "b"]]) "UNCHANGED_ROWS"))))
+    (testing "changed rows are updated"
+      (is (= 1 (get (sink [[1 "a"] [2 "c"]]) "UNCHANGED_ROWS")))
+      (is (= [[1 "a"] [2 "c"]] (query url "SELECT id, name FROM t ORDER BY id"))))
+    (testing "updates matching no row do not fail the task"
+      (is (= 1 (get (sink [[3 "d"]]) "UNCHANGED_ROWS"))))))
+
+(deftest skips-unchanged-binary-rows
+  (let [url (h2-url)
+        tap (JDBCTap. url "org.h2.Driver"
+                      (TableDesc. "t"
+                                  (into-array String ["id" "data" "h"])
+                                  (into-array String ["INT" "BLOB" "VARCHAR(32)"])
+                                  (into-array String ["id"]))
+                      (doto (JDBCScheme. (into-array String ["id" "data"]) nil (into-array String ["id"]))
+                        (.setHashColumn "h"))
+                      SinkMode/UPDATE)
+        sink #(sink-tuples tap ["id" "data"] %)]
+    (execute! url
+              "CREATE TABLE t (id INT PRIMARY KEY, data BLOB, h VARCHAR(32))"
+              "INSERT INTO t VALUES (1, NULL, NULL)")
+    (sink [[1 (.getBytes "a")]])
+    (is (= 1 (get (sink [[1 (.getBytes "a")]]) "UNCHANGED_ROWS")))
+    (is (= 0 (get (sink [[1 (.getBytes "b")]]) "UNCHANGED_ROWS")))))
+
+(deftest hashes-tell-values-apart
+  (let [scheme (hashing-scheme)
+        hash #(call scheme "hash" (Tuple. (into-array Object %)))]
+    (is (= (hash ["a" "b"]) (hash ["a" "b"])))
+    (is (not= (hash [nil]) (hash ["null"])))
+    (is (not= (hash ["ab" "c"]) (hash ["a" "bc"])))
+    (testing "of byte arrays by their contents"
+      (is (= (hash [(.getBytes "ab")]) (hash [(.getBytes "ab")])))
+      (is (not= (hash [(.getBytes "ab") (.getBytes "c")]) (hash [(.getBytes "a") (.getBytes "bc")])))
+      (is (not= (hash [(.getBytes "ab")]) (hash ["ab"]))))))
+
+(deftest hash-column-is-not-a-scheme-column
+  (is (thrown? IllegalArgumentException
+               (.setHashColumn (JDBCScheme. (into-array String ["id" "name"]) nil
+                                            (into-array String ["id"]))
+                               "name"))))
+
+(defn upsert-sql [dialect]
+  (call (DBOutputFormat.) "constructUpsertQuery" "t"
+        (into-array String ["id" "name" "h"]) (into-array String ["id"]) dialect "h"))
+
+(deftest hash-guarded-upserts
+  (is (= (str "INSERT INTO t (id,name,h) VALUES (?,?,?) ON CONFLICT (id)"
+              " DO UPDATE SET name=EXCLUDED.name,h=EXCLUDED.h WHERE t.h IS DISTINCT FROM EXCLUDED.h;")
+         (upsert-sql UpsertDialect/POSTGRES)))
+  (is (= (str "MERGE INTO t USING (VALUES (?,?,?)) AS src (id,name,h) ON (t.id = src.id)"
+              " WHEN MATCHED AND (t.h IS NULL OR t.h <> src.h) THEN UPDATE SET name = src.name,h = src.h"
+              " WHEN NOT MATCHED THEN INSERT (id,name,h) VALUES (src.id,src.name,src.h);")
+         (upsert-sql UpsertDialect/MERGE)))
+  (is (= (str "INSERT INTO t (id,name,h) VALUES (?,?,?) ON DUPLICATE KEY UPDATE"
+              " id=IF(h <=> VALUES(h), id, VALUES(id)),name=IF(h <=> VALUES(h), name, VALUES(name)),h=VALUES(h);")
+         (upsert-sql UpsertDialect/MYSQL))))
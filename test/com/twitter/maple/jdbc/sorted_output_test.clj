@@ -0,0 +1,73 @@
+(ns com.twitter.maple.jdbc.sorted-output-test
+  (:use clojure.test
+        com.twitter.maple.jdbc.test-util)
+  (:import [com.twitter.maple.jdbc TupleRecordComparator]
+           [com.twitter.maple.jdbc.db DBOutputFormat]
+           [org.apache.hadoop.mapred JobConf]))
+
+(defn write-shuffled [ids buffer-records buffer-bytes]
+  (let [url (h2-url)
+        conf (doto (output-conf url "t" ["id" "name"] nil 7)
+               (.set TupleRecordComparator/KEY_POSITIONS "0")
+               (DBOutputFormat/setSortedOutput TupleRecordComparator
+                                               (int buffer-records) buffer-bytes))]
+    ;; the sequence records the order rows arrived in
+    (execute! url "CREATE TABLE t (seq INT AUTO_INCREMENT PRIMARY KEY, id INT, name VARCHAR(10))")
+    [(write-records conf (for [id ids] [[id (str "n" id)]]))
+     (query url "SELECT id, name FROM t ORDER BY seq")]))
+
+(deftest writes-in-key-order-from-memory
+  (let [[counters rows] (write-shuffled (shuffle (range 50)) 1000 0)]
+    (is (= (for [id (range 50)] [id (str "n" id)]) rows))
+    (is (= 0 (counters "SORT_SPILLS")))))
+
+(deftest merges-spills-in-key-order
+  (let [ids (concat (range 200) (range 0 200 10))
+        [counters rows] (write-shuffled (shuffle ids) 16 0)]
+    (is (= (sort ids) (map first rows)))
+    (is (< 10 (counters "SORT_SPILLS")))))
+
+(deftest spills-at-the-byte-limit
+  (let [[counters rows] (write-shuffled (shuffle (range 100)) 1000 100)]
+    (is (= (range 100) (map first rows)))
+    (is (< 0 (counters "SORT_SPILLS")))))
+
+(defn files-under [dir]
+  (filter #(.isFile %) (file-seq (java.io.File. dir))))
+
+(deftest spills-to-the-local-directories-of-the-task
+  (let [url (h2-url)
+        local-dir (temp-dir)
+        spilled (atom [])
+        conf (doto (output-conf url "t" ["id" "name"] nil 7)
+               (.set "mapred.local.dir" local-dir)
+               (.set "mapred.task.id" "attempt_test_0001_r_000000_0")
+               (.set TupleRecordComparator/KEY_POSITIONS "0")
+               (DBOutputFormat/setSortedOutput TupleRecordComparator (int 4) 0))]
+    (execute! url "CREATE TABLE t (id INT CHECK (id <> 13), name VARCHAR(10))")
+    (write-records conf (for [id (take 10 (iterate inc 0))]
+                          (do (swap! spilled into (files-under local-dir))
+                              [[id "a"]])))
+    (is (seq @spilled))
+    (is (every? #(.contains (str %) "attempt_test_0001_r_000000_0") @spilled))
+    (testing "deleted once written"
+      (is (empty? (files-under local-dir))))
+    (testing "deleted when writing fails"
+      (is (thrown? java.io.IOException (write-records conf (for [id (range 20)] [[id "a"]]))))
+      (is (empty? (files-under local-dir))))))
+
+(deftest compares-keys-of-different-types
+  (let [comparator (doto (TupleRecordComparator.)
+                     (.setConf (doto (JobConf.) (.set TupleRecordComparator/KEY_POSITIONS "0"))))
+        compare-keys #(.compare comparator (record %1) (record %2))]
+    (is (pos? (compare-keys (int 10) (long 9))))
+    (is (neg? (compare-keys (long 9) 9.5)))
+    (is (zero? (compare-keys (int 10) (BigDecimal. "10.00"))))
+    (is (neg? (compare-keys (byte-array [(byte 1)]) (byte-array [(byte -1)]))))
+    (is (neg? (compare-keys (byte-array [(byte 1)]) (byte-array [(byte 1) (byte 0)]))))
+    (is (zero? (compare-keys (byte-array [(byte 1)]) (byte-array [(byte 1)]))))
+    (is (thrown? IllegalArgumentException (compare-keys 1 "1")))))
+
+(deftest sorts-nulls-first
+  (let [[_ rows] (write-shuffled [3 nil 1 nil 2] 1000 0)]
+    (is (= [nil nil 1 2 3] (map first rows)))))
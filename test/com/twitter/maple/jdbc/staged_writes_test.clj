@@ -0,0 +1,75 @@
+(ns com.twitter.maple.jdbc.staged-writes-test
+  (:use clojure.test
+        com.twitter.maple.jdbc.test-util)
+  (:import [cascading.tap SinkMode]
+           [com.twitter.maple.jdbc JDBCScheme JDBCTap TableDesc]
+           [com.twitter.maple.jdbc.db DBConfiguration DBOutputCommitter]
+           [org.apache.hadoop.mapred JobConf TaskAttemptID]))
+
+(def attempt-format "attempt_201210190000_0001_r_%06d_%d")
+
+(defn staging-tap [url]
+  (doto (JDBCTap. url "org.h2.Driver"
+                  (TableDesc. "t"
+                              (into-array String ["id" "name"])
+                              (into-array String ["INT" "VARCHAR(10)"])
+                              (into-array String []))
+                  (JDBCScheme. (into-array String ["id" "name"]))
+                  SinkMode/UPDATE)
+    (.setStagedWrites true)))
+
+(defn run-attempt
+  "Writes the given rows as the given attempt, committing it if asked
+  to, like Hadoop would for the one attempt per task allowed to."
+  [tap task attempt commit? rows]
+  (let [attempt-id (format attempt-format task attempt)
+        conf (doto (JobConf.)
+               (.set "mapred.task.id" attempt-id)
+               (.set "mapred.task.partition" (str task)))
+        committer (DBOutputCommitter.)]
+    (.sinkConfInit tap nil conf)
+    (write-records conf (for [row rows] [row]))
+    (let [context (construct "org.apache.hadoop.mapred.TaskAttemptContext"
+                             conf (TaskAttemptID/forName attempt-id))]
+      (is (.needsTaskCommit committer context))
+      (if commit?
+        (.commitTask committer context)
+        (.abortTask committer context)))))
+
+(defn table-names [url]
+  (set (map first (query url "SELECT table_name FROM information_schema.tables WHERE table_schema = 'PUBLIC'"))))
+
+(deftest merges-only-committed-attempts
+  (let [url (h2-url)
+        tap (staging-tap url)]
+    (.sinkConfInit tap nil (JobConf.))
+    (run-attempt tap 0 0 false [[1 "slow"] [2 "slow"]])
+    (run-attempt tap 0 1 true [[1 "a"] [2 "b"]])
+    (run-attempt tap 1 0 true [[3 "c"]])
+    (testing "map attempts of the same job have nothing to commit"
+      (let [conf (doto (JobConf.)
+                   (DBConfiguration/configureDB "org.h2.Driver" url)
+                   (.set DBConfiguration/OUTPUT_ATTEMPTS_TABLE_PROPERTY "t_attempts"))
+            context (construct "org.apache.hadoop.mapred.TaskAttemptContext" conf
+                               (TaskAttemptID/forName "attempt_201210190000_0001_m_000000_0"))]
+        (is (not (.needsTaskCommit (DBOutputCommitter.) context)))))
+    (testing "the target table is untouched until the flow commits"
+      (is (empty? (query url "SELECT * FROM t"))))
+    (is (.commitResource tap (JobConf.)))
+    (is (= [[1 "a"] [2 "b"] [3 "c"]] (query url "SELECT id, name FROM t ORDER BY id")))
+    (testing "all staging tables are dropped"
+      (is (= #{"T"} (table-names url))))))
+
+(deftest drops-staging-tables-on-rollback
+  (let [url (h2-url)
+        tap (staging-tap url)]
+    (.sinkConfInit tap nil (JobConf.))
+    (run-attempt tap 0 0 true [[1 "a"]])
+    (.rollbackResource tap (JobConf.))
+    (is (empty? (query url "SELECT * FROM t")))
+    (is (= #{"T"} (table-names url)))))
+
+(deftest commits-nothing-without-staging
+  (let [context (construct "org.apache.hadoop.mapred.TaskAttemptContext"
+                           (JobConf.) (TaskAttemptID/forName (format attempt-format 0 0)))]
+    (is (not (.needsTaskCommit (DBOutputCommitter.) context)))))
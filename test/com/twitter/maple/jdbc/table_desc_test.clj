@@ -0,0 +1,56 @@
+(ns com.twitter.maple.jdbc.table-desc-test
+  (:use clojure.test)
+  (:import [com.twitter.maple.jdbc TableDesc TableStorage]))
+
+(defn table-desc []
+  (TableDesc. "t"
+              (into-array String ["id" "name"])
+              (into-array String ["INT NOT NULL" "VARCHAR(10)"])
+              (into-array String ["id"])))
+
+(def columns "( id INT NOT NULL, name VARCHAR(10), PRIMARY KEY( id ) )")
+
+(deftest create-statements-by-storage
+  (is (= (str "CREATE TABLE t " columns) (.getCreateTableStatement (table-desc))))
+  (is (= (str "CREATE UNLOGGED TABLE t " columns)
+         (.getCreateTableStatement (doto (table-desc) (.setStorage TableStorage/UNLOGGED)))))
+  (is (= ["LOGGED" "UNLOGGED"] (map str (TableStorage/values)))))
+
+(deftest hash-partitions
+  (let [desc (doto (table-desc)
+               (.setStorage TableStorage/UNLOGGED)
+               (.setHashPartitions 2 (into-array String ["id"])))]
+    (testing "only the partitions are unlogged"
+      (is (= (str "CREATE TABLE t " columns " PARTITION BY HASH ( id )")
+             (.getCreateTableStatement desc)))
+      (is (= ["CREATE UNLOGGED TABLE t_p0 PARTITION OF t FOR VALUES WITH ( MODULUS 2, REMAINDER 0 )"
+              "CREATE UNLOGGED TABLE t_p1 PARTITION OF t FOR VALUES WITH ( MODULUS 2, REMAINDER 1 )"]
+             (.getCreatePartitionStatements desc))))
+    (is (= 2 (.getPartitionCount desc)))
+    (is (= "DROP TABLE t_p1" (.getDropPartitionStatement desc 1)))
+    (is (thrown? IllegalArgumentException (.getPartitionTableName desc 2)))))
+
+(deftest range-partitions
+  (let [desc (doto (table-desc)
+               (.setRangePartitions (into-array String ["id"])
+                                    (into-array String ["MINVALUE" "100" "MAXVALUE"])))]
+    (is (= (str "CREATE TABLE t " columns " PARTITION BY RANGE ( id )")
+           (.getCreateTableStatement desc)))
+    (is (= ["CREATE TABLE t_p0 PARTITION OF t FOR VALUES FROM ( MINVALUE ) TO ( 100 )"
+            "CREATE TABLE t_p1 PARTITION OF t FOR VALUES FROM ( 100 ) TO ( MAXVALUE )"]
+           (.getCreatePartitionStatements desc)))))
+
+(deftest unpartitioned-by-default
+  (let [desc (table-desc)]
+    (is (not (.isPartitioned desc)))
+    (is (= 0 (.getPartitionCount desc)))
+    (is (empty? (.getCreatePartitionStatements desc)))))
+
+(deftest invalid-partitions
+  (is (thrown? IllegalArgumentException
+               (.setHashPartitions (table-desc) 0 (into-array String ["id"]))))
+  (is (thrown? IllegalArgumentException
+               (.setHashPartitions (table-desc) 2 (into-array String []))))
+  (is (thrown? IllegalArgumentException
+               (.setRangePartitions (table-desc) (into-array String ["id"])
+                                    (into-array String ["0"])))))
@@ -0,0 +1,145 @@
+(ns com.twitter.maple.jdbc.test-util
+  (:import [java.sql DriverManager]
+           [cascading.scheme ConcreteCall]
+           [cascading.tuple Fields Tuple TupleEntry]
+           [com.twitter.maple.jdbc TupleRecord]
+           [com.twitter.maple.jdbc.db DBConfiguration DBOutputFormat]
+           [org.apache.hadoop.mapred JobConf OutputCollector Reporter]))
+
+(defn h2-url
+  "Returns the url of a new, empty in-memory H2 database, optionally
+  in the given compatibility mode."
+  ([] (h2-url nil))
+  ([mode]
+     (str "jdbc:h2:mem:" (gensym "maple") ";DB_CLOSE_DELAY=-1"
+          (when mode (str ";MODE=" mode)))))
+
+(defn execute!
+  "Executes the given statements against the database at url."
+  [url & statements]
+  (with-open [connection (DriverManager/getConnection url)
+              statement (.createStatement connection)]
+    (doseq [sql statements]
+      (.execute statement sql))))
+
+(defn query
+  "Returns the rows of the given query as vectors."
+  [url sql]
+  (with-open [connection (DriverManager/getConnection url)
+              statement (.createStatement connection)
+              results (.executeQuery statement sql)]
+    (let [columns (.getColumnCount (.getMetaData results))]
+      (doall (for [_ (take-while identity (repeatedly #(.next results)))]
+               (vec (for [i (range 1 (inc columns))]
+                      (.getObject results (int i)))))))))
+
+(defn output-conf
+  "Returns a JobConf writing the given fields of table at url in
+  batches of batch-size, keyed on key-fields."
+  [url table fields key-fields batch-size & [dialect]]
+  (doto (JobConf.)
+    (DBConfiguration/configureDB "org.h2.Driver" url)
+    (DBOutputFormat/setOutput DBOutputFormat table
+                              (into-array String fields)
+                              (when key-fields (into-array String key-fields))
+                              (int batch-size) false dialect)))
+
+(defn counting-reporter
+  "Returns a Reporter summing counters into the given atom, keyed by
+  counter name."
+  [counters]
+  (reify Reporter
+    (setStatus [_ status])
+    (progress [_])
+    (getCounter [_ counter] nil)
+    (getCounter [_ group counter] nil)
+    (getInputSplit [_] nil)
+    (^void incrCounter [_ ^Enum counter ^long amount]
+      (swap! counters update-in [(.name counter)] (fnil + 0) amount))
+    (^void incrCounter [_ ^String group ^String counter ^long amount]
+      (swap! counters update-in [(str group "/" counter)] (fnil + 0) amount))))
+
+(defn record
+  "Returns a TupleRecord of the given values."
+  [& values]
+  (TupleRecord. (Tuple. (into-array Object values))))
+
+(defn tombstone
+  "Returns a TupleRecord of the given values, only binding the values
+  at the given key positions."
+  [positions & values]
+  (TupleRecord. (Tuple. (into-array Object values)) (int-array positions)))
+
+(defn write-records
+  "Writes the given [values operation] pairs through a DBOutputFormat
+  writer created from conf, returning the counters it reported. Values
+  may also be a TupleRecord."
+  [conf writes]
+  (let [counters (atom {})
+        reporter (counting-reporter counters)
+        writer (.getRecordWriter (DBOutputFormat.) nil conf "test" reporter)]
+    (try
+      (doseq [[values operation] writes]
+        (.write writer (if (instance? TupleRecord values) values (apply record values))
+                operation))
+      (finally
+       (.close writer reporter)))
+    @counters))
+
+(defn sink-tuples
+  "Sinks the given tuples of the given fields through the scheme of the
+  given JDBCTap, into a DBOutputFormat writer configured by the tap,
+  returning the counters the writer reported."
+  [tap field-names tuples]
+  (let [conf (doto (JobConf.) (->> (.sinkConfInit tap nil)))
+        counters (atom {})
+        reporter (counting-reporter counters)
+        writer (.getRecordWriter (DBOutputFormat.) nil conf "test" reporter)
+        sink-call (doto (ConcreteCall.)
+                    (.setOutput (reify OutputCollector
+                                  (collect [_ key value] (.write writer key value)))))
+        fields (Fields. (into-array Comparable field-names))]
+    (try
+      (doseq [values tuples]
+        (.setOutgoingEntry sink-call (TupleEntry. fields (Tuple. (into-array Object values))))
+        (.sink (.getScheme tap) nil sink-call))
+      (finally
+       (.close writer reporter)))
+    @counters))
+
+(defn- find-member [members name arity]
+  (first (filter #(and (= name (.getName %))
+                       (= arity (count (.getParameterTypes %))))
+                 members)))
+
+(defn- unwrap [f]
+  (try
+    (f)
+    (catch java.lang.reflect.InvocationTargetException e
+      (throw (.getCause e)))))
+
+(defn call
+  "Calls the named method of obj, even if it is not public."
+  [obj name & args]
+  (let [method (loop [c (class obj)]
+                 (or (find-member (.getDeclaredMethods c) name (count args))
+                     (recur (.getSuperclass c))))]
+    (.setAccessible method true)
+    (let [result (unwrap #(.invoke method obj (object-array args)))]
+      ;; reflection may box new Booleans, which are always truthy
+      (if (instance? Boolean result) (boolean result) result))))
+
+(defn construct
+  "Creates an instance of the named class, even if neither the class
+  nor its constructor are public."
+  [class-name & args]
+  (let [constructor (find-member (.getDeclaredConstructors (Class/forName class-name))
+                                 class-name (count args))]
+    (.setAccessible constructor true)
+    (unwrap #(.newInstance constructor (object-array args)))))
+
+(defn temp-dir
+  "Returns the path of a new, empty local directory."
+  []
+  (str (java.nio.file.Files/createTempDirectory
+        "maple" (make-array java.nio.file.attribute.FileAttribute 0))))
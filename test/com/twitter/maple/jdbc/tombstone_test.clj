@@ -0,0 +1,57 @@
+(ns com.twitter.maple.jdbc.tombstone-test
+  (:use clojure.test
+        com.twitter.maple.jdbc.test-util)
+  (:import [cascading.tap SinkMode]
+           [com.twitter.maple.jdbc JDBCScheme JDBCTap TableDesc]
+           [com.twitter.maple.jdbc.db DBOutputFormat UpsertDialect WriteOperation]))
+
+(defn tombstone-tap [url dialect deduplicate?]
+  (JDBCTap. url "org.h2.Driver"
+            (TableDesc. "t"
+                        (into-array String ["id" "name"])
+                        (into-array String ["INT" "VARCHAR(10)"])
+                        (into-array String ["id"]))
+            (doto (JDBCScheme. (into-array String ["id" "name"]) nil (into-array String ["id"]))
+              (.setUpsertDialect dialect)
+              (.setTombstoneField "deleted")
+              (.setDeduplicateByKey deduplicate?))
+            SinkMode/UPDATE))
+
+(def change-set
+  [[1 "a" false] [1 nil true] [1 "b" false]
+   [2 "x" false] [2 nil true]
+   [3 nil true]])
+
+(defn apply-change-set [dialect deduplicate?]
+  (let [url (h2-url)]
+    (execute! url
+              "CREATE TABLE t (id INT PRIMARY KEY, name VARCHAR(10))"
+              "INSERT INTO t VALUES (3, 'c'), (4, 'd')")
+    [(sink-tuples (tombstone-tap url dialect deduplicate?) ["id" "name" "deleted"] change-set)
+     (query url "SELECT id, name FROM t ORDER BY id")]))
+
+(deftest applies-writes-in-the-order-collected
+  (let [[counters rows] (apply-change-set UpsertDialect/H2 false)]
+    (is (= [[1 "b"] [4 "d"]] rows))
+    (testing "a batch executes early before an upsert would overtake a tombstone"
+      (is (= 1 (counters "ORDER_LIMITED_BATCHES")))
+      (is (= 2 (counters "BATCHES"))))
+    (is (= 3 (counters "DELETED_ROWS")))))
+
+(deftest only-same-key-writes-execute-early-when-deduplicating
+  (let [[counters rows] (apply-change-set UpsertDialect/H2 true)]
+    (is (= [[1 "b"] [4 "d"]] rows))
+    (is (nil? (counters "ORDER_LIMITED_BATCHES")))
+    (is (= 3 (counters "DEDUPLICATED_ROWS")))
+    (is (= 1 (counters "BATCHES")))))
+
+(deftest tombstones-without-deletes-enabled-fail
+  (let [url (h2-url)]
+    (execute! url "CREATE TABLE t (id INT PRIMARY KEY, name VARCHAR(10))")
+    (is (thrown? java.io.IOException
+                 (write-records (output-conf url "t" ["id" "name"] ["id"] 10)
+                                [[(tombstone [0] 1 nil) WriteOperation/DELETE]])))))
+
+(deftest tombstones-require-keys
+  (is (thrown? IllegalArgumentException
+               (.setTombstoneField (JDBCScheme. (into-array String ["id" "name"])) "deleted"))))
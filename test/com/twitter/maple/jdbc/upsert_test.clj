@@ -0,0 +1,48 @@
+(ns com.twitter.maple.jdbc.upsert-test
+  (:use clojure.test
+        com.twitter.maple.jdbc.test-util)
+  (:import [com.twitter.maple.jdbc.db DBOutputFormat UpsertDialect]))
+
+(defn upsert-sql [fields keys dialect & [hash-column]]
+  (call (DBOutputFormat.) "constructUpsertQuery" "t"
+        (into-array String fields)
+        (when keys (into-array String keys))
+        dialect hash-column))
+
+(deftest upsert-sql-per-dialect
+  (is (= "INSERT INTO t (id,name) VALUES (?,?) ON CONFLICT (id) DO UPDATE SET name=EXCLUDED.name;"
+         (upsert-sql ["id" "name"] ["id"] UpsertDialect/POSTGRES)))
+  (is (= "INSERT INTO t (id) VALUES (?) ON CONFLICT (id) DO NOTHING;"
+         (upsert-sql ["id"] ["id"] UpsertDialect/POSTGRES)))
+  (is (= (str "MERGE INTO t USING (VALUES (?,?)) AS src (id,name) ON (t.id = src.id)"
+              " WHEN MATCHED THEN UPDATE SET name = src.name"
+              " WHEN NOT MATCHED THEN INSERT (id,name) VALUES (src.id,src.name);")
+         (upsert-sql ["id" "name"] ["id"] UpsertDialect/MERGE)))
+  (is (= "MERGE INTO t (id,name) KEY (id) VALUES (?,?);"
+         (upsert-sql ["id" "name"] ["id"] UpsertDialect/H2)))
+  (is (= "INSERT INTO t (id,name) VALUES (?,?) ON DUPLICATE KEY UPDATE id=VALUES(id),name=VALUES(name);"
+         (upsert-sql ["id" "name"] nil UpsertDialect/MYSQL))))
+
+(deftest upsert-requires-keys
+  (doseq [dialect [UpsertDialect/POSTGRES UpsertDialect/MERGE UpsertDialect/H2]]
+    (is (thrown? IllegalArgumentException
+                 (upsert-sql ["id" "name"] nil dialect)))))
+
+(defn upsert-twice [mode dialect]
+  (let [url (h2-url mode)
+        conf (output-conf url "t" ["id" "name"] ["id"] 10 dialect)]
+    (execute! url "CREATE TABLE t (id INT PRIMARY KEY, name VARCHAR(10))")
+    (write-records conf [[[1 "a"]] [[2 "b"]]])
+    (write-records conf [[[1 "c"]] [[3 "d"]]])
+    (query url "SELECT id, name FROM t ORDER BY id")))
+
+(deftest upsert-updates-existing-rows
+  ;; H2 has no derived column lists to run MERGE ... USING with
+  (doseq [[mode dialect] [[nil UpsertDialect/H2]
+                          ["MySQL" UpsertDialect/MYSQL]]]
+    (testing (str dialect)
+      (is (= [[1 "c"] [2 "b"] [3 "d"]]
+             (upsert-twice mode dialect))))))
+
+(deftest insert-without-dialect-fails-on-existing-rows
+  (is (thrown? java.io.IOException (upsert-twice nil nil))))